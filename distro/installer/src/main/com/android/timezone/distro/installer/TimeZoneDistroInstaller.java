@@ -117,9 +117,21 @@ public class TimeZoneDistroInstaller {
     private final File stagedTzDataDir;
     private final File currentTzDataDir;
     private final File workingDir;
+    private final boolean deepValidation;
 
     public TimeZoneDistroInstaller(String logTag, File baseVersionFile, File installDir) {
+        this(logTag, baseVersionFile, installDir, false /* deepValidation */);
+    }
+
+    /**
+     * Creates an installer. A tzdata file that has a checksums section is normally only checked
+     * against it; if {@code deepValidation} is {@code true}, every zone is also loaded and
+     * validated, as it always is for a tzdata file without checksums.
+     */
+    public TimeZoneDistroInstaller(String logTag, File baseVersionFile, File installDir,
+            boolean deepValidation) {
         this.logTag = logTag;
+        this.deepValidation = deepValidation;
         this.baseVersionFile = baseVersionFile;
         oldStagedDataDir = new File(installDir, OLD_TZ_DATA_DIR_NAME);
         stagedTzDataDir = new File(installDir, STAGED_TZ_DATA_DIR_NAME);
@@ -205,20 +217,32 @@ public class TimeZoneDistroInstaller {
                 return INSTALL_FAIL_RULES_TOO_OLD;
             }
 
-            // Validate the tzdata file.
+            // Validate the tzdata file. If it has checksums, checking them is enough unless deep
+            // validation was asked for: loading and validating every zone is much slower.
             File zoneInfoFile = new File(workingDir, TimeZoneDistro.TZDATA_FILE_NAME);
-            ZoneInfoDB.TzData tzData = ZoneInfoDB.TzData.loadTzData(zoneInfoFile.getPath());
-            if (tzData == null) {
-                Slog.i(logTag, "Update not applied: " + zoneInfoFile + " could not be loaded");
-                return INSTALL_FAIL_VALIDATION_ERROR;
-            }
+            boolean checksumsVerified;
             try {
-                tzData.validate();
+                checksumsVerified = TzDataChecksums.verify(zoneInfoFile);
             } catch (IOException e) {
-                Slog.i(logTag, "Update not applied: " + zoneInfoFile + " failed validation", e);
+                Slog.i(logTag, "Update not applied: " + zoneInfoFile + " failed checksum"
+                        + " validation", e);
                 return INSTALL_FAIL_VALIDATION_ERROR;
-            } finally {
-                tzData.close();
+            }
+            if (deepValidation || !checksumsVerified) {
+                ZoneInfoDB.TzData tzData = ZoneInfoDB.TzData.loadTzData(zoneInfoFile.getPath());
+                if (tzData == null) {
+                    Slog.i(logTag, "Update not applied: " + zoneInfoFile + " could not be loaded");
+                    return INSTALL_FAIL_VALIDATION_ERROR;
+                }
+                try {
+                    tzData.validate();
+                } catch (IOException e) {
+                    Slog.i(logTag, "Update not applied: " + zoneInfoFile + " failed validation",
+                            e);
+                    return INSTALL_FAIL_VALIDATION_ERROR;
+                } finally {
+                    tzData.close();
+                }
             }
 
             // Validate the tzlookup.xml file.
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.timezone.distro.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+
+/**
+ * Checks the integrity of a tzdata file against its checksums section ("zcrc"), which
+ * ZoneCompactor writes when run with --checksums. The file is read once, sequentially, and no
+ * zones are parsed, so this is much cheaper than loading the file and validating every zone.
+ */
+final class TzDataChecksums {
+
+    private static final int HEADER_SIZE = 12 + 4 + 4 + 4;
+
+    private static final int INDEX_ENTRY_SIZE = 40 + 4 + 4 + 4;
+
+    private static final byte[] VERSION_PREFIX = "tzdata".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] EXTENSION_MAGIC = "tzex".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] CHECKSUMS_TAG = "zcrc".getBytes(StandardCharsets.US_ASCII);
+
+    private TzDataChecksums() {}
+
+    /**
+     * Checks the index, zone.tab and zone payloads of {@code file} against its checksums
+     * section. Returns {@code false} if the file has no checksums section, in which case nothing
+     * has been checked.
+     *
+     * @throws IOException if the file cannot be read, is malformed, or does not match its
+     *     checksums
+     */
+    static boolean verify(File file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        if (buffer.limit() < HEADER_SIZE || !startsWith(buffer, 0, VERSION_PREFIX)) {
+            throw new IOException("Bad tzdata header: " + file);
+        }
+        int indexOffset = buffer.getInt(12);
+        int dataOffset = buffer.getInt(16);
+        int zoneTabOffset = buffer.getInt(20);
+        if (indexOffset < HEADER_SIZE || dataOffset < indexOffset
+                || zoneTabOffset < dataOffset || zoneTabOffset > buffer.limit()
+                || (dataOffset - indexOffset) % INDEX_ENTRY_SIZE != 0) {
+            throw new IOException("Bad tzdata offsets: " + file);
+        }
+        int zoneCount = (dataOffset - indexOffset) / INDEX_ENTRY_SIZE;
+
+        ByteBuffer checksums = findChecksums(buffer, indexOffset);
+        if (checksums == null) {
+            return false;
+        }
+        if (checksums.limit() != 4 + 4 + 4 * zoneCount) {
+            throw new IOException("Bad checksums section: " + file);
+        }
+        if (checksum(buffer, indexOffset, dataOffset - indexOffset) != checksums.getInt(0)) {
+            throw new IOException("Index checksum mismatch: " + file);
+        }
+        if (checksum(buffer, zoneTabOffset, buffer.limit() - zoneTabOffset)
+                != checksums.getInt(4)) {
+            throw new IOException("zone.tab checksum mismatch: " + file);
+        }
+        int dataLength = zoneTabOffset - dataOffset;
+        for (int i = 0; i < zoneCount; i++) {
+            int entryOffset = indexOffset + i * INDEX_ENTRY_SIZE;
+            int offset = buffer.getInt(entryOffset + 40);
+            int length = buffer.getInt(entryOffset + 44);
+            if (offset < 0 || length < 0 || offset > dataLength - length) {
+                throw new IOException("Bad index entry " + i + ": " + file);
+            }
+            if (checksum(buffer, dataOffset + offset, length) != checksums.getInt(8 + 4 * i)) {
+                throw new IOException("Payload checksum mismatch for index entry " + i + ": "
+                        + file);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the checksums section from the header extension of {@code buffer}, or {@code null}
+     * if there is no such section.
+     */
+    private static ByteBuffer findChecksums(ByteBuffer buffer, int indexOffset)
+            throws IOException {
+        if (indexOffset < HEADER_SIZE + 8 || !startsWith(buffer, HEADER_SIZE, EXTENSION_MAGIC)) {
+            return null;
+        }
+        int sectionCount = buffer.getInt(HEADER_SIZE + 4);
+        if (sectionCount < 0 || sectionCount > (indexOffset - HEADER_SIZE - 8) / 12) {
+            throw new IOException("Bad section count: " + sectionCount);
+        }
+        for (int i = 0; i < sectionCount; i++) {
+            int entryOffset = HEADER_SIZE + 8 + 12 * i;
+            if (startsWith(buffer, entryOffset, CHECKSUMS_TAG)) {
+                int offset = buffer.getInt(entryOffset + 4);
+                int length = buffer.getInt(entryOffset + 8);
+                if (offset < HEADER_SIZE || length < 0 || offset > indexOffset - length) {
+                    throw new IOException("Bad checksums section offset");
+                }
+                ByteBuffer section = buffer.duplicate();
+                section.position(offset);
+                section.limit(offset + length);
+                return section.slice();
+            }
+        }
+        return null;
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int offset, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(offset + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), offset, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.timezone.distro.installer;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+
+/**
+ * Tests for {@link TzDataChecksums}.
+ */
+public class TzDataChecksumsTest extends TestCase {
+
+    private static final String ZONE_TAB = "GB\t+513030-0000731\tEurope/London\n";
+
+    private File tempFile;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        tempFile = File.createTempFile("tzdata", null);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        tempFile.delete();
+        super.tearDown();
+    }
+
+    public void testVerify_validChecksums() throws Exception {
+        Files.write(tempFile.toPath(), createTzData(true /* withChecksums */));
+        assertTrue(TzDataChecksums.verify(tempFile));
+    }
+
+    public void testVerify_noChecksums() throws Exception {
+        Files.write(tempFile.toPath(), createTzData(false /* withChecksums */));
+        assertFalse(TzDataChecksums.verify(tempFile));
+    }
+
+    public void testVerify_corruptPayload() throws Exception {
+        byte[] tzData = createTzData(true /* withChecksums */);
+        // The last payload byte is just before zone.tab.
+        tzData[tzData.length - ZONE_TAB.length() - 1] ^= 1;
+        Files.write(tempFile.toPath(), tzData);
+        try {
+            TzDataChecksums.verify(tempFile);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testVerify_corruptZoneTab() throws Exception {
+        byte[] tzData = createTzData(true /* withChecksums */);
+        tzData[tzData.length - 1] = 'X';
+        Files.write(tempFile.toPath(), tzData);
+        try {
+            TzDataChecksums.verify(tempFile);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testVerify_badHeader() throws Exception {
+        byte[] tzData = createTzData(true /* withChecksums */);
+        tzData[0] = 'X';
+        Files.write(tempFile.toPath(), tzData);
+        try {
+            TzDataChecksums.verify(tempFile);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    /**
+     * Creates a tzdata file with two zones that share one payload, optionally with a checksums
+     * section.
+     */
+    private static byte[] createTzData(boolean withChecksums) {
+        byte[] payload = "TZifLondon".getBytes(StandardCharsets.US_ASCII);
+        byte[] zoneTab = ZONE_TAB.getBytes(StandardCharsets.US_ASCII);
+        int checksumsLength = 4 + 4 + 4 * 2;
+        int indexOffset = withChecksums ? 24 + 8 + 12 + checksumsLength : 24;
+        int dataOffset = indexOffset + 2 * 52;
+        int zoneTabOffset = dataOffset + payload.length;
+
+        ByteBuffer buffer = ByteBuffer.allocate(zoneTabOffset + zoneTab.length);
+        buffer.put("tzdata2019b".getBytes(StandardCharsets.US_ASCII));
+        buffer.position(12);
+        buffer.putInt(indexOffset).putInt(dataOffset).putInt(zoneTabOffset);
+        buffer.position(indexOffset);
+        for (String zoneId : new String[] { "Europe/Belfast", "Europe/London" }) {
+            byte[] name = new byte[40];
+            byte[] zoneIdBytes = zoneId.getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(zoneIdBytes, 0, name, 0, zoneIdBytes.length);
+            buffer.put(name).putInt(0).putInt(payload.length).putInt(0);
+        }
+        buffer.put(payload);
+        buffer.put(zoneTab);
+
+        if (withChecksums) {
+            buffer.position(24);
+            buffer.put("tzex".getBytes(StandardCharsets.US_ASCII)).putInt(1);
+            buffer.put("zcrc".getBytes(StandardCharsets.US_ASCII)).putInt(24 + 8 + 12)
+                    .putInt(checksumsLength);
+            buffer.putInt(crc(buffer.array(), indexOffset, dataOffset - indexOffset));
+            buffer.putInt(crc(zoneTab, 0, zoneTab.length));
+            buffer.putInt(crc(payload, 0, payload.length));
+            buffer.putInt(crc(payload, 0, payload.length));
+        }
+        return buffer.array();
+    }
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.timezone.tzdata;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A view of a name dictionary section: sorted, front-coded names, each with a fixed number of
+ * int values. The section has the form:
+ * <pre>
+ * int n                  -- the number of names
+ * int restart_interval   -- k
+ * n * { int[] values }
+ * int[(n + k - 1) / k] restart_offsets  -- from the start of the section
+ * n * { byte shared; byte suffix_length; byte[suffix_length] suffix }
+ * </pre>
+ *
+ * <p>Each name is the first {@code shared} characters of the previous name followed by
+ * {@code suffix}. Every k-th name is stored whole, so the names can be binary searched without
+ * allocating.
+ */
+final class NameDictionary {
+
+    private final ByteBuffer section;
+    private final int columns;
+    private final int count;
+    private final int restartInterval;
+    private final int restartsOffset;
+
+    /**
+     * Creates a view of {@code section}, which has {@code columns} values for each name, after
+     * checking that every entry is within the section.
+     */
+    NameDictionary(ByteBuffer section, int columns) throws IOException {
+        this.section = section;
+        this.columns = columns;
+        count = section.limit() < 8 ? -1 : section.getInt(0);
+        restartInterval = section.limit() < 8 ? 0 : section.getInt(4);
+        if (count < 0 || restartInterval <= 0
+                || count > (section.limit() - 8) / (4 * columns)) {
+            throw new IOException("Bad name dictionary");
+        }
+        restartsOffset = 8 + 4 * columns * count;
+        int restartCount = (count + restartInterval - 1) / restartInterval;
+        if (restartCount > (section.limit() - restartsOffset) / 4) {
+            throw new IOException("Bad name dictionary");
+        }
+        int entryOffset = restartsOffset + 4 * restartCount;
+        int previousLength = 0;
+        for (int i = 0; i < count; i++) {
+            if (entryOffset > section.limit() - 2) {
+                throw new IOException("Bad name dictionary entry " + i);
+            }
+            int shared = section.get(entryOffset) & 0xff;
+            int suffixLength = section.get(entryOffset + 1) & 0xff;
+            boolean restart = i % restartInterval == 0;
+            if ((restart && (shared != 0 || restartOffset(i / restartInterval) != entryOffset))
+                    || shared > previousLength
+                    || suffixLength > section.limit() - entryOffset - 2) {
+                throw new IOException("Bad name dictionary entry " + i);
+            }
+            previousLength = shared + suffixLength;
+            entryOffset += 2 + suffixLength;
+        }
+    }
+
+    /** Returns a view of the whole section. */
+    ByteBuffer getSection() {
+        return section.duplicate();
+    }
+
+    /** Returns the number of names. */
+    int size() {
+        return count;
+    }
+
+    /** Returns value {@code column} of the name at {@code index}. */
+    int getValue(int index, int column) {
+        return section.getInt(8 + 4 * (columns * index + column));
+    }
+
+    /** Returns the name at {@code index}, rebuilt from the restart before it. */
+    String getName(int index) {
+        int i = index - index % restartInterval;
+        int entryOffset = restartOffset(i / restartInterval);
+        StringBuilder sb = new StringBuilder();
+        for (; ; i++) {
+            int shared = section.get(entryOffset) & 0xff;
+            int suffixLength = section.get(entryOffset + 1) & 0xff;
+            sb.setLength(shared);
+            for (int j = 0; j < suffixLength; j++) {
+                sb.append((char) section.get(entryOffset + 2 + j));
+            }
+            if (i == index) {
+                return sb.toString();
+            }
+            entryOffset += 2 + suffixLength;
+        }
+    }
+
+    /**
+     * Returns the position of {@code name}, or -1 if it is not in the dictionary: a binary search
+     * of the names at restart points, then a scan of the names after the last one that is not
+     * greater than {@code name}. The scan tracks how many leading characters of {@code name}
+     * the current name matches, so it never has to rebuild a name.
+     */
+    int find(String name) {
+        int low = 0;
+        int high = (count + restartInterval - 1) / restartInterval - 1;
+        int block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comparison = compareRestart(restartOffset(mid), name);
+            if (comparison <= 0) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (block < 0) {
+            return -1;
+        }
+
+        int index = block * restartInterval;
+        int end = Math.min(count, index + restartInterval);
+        int entryOffset = restartOffset(block);
+        int matched = 0;
+        for (; index < end; index++) {
+            int shared = section.get(entryOffset) & 0xff;
+            int suffixLength = section.get(entryOffset + 1) & 0xff;
+            int suffixOffset = entryOffset + 2;
+            entryOffset = suffixOffset + suffixLength;
+            if (shared > matched) {
+                // Same as the previous name up to where it was already less than name.
+                continue;
+            }
+            if (shared < matched) {
+                // Greater than the previous name where it matched name, so greater than name.
+                return -1;
+            }
+            int i = 0;
+            while (i < suffixLength && matched < name.length()
+                    && (section.get(suffixOffset + i) & 0xff) == name.charAt(matched)) {
+                i++;
+                matched++;
+            }
+            if (i == suffixLength) {
+                if (matched == name.length()) {
+                    return index;
+                }
+                // A prefix of name, so less than it.
+                continue;
+            }
+            if (matched == name.length()
+                    || (section.get(suffixOffset + i) & 0xff) > name.charAt(matched)) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns {@code true} if the name at {@code index} is {@code name}. */
+    boolean nameEquals(int index, String name) {
+        int i = index - index % restartInterval;
+        int entryOffset = restartOffset(i / restartInterval);
+        // How many leading characters of name the current name matches.
+        int matched = 0;
+        for (; ; i++) {
+            int shared = section.get(entryOffset) & 0xff;
+            int suffixLength = section.get(entryOffset + 1) & 0xff;
+            if (shared <= matched) {
+                matched = shared;
+                for (int j = 0; j < suffixLength && matched < name.length()
+                        && (section.get(entryOffset + 2 + j) & 0xff)
+                                == name.charAt(matched); j++) {
+                    matched++;
+                }
+            }
+            if (i == index) {
+                return matched == name.length() && shared + suffixLength == matched;
+            }
+            entryOffset += 2 + suffixLength;
+        }
+    }
+
+    private int restartOffset(int restart) {
+        return section.getInt(restartsOffset + 4 * restart);
+    }
+
+    /** Compares the name of the restart entry at {@code entryOffset} with {@code name}. */
+    private int compareRestart(int entryOffset, String name) {
+        int length = section.get(entryOffset + 1) & 0xff;
+        int nameLength = name.length();
+        for (int i = 0; i < length && i < nameLength; i++) {
+            int b = section.get(entryOffset + 2 + i) & 0xff;
+            int c = name.charAt(i);
+            if (b != c) {
+                return b - c;
+            }
+        }
+        return length - nameLength;
+    }
+}
@@ -0,0 +1,1082 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.timezone.tzdata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A read-only view of a tzdata file, as written by ZoneCompactor, for host-side tools.
+ *
+ * <p>The file is memory-mapped. Zones are found by binary searching the sorted index in place
+ * and payloads are returned as slices of the mapping, so looking up a zone does not copy any
+ * zone data.
+ *
+ * <p>The file has the form:
+ * <pre>
+ * byte[12] tzdata_version  -- e.g. "tzdata2019b\0"
+ * int index_offset
+ * int data_offset
+ * int zonetab_offset
+ * optional header extension, present if it starts with "tzex":
+ *     byte[4] "tzex"
+ *     int section_count
+ *     section_count * { byte[4] tag; int offset; int length }  -- offsets from the file start
+ *     the sections
+ * index: (data_offset - index_offset) / 52 entries, sorted by name, each of:
+ *     byte[40] name        -- NUL padded
+ *     int offset           -- relative to data_offset
+ *     int length
+ *     int unused
+ * data: zic output for each zone
+ * zone.tab: the text of zone.tab without comments, to the end of the file
+ * </pre>
+ *
+ * <p>Sections that this class understands:
+ * <ul>
+ *     <li>"zhsh": a minimal perfect hash from zone ID to index slot. When present,
+ *     {@link #findZone(String)} uses it instead of a binary search.</li>
+ *     <li>"ztrn": pre-decoded transitions for each index slot, see
+ *     {@link #getTransitions(int)}.</li>
+ *     <li>"zblk": the block index of a block-compressed file. Such a file starts with "tzblk"
+ *     rather than "tzdata" and its data section holds independently compressed blocks of
+ *     payloads; the index offsets are positions in the uncompressed data. See
+ *     {@link #isCompressed()}.</li>
+ *     <li>"zdic": a front-coded dictionary of the zone IDs with the payload of each, which
+ *     replaces the index in a file with a compact index. Such a file starts with "tzidx" and
+ *     its index is empty. Every k-th ID, where k is given in the section, is stored whole, so
+ *     the dictionary can still be binary searched without allocating.</li>
+ *     <li>"zals": the aliases declared by links in a file with a compact index, in the same
+ *     form as "zdic" but with the index slot of the zone each alias is for instead of a payload.
+ *     Such aliases are not in the index; {@link #findZone(String)} resolves them to the slot of
+ *     their zone, see also {@link #findAlias(String)}.</li>
+ *     <li>"zcrc": CRC-32 checksums of the index (or of "zdic" then "zals"), the zone.tab
+ *     section and the uncompressed payload of each index slot, see
+ *     {@link #verifyChecksums()}.</li>
+ *     <li>"zcty": the country codes in zone.tab, sorted, each with the index slots of its zones
+ *     in zone.tab order, see {@link #getCountryZones(String)}.</li>
+ *     <li>"zrul": the POSIX TZ string from the footer of the zic output of each index slot,
+ *     shared between slots with the same rule, see {@link #getRuleId(int)}.</li>
+ *     <li>"zyrs": the offset-changing transitions of each index slot over a range of years,
+ *     bucketed by year, see {@link #getOffsetAt(int, long)}.</li>
+ * </ul>
+ */
+public final class TzDataFile implements Closeable {
+
+    /** The number of bytes used for a zone name in the index, including the NUL terminator. */
+    public static final int MAXNAME = 40;
+
+    private static final int VERSION_LENGTH = 12;
+
+    private static final int HEADER_SIZE = VERSION_LENGTH + 4 + 4 + 4;
+
+    private static final int INDEX_ENTRY_SIZE = MAXNAME + 4 + 4 + 4;
+
+    private static final byte[] VERSION_PREFIX = "tzdata".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] COMPRESSED_VERSION_PREFIX =
+            "tzblk".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] COMPACT_INDEX_VERSION_PREFIX =
+            "tzidx".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] EXTENSION_MAGIC = "tzex".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int EXTENSION_HEADER_SIZE = 4 + 4;
+
+    private static final int SECTION_ENTRY_SIZE = 4 + 4 + 4;
+
+    /** The tag of the perfect hash section. */
+    public static final String PERFECT_HASH_SECTION = "zhsh";
+
+    /** The tag of the pre-decoded transitions section. */
+    public static final String TRANSITIONS_SECTION = "ztrn";
+
+    private static final int TRANSITION_TABLE_HEADER_SIZE = 4 + 4 + 4 + 4;
+
+    /** The tag of the block index section of a block-compressed file. */
+    public static final String COMPRESSED_BLOCKS_SECTION = "zblk";
+
+    private static final int COMPRESSED_BLOCK_ENTRY_SIZE = 4 + 4 + 4 + 4;
+
+    /** The tag of the checksums section. */
+    public static final String CHECKSUMS_SECTION = "zcrc";
+
+    /** The tag of the name dictionary section of a file with a compact index. */
+    public static final String NAME_DICTIONARY_SECTION = "zdic";
+
+    /** The tag of the alias section of a file with a compact index. */
+    public static final String ALIASES_SECTION = "zals";
+
+    /** The tag of the country section. */
+    public static final String COUNTRIES_SECTION = "zcty";
+
+    private static final int COUNTRY_ENTRY_SIZE = 2 + 2 + 4;
+
+    /** The tag of the POSIX TZ rules section. */
+    public static final String RULES_SECTION = "zrul";
+
+    /** The tag of the year buckets section. */
+    public static final String YEAR_BUCKETS_SECTION = "zyrs";
+
+    private static final int YEAR_BUCKETS_HEADER_SIZE = 4 + 4 + 4 + 4;
+
+    /** The average length of a Gregorian year in seconds, for guessing the year of an instant. */
+    private static final long AVERAGE_YEAR_SECONDS = 31556952;
+
+    private static final int FNV_OFFSET_BASIS = 0x811c9dc5;
+
+    private static final int FNV_PRIME = 0x01000193;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer mappedFile;
+    private final String version;
+    private final int indexOffset;
+    private final int dataOffset;
+    private final int zoneTabOffset;
+    private final int zoneCount;
+    private final int sectionCount;
+
+    /** The perfect hash section, or {@code null} if there is not one. */
+    private final ByteBuffer perfectHash;
+
+    /** The transitions section, or {@code null} if there is not one. */
+    private final ByteBuffer transitions;
+
+    /** The block index of a block-compressed file, or {@code null} for an uncompressed one. */
+    private final ByteBuffer compressedBlocks;
+
+    /** The checksums section, or {@code null} if there is not one. */
+    private final ByteBuffer checksums;
+
+    /**
+     * The name dictionary section, which replaces the index of a file with a compact index, or
+     * {@code null} if the file has index entries.
+     */
+    private final NameDictionary dictionary;
+
+    /** The alias section, or {@code null} if there is not one. */
+    private final NameDictionary aliases;
+
+    /** The country section, or {@code null} if there is not one. */
+    private final ByteBuffer countries;
+
+    /** The rules section, or {@code null} if there is not one. */
+    private final ByteBuffer rules;
+
+    /** The year buckets section, or {@code null} if there is not one. */
+    private final ByteBuffer yearBuckets;
+
+    private TzDataFile(FileChannel channel, MappedByteBuffer mappedFile) throws IOException {
+        this.channel = channel;
+        this.mappedFile = mappedFile;
+        mappedFile.order(ByteOrder.BIG_ENDIAN);
+
+        int fileLength = mappedFile.capacity();
+        if (fileLength < HEADER_SIZE) {
+            throw new IOException("File too short for header: " + fileLength);
+        }
+        boolean compressed = startsWith(mappedFile, COMPRESSED_VERSION_PREFIX);
+        boolean compactIndex = startsWith(mappedFile, COMPACT_INDEX_VERSION_PREFIX);
+        if (!compressed && !compactIndex && !startsWith(mappedFile, VERSION_PREFIX)) {
+            throw new IOException("File does not start with tzdata, tzblk or tzidx");
+        }
+        version = readAscii(mappedFile, 0, VERSION_LENGTH);
+        indexOffset = mappedFile.getInt(VERSION_LENGTH);
+        dataOffset = mappedFile.getInt(VERSION_LENGTH + 4);
+        zoneTabOffset = mappedFile.getInt(VERSION_LENGTH + 8);
+        if (indexOffset < HEADER_SIZE || dataOffset < indexOffset
+                || zoneTabOffset < dataOffset || zoneTabOffset > fileLength) {
+            throw new IOException("Bad header offsets: index_offset=" + indexOffset
+                    + ", data_offset=" + dataOffset + ", zonetab_offset=" + zoneTabOffset
+                    + ", file length=" + fileLength);
+        }
+        if ((dataOffset - indexOffset) % INDEX_ENTRY_SIZE != 0) {
+            throw new IOException("Index length is not a multiple of " + INDEX_ENTRY_SIZE
+                    + ": " + (dataOffset - indexOffset));
+        }
+        sectionCount = readSectionCount();
+        ByteBuffer dictionarySection = getSection(NAME_DICTIONARY_SECTION);
+        if (dictionarySection != null) {
+            if (dataOffset != indexOffset) {
+                throw new IOException("File has both index entries and a name dictionary");
+            }
+            dictionary = new NameDictionary(dictionarySection, 2);
+            zoneCount = dictionary.size();
+        } else {
+            if (compactIndex) {
+                throw new IOException("Compact index file has no name dictionary");
+            }
+            dictionary = null;
+            zoneCount = (dataOffset - indexOffset) / INDEX_ENTRY_SIZE;
+        }
+        ByteBuffer aliasesSection = getSection(ALIASES_SECTION);
+        if (aliasesSection != null) {
+            if (dictionary == null) {
+                throw new IOException("File has an alias section but no name dictionary");
+            }
+            aliases = new NameDictionary(aliasesSection, 1);
+            for (int i = 0; i < aliases.size(); i++) {
+                int target = aliases.getValue(i, 0);
+                if (target < 0 || target >= zoneCount) {
+                    throw new IOException("Bad alias target " + target + " for alias " + i);
+                }
+            }
+        } else {
+            aliases = null;
+        }
+        perfectHash = getSection(PERFECT_HASH_SECTION);
+        if (perfectHash != null) {
+            validatePerfectHash(perfectHash, zoneCount);
+        }
+        transitions = getSection(TRANSITIONS_SECTION);
+        if (transitions != null) {
+            validateTransitions(transitions, zoneCount);
+        }
+        compressedBlocks = compressed ? getSection(COMPRESSED_BLOCKS_SECTION) : null;
+        if (compressed) {
+            if (compressedBlocks == null) {
+                throw new IOException("Compressed file has no block index");
+            }
+            validateCompressedBlocks(compressedBlocks, zoneTabOffset - dataOffset);
+        }
+        checksums = getSection(CHECKSUMS_SECTION);
+        if (checksums != null && checksums.limit() != 4 + 4 + 4 * zoneCount) {
+            throw new IOException("Bad checksums section for " + zoneCount + " zones");
+        }
+        countries = getSection(COUNTRIES_SECTION);
+        if (countries != null) {
+            validateCountries(countries, zoneCount);
+        }
+        rules = getSection(RULES_SECTION);
+        if (rules != null) {
+            validateRules(rules, zoneCount);
+        }
+        yearBuckets = getSection(YEAR_BUCKETS_SECTION);
+        if (yearBuckets != null) {
+            validateYearBuckets(yearBuckets, zoneCount);
+        }
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void validateCompressedBlocks(ByteBuffer section, int dataLength)
+            throws IOException {
+        int count = section.limit() < 4 ? -1 : section.getInt(0);
+        if (count < 0 || section.limit() != 4 + COMPRESSED_BLOCK_ENTRY_SIZE * count) {
+            throw new IOException("Bad block index");
+        }
+        int previousEnd = 0;
+        for (int i = 0; i < count; i++) {
+            int entryOffset = 4 + COMPRESSED_BLOCK_ENTRY_SIZE * i;
+            int uncompressedOffset = section.getInt(entryOffset);
+            int uncompressedLength = section.getInt(entryOffset + 4);
+            int compressedOffset = section.getInt(entryOffset + 8);
+            int compressedLength = section.getInt(entryOffset + 12);
+            if (uncompressedOffset != previousEnd || uncompressedLength < 0
+                    || compressedOffset < 0 || compressedLength < 0
+                    || compressedOffset > dataLength - compressedLength) {
+                throw new IOException("Bad block index entry " + i);
+            }
+            previousEnd = uncompressedOffset + uncompressedLength;
+        }
+    }
+
+    private int readSectionCount() throws IOException {
+        if (indexOffset < HEADER_SIZE + EXTENSION_HEADER_SIZE) {
+            return 0;
+        }
+        for (int i = 0; i < EXTENSION_MAGIC.length; i++) {
+            if (mappedFile.get(HEADER_SIZE + i) != EXTENSION_MAGIC[i]) {
+                return 0;
+            }
+        }
+        int count = mappedFile.getInt(HEADER_SIZE + EXTENSION_MAGIC.length);
+        if (count < 0 || count > (indexOffset - HEADER_SIZE - EXTENSION_HEADER_SIZE)
+                / SECTION_ENTRY_SIZE) {
+            throw new IOException("Bad section count: " + count);
+        }
+        for (int i = 0; i < count; i++) {
+            int entryOffset = sectionEntryOffset(i);
+            int offset = mappedFile.getInt(entryOffset + 4);
+            int length = mappedFile.getInt(entryOffset + 8);
+            if (offset < HEADER_SIZE || length < 0 || offset > indexOffset - length) {
+                throw new IOException("Bad section " + readAscii(mappedFile, entryOffset, 4)
+                        + ": offset=" + offset + ", length=" + length);
+            }
+        }
+        return count;
+    }
+
+    private static void validatePerfectHash(ByteBuffer section, int zoneCount)
+            throws IOException {
+        if (section.limit() < 4 || section.getInt(0) != zoneCount
+                || section.limit() != 4 + 8 * zoneCount) {
+            throw new IOException("Bad perfect hash section for " + zoneCount + " zones");
+        }
+        for (int i = 0; i < zoneCount; i++) {
+            int displacement = section.getInt(4 + 4 * i);
+            int slot = section.getInt(4 + 4 * zoneCount + 4 * i);
+            if (displacement < -zoneCount || slot < 0 || slot >= zoneCount) {
+                throw new IOException("Bad perfect hash entry " + i);
+            }
+        }
+    }
+
+    private static void validateTransitions(ByteBuffer section, int zoneCount)
+            throws IOException {
+        if (section.limit() < 4 + 4 * zoneCount || section.getInt(0) != zoneCount) {
+            throw new IOException("Bad transitions section for " + zoneCount + " zones");
+        }
+        for (int i = 0; i < zoneCount; i++) {
+            int tableOffset = section.getInt(4 + 4 * i);
+            if (tableOffset % 8 != 0 || tableOffset < 0
+                    || tableOffset > section.limit() - TRANSITION_TABLE_HEADER_SIZE) {
+                throw new IOException("Bad transition table offset for zone " + i);
+            }
+            int count = section.getInt(tableOffset);
+            if (count < 0 || count > (section.limit() - tableOffset
+                    - TRANSITION_TABLE_HEADER_SIZE) / (8 + 4 + 1)) {
+                throw new IOException("Bad transition count for zone " + i + ": " + count);
+            }
+        }
+    }
+
+    private static void validateCountries(ByteBuffer section, int zoneCount)
+            throws IOException {
+        int count = section.limit() < 4 ? -1 : section.getInt(0);
+        if (count < 0 || count > (section.limit() - 4) / COUNTRY_ENTRY_SIZE) {
+            throw new IOException("Bad country section");
+        }
+        int slotsOffset = 4 + COUNTRY_ENTRY_SIZE * count;
+        int slotCount = (section.limit() - slotsOffset) / 4;
+        int previousCode = -1;
+        for (int i = 0; i < count; i++) {
+            int entryOffset = 4 + COUNTRY_ENTRY_SIZE * i;
+            int code = section.getShort(entryOffset) & 0xffff;
+            int zones = section.getShort(entryOffset + 2);
+            int first = section.getInt(entryOffset + 4);
+            if (code <= previousCode || zones < 0 || first < 0 || first > slotCount - zones) {
+                throw new IOException("Bad country section entry " + i);
+            }
+            previousCode = code;
+        }
+        for (int i = 0; i < slotCount; i++) {
+            int slot = section.getInt(slotsOffset + 4 * i);
+            if (slot < 0 || slot >= zoneCount) {
+                throw new IOException("Bad index slot in country section: " + slot);
+            }
+        }
+    }
+
+    private static void validateRules(ByteBuffer section, int zoneCount) throws IOException {
+        int ruleCount = section.limit() < 8 ? -1 : section.getInt(4);
+        if (ruleCount < 0 || section.getInt(0) != zoneCount
+                || ruleCount > (section.limit() - 8 - 4 * zoneCount) / 8) {
+            throw new IOException("Bad rules section for " + zoneCount + " zones");
+        }
+        for (int i = 0; i < zoneCount; i++) {
+            int ruleId = section.getInt(8 + 4 * i);
+            if (ruleId < -1 || ruleId >= ruleCount) {
+                throw new IOException("Bad rule ID for zone " + i + ": " + ruleId);
+            }
+        }
+        for (int i = 0; i < ruleCount; i++) {
+            int entryOffset = 8 + 4 * zoneCount + 8 * i;
+            int offset = section.getInt(entryOffset);
+            int length = section.getInt(entryOffset + 4);
+            if (offset < 0 || length < 0 || offset > section.limit() - length) {
+                throw new IOException("Bad rule string " + i);
+            }
+        }
+    }
+
+    private static void validateYearBuckets(ByteBuffer section, int zoneCount)
+            throws IOException {
+        int yearCount = section.limit() < YEAR_BUCKETS_HEADER_SIZE ? -1 : section.getInt(4);
+        if (yearCount <= 0 || section.getInt(8) != zoneCount
+                || yearCount > (section.limit() - YEAR_BUCKETS_HEADER_SIZE - 8) / 8
+                || zoneCount > (section.limit() - yearBucketsTablesOffset(yearCount)) / 4) {
+            throw new IOException("Bad year buckets section for " + zoneCount + " zones");
+        }
+        for (int y = 0; y < yearCount; y++) {
+            if (section.getLong(YEAR_BUCKETS_HEADER_SIZE + 8 * y)
+                    >= section.getLong(YEAR_BUCKETS_HEADER_SIZE + 8 * (y + 1))) {
+                throw new IOException("Bad year starts in year buckets section");
+            }
+        }
+        int timesOffset = yearBucketsTimesOffset(yearCount);
+        for (int i = 0; i < zoneCount; i++) {
+            int tableOffset = section.getInt(yearBucketsTablesOffset(yearCount) + 4 * i);
+            if (tableOffset % 8 != 0 || tableOffset < 0
+                    || tableOffset > section.limit() - timesOffset) {
+                throw new IOException("Bad year buckets table offset for zone " + i);
+            }
+            int count = section.getInt(tableOffset);
+            if (count < 0 || count > (section.limit() - tableOffset - timesOffset) / (8 + 4)) {
+                throw new IOException("Bad year buckets transition count for zone " + i);
+            }
+            int previous = 0;
+            for (int y = 0; y <= yearCount; y++) {
+                int bucketStart = section.getInt(tableOffset + 8 + 4 * y);
+                if (bucketStart < previous || bucketStart > count
+                        || (y == yearCount && bucketStart != count)) {
+                    throw new IOException("Bad year buckets for zone " + i);
+                }
+                previous = bucketStart;
+            }
+        }
+    }
+
+    /** Returns where the table offsets start in the year buckets section. */
+    private static int yearBucketsTablesOffset(int yearCount) {
+        return YEAR_BUCKETS_HEADER_SIZE + 8 * (yearCount + 1);
+    }
+
+    /** Returns where the transition times start in a year buckets table. */
+    private static int yearBucketsTimesOffset(int yearCount) {
+        return (8 + 4 * (yearCount + 1) + 7) & ~7;
+    }
+
+    /**
+     * Maps the tzdata file at {@code path}. The file must not be modified while it is open.
+     */
+    public static TzDataFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            MappedByteBuffer mappedFile =
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new TzDataFile(channel, mappedFile);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** Returns the version from the header, e.g. "tzdata2019b". */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the number of entries in the index, including links unless the file has an alias
+     * section.
+     */
+    public int getZoneCount() {
+        return zoneCount;
+    }
+
+    /** Returns the ID of the zone at {@code index} in the index. */
+    public String getZoneId(int index) {
+        checkIndex(index);
+        if (dictionary == null) {
+            return readAscii(mappedFile, indexEntryOffset(index), MAXNAME);
+        }
+        return dictionary.getName(index);
+    }
+
+    /**
+     * Returns the position of {@code zoneId} in the index, or a negative value if there is no
+     * such zone. The search is performed directly on the mapped file and does not allocate: it
+     * uses the perfect hash section if there is one, or a binary search of the index otherwise.
+     * If the file has an alias section and {@code zoneId} is an alias, the position of the zone
+     * it is for is returned.
+     */
+    public int findZone(String zoneId) {
+        int index = perfectHash != null ? hashLookup(zoneId) : binarySearch(zoneId);
+        if (index < 0 && aliases != null) {
+            int target = findAlias(zoneId);
+            if (target >= 0) {
+                return target;
+            }
+        }
+        return index;
+    }
+
+    /** Returns the number of aliases in the alias section, or 0 if there is not one. */
+    public int getAliasCount() {
+        return aliases == null ? 0 : aliases.size();
+    }
+
+    /** Returns the alias at {@code aliasIndex} in the alias section. */
+    public String getAliasId(int aliasIndex) {
+        checkAliasIndex(aliasIndex);
+        return aliases.getName(aliasIndex);
+    }
+
+    /**
+     * Returns the position in the index of the zone that the alias at {@code aliasIndex} is for.
+     * Chains of links were resolved when the file was built.
+     */
+    public int getAliasTarget(int aliasIndex) {
+        checkAliasIndex(aliasIndex);
+        return aliases.getValue(aliasIndex, 0);
+    }
+
+    /**
+     * Returns the position in the index of the zone that {@code zoneId} is an alias for, or -1
+     * if it is not in the alias section. Like {@link #findZone(String)}, this does not allocate.
+     */
+    public int findAlias(String zoneId) {
+        if (aliases == null) {
+            return -1;
+        }
+        int aliasIndex = aliases.find(zoneId);
+        return aliasIndex < 0 ? -1 : aliases.getValue(aliasIndex, 0);
+    }
+
+    private void checkAliasIndex(int aliasIndex) {
+        if (aliasIndex < 0 || aliasIndex >= getAliasCount()) {
+            throw new IndexOutOfBoundsException(
+                    "alias index " + aliasIndex + " of " + getAliasCount());
+        }
+    }
+
+    private int hashLookup(String zoneId) {
+        int n = zoneCount;
+        if (n == 0) {
+            return -1;
+        }
+        int displacement = perfectHash.getInt(4 + 4 * mod(hash(0, zoneId), n));
+        int hashValue = displacement < 0 ? -displacement - 1 : mod(hash(displacement, zoneId), n);
+        int index = perfectHash.getInt(4 + 4 * n + 4 * hashValue);
+        if (dictionary != null) {
+            return dictionary.nameEquals(index, zoneId) ? index : -1;
+        }
+        return compareName(indexEntryOffset(index), zoneId) == 0 ? index : -1;
+    }
+
+    private int binarySearch(String zoneId) {
+        if (dictionary != null) {
+            return dictionary.find(zoneId);
+        }
+        int low = 0;
+        int high = zoneCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comparison = compareName(indexEntryOffset(mid), zoneId);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Returns {@code true} if this is a block-compressed file, whose payloads have to be
+     * inflated before they can be used.
+     */
+    public boolean isCompressed() {
+        return compressedBlocks != null;
+    }
+
+    /**
+     * Returns the offset of the payload for the zone at {@code index} from the start of the
+     * file. For a block-compressed file, this is the offset in the uncompressed data section
+     * instead.
+     */
+    public int getPayloadOffset(int index) {
+        checkIndex(index);
+        int offset = dictionary != null ? dictionary.getValue(index, 0)
+                : mappedFile.getInt(indexEntryOffset(index) + MAXNAME);
+        return compressedBlocks != null ? offset : dataOffset + offset;
+    }
+
+    /** Returns the length of the payload for the zone at {@code index}. */
+    public int getPayloadLength(int index) {
+        checkIndex(index);
+        if (dictionary != null) {
+            return dictionary.getValue(index, 1);
+        }
+        return mappedFile.getInt(indexEntryOffset(index) + MAXNAME + 4);
+    }
+
+    /**
+     * Returns a read-only view of the zic output for the zone at {@code index}. The view shares
+     * the mapping: no zone data is copied. For a block-compressed file, the block holding the
+     * payload is inflated and the view is of the inflated copy.
+     */
+    public ByteBuffer getPayload(int index) {
+        if (compressedBlocks != null) {
+            return inflatePayload(getPayloadOffset(index), getPayloadLength(index));
+        }
+        return slice(getPayloadOffset(index), getPayloadLength(index));
+    }
+
+    private ByteBuffer inflatePayload(int offset, int length) {
+        // Find the last block that starts at or before the payload.
+        int low = 0;
+        int high = compressedBlocks.getInt(0) - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (compressedBlocks.getInt(4 + COMPRESSED_BLOCK_ENTRY_SIZE * mid) <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        // high is only negative when there are no blocks, so there is no entry to read.
+        if (high < 0) {
+            throw noBlockHoldsPayload(offset, length);
+        }
+        int entryOffset = 4 + COMPRESSED_BLOCK_ENTRY_SIZE * low;
+        int uncompressedOffset = compressedBlocks.getInt(entryOffset);
+        int uncompressedLength = compressedBlocks.getInt(entryOffset + 4);
+        int compressedOffset = compressedBlocks.getInt(entryOffset + 8);
+        int compressedLength = compressedBlocks.getInt(entryOffset + 12);
+        if (offset < uncompressedOffset
+                || offset - uncompressedOffset > uncompressedLength - length) {
+            throw noBlockHoldsPayload(offset, length);
+        }
+
+        byte[] compressed = new byte[compressedLength];
+        subBuffer(mappedFile, dataOffset + compressedOffset, compressedLength).get(compressed);
+        byte[] inflated = new byte[uncompressedLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int inflatedLength = 0;
+            while (inflatedLength < uncompressedLength && !inflater.finished()) {
+                int count = inflater.inflate(
+                        inflated, inflatedLength, uncompressedLength - inflatedLength);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflatedLength += count;
+            }
+            if (inflatedLength != uncompressedLength) {
+                throw new IllegalStateException("Block inflated to " + inflatedLength
+                        + " bytes, expected " + uncompressedLength);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Bad compressed block", e);
+        } finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(inflated, offset - uncompressedOffset, length).slice()
+                .asReadOnlyBuffer();
+    }
+
+    private static IllegalStateException noBlockHoldsPayload(int offset, int length) {
+        return new IllegalStateException("No block holds payload: offset=" + offset
+                + ", length=" + length);
+    }
+
+    /**
+     * Returns a read-only view of the zic output for {@code zoneId}, or {@code null} if there is
+     * no such zone.
+     */
+    public ByteBuffer getPayload(String zoneId) {
+        int index = findZone(zoneId);
+        return index < 0 ? null : getPayload(index);
+    }
+
+    /**
+     * Returns the pre-decoded transitions for the zone at {@code index}, or {@code null} if the
+     * file has no transitions section. The arrays are views of the mapping.
+     */
+    public Transitions getTransitions(int index) {
+        checkIndex(index);
+        if (transitions == null) {
+            return null;
+        }
+        int tableOffset = transitions.getInt(4 + 4 * index);
+        int count = transitions.getInt(tableOffset);
+        int initialOffset = transitions.getInt(tableOffset + 4);
+        boolean initialIsDst = transitions.getInt(tableOffset + 8) != 0;
+        int timesOffset = tableOffset + TRANSITION_TABLE_HEADER_SIZE;
+        int offsetsOffset = timesOffset + 8 * count;
+        int isDstOffset = offsetsOffset + 4 * count;
+        return new Transitions(initialOffset, initialIsDst,
+                subBuffer(transitions, timesOffset, 8 * count).asLongBuffer(),
+                subBuffer(transitions, offsetsOffset, 4 * count).asIntBuffer(),
+                subBuffer(transitions, isDstOffset, count));
+    }
+
+    /**
+     * The transitions of a zone, decoded at build time. Element {@code i} of each buffer
+     * describes transition {@code i}.
+     */
+    public static final class Transitions {
+        /** The total offset from UTC in seconds before the first transition. */
+        public final int initialOffset;
+
+        /** Whether daylight saving time applies before the first transition. */
+        public final boolean initialIsDst;
+
+        /** Transition times in seconds since the epoch, in ascending order. */
+        public final LongBuffer times;
+
+        /** The total offset from UTC in seconds from each transition. */
+        public final IntBuffer offsets;
+
+        /** 1 if daylight saving time applies from each transition, 0 otherwise. */
+        public final ByteBuffer isDst;
+
+        Transitions(int initialOffset, boolean initialIsDst, LongBuffer times,
+                IntBuffer offsets, ByteBuffer isDst) {
+            this.initialOffset = initialOffset;
+            this.initialIsDst = initialIsDst;
+            this.times = times;
+            this.offsets = offsets;
+            this.isDst = isDst;
+        }
+    }
+
+    /** Returns the number of countries in the country section, or 0 if there is not one. */
+    public int getCountryCount() {
+        return countries == null ? 0 : countries.getInt(0);
+    }
+
+    /** Returns the code of the country at {@code countryIndex} in the country section. */
+    public String getCountryCode(int countryIndex) {
+        if (countryIndex < 0 || countryIndex >= getCountryCount()) {
+            throw new IndexOutOfBoundsException(
+                    "country index " + countryIndex + " of " + getCountryCount());
+        }
+        return readAscii(countries, 4 + COUNTRY_ENTRY_SIZE * countryIndex, 2);
+    }
+
+    /**
+     * Returns a read-only view of the index slots of the zones for {@code countryCode}, in
+     * zone.tab order, or {@code null} if the file has no country section or zone.tab has no
+     * zones for the country. The country is found by a binary search of the section, without
+     * parsing the zone.tab text.
+     */
+    public IntBuffer getCountryZones(String countryCode) {
+        if (countries == null || countryCode.length() != 2) {
+            return null;
+        }
+        int code = (countryCode.charAt(0) << 8) | countryCode.charAt(1);
+        int low = 0;
+        int high = countries.getInt(0) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entryOffset = 4 + COUNTRY_ENTRY_SIZE * mid;
+            int midCode = countries.getShort(entryOffset) & 0xffff;
+            if (midCode < code) {
+                low = mid + 1;
+            } else if (midCode > code) {
+                high = mid - 1;
+            } else {
+                int zones = countries.getShort(entryOffset + 2);
+                int first = countries.getInt(entryOffset + 4);
+                int slotsOffset = 4 + COUNTRY_ENTRY_SIZE * countries.getInt(0);
+                return subBuffer(countries, slotsOffset + 4 * first, 4 * zones).asIntBuffer();
+            }
+        }
+        return null;
+    }
+
+    /** Returns the number of distinct rules in the rules section, or 0 if there is not one. */
+    public int getRuleCount() {
+        return rules == null ? 0 : rules.getInt(4);
+    }
+
+    /**
+     * Returns the ID of the POSIX TZ rule that applies after the last transition of the zone at
+     * {@code index}, or -1 if the file has no rules section or the zone has no rule. Zones with
+     * the same rule have the same ID, so a parsed rule can be cached by ID.
+     */
+    public int getRuleId(int index) {
+        checkIndex(index);
+        return rules == null ? -1 : rules.getInt(8 + 4 * index);
+    }
+
+    /**
+     * Returns the POSIX TZ string of the rule with {@code ruleId}, e.g.
+     * "PST8PDT,M3.2.0,M11.1.0".
+     */
+    public String getRule(int ruleId) {
+        if (ruleId < 0 || ruleId >= getRuleCount()) {
+            throw new IndexOutOfBoundsException("rule ID " + ruleId + " of " + getRuleCount());
+        }
+        int entryOffset = 8 + 4 * zoneCount + 8 * ruleId;
+        return readAscii(rules, rules.getInt(entryOffset), rules.getInt(entryOffset + 4));
+    }
+
+    /**
+     * Returns {@code true} if the file has a year buckets section whose range of years includes
+     * {@code time}, in seconds since the epoch.
+     */
+    public boolean isInYearBuckets(long time) {
+        if (yearBuckets == null) {
+            return false;
+        }
+        int yearCount = yearBuckets.getInt(4);
+        return time >= yearBuckets.getLong(YEAR_BUCKETS_HEADER_SIZE)
+                && time < yearBuckets.getLong(YEAR_BUCKETS_HEADER_SIZE + 8 * yearCount);
+    }
+
+    /**
+     * Returns the total offset from UTC in seconds of the zone at {@code index} at {@code time},
+     * in seconds since the epoch, using the year buckets section. The year is found by
+     * arithmetic and the offset by comparing against the transitions in that year alone, so
+     * this does not search or allocate.
+     *
+     * @throws IllegalArgumentException if {@code time} is not in the range of the section, see
+     *     {@link #isInYearBuckets(long)}
+     */
+    public int getOffsetAt(int index, long time) {
+        checkIndex(index);
+        if (!isInYearBuckets(time)) {
+            throw new IllegalArgumentException("No year bucket for " + time);
+        }
+        int yearCount = yearBuckets.getInt(4);
+        long rangeStart = yearBuckets.getLong(YEAR_BUCKETS_HEADER_SIZE);
+        // The guess is at most a year out either way.
+        int y = (int) Math.min((time - rangeStart) / AVERAGE_YEAR_SECONDS, yearCount - 1);
+        while (yearBuckets.getLong(YEAR_BUCKETS_HEADER_SIZE + 8 * y) > time) {
+            y--;
+        }
+        while (yearBuckets.getLong(YEAR_BUCKETS_HEADER_SIZE + 8 * (y + 1)) <= time) {
+            y++;
+        }
+        int tableOffset = yearBuckets.getInt(yearBucketsTablesOffset(yearCount) + 4 * index);
+        int count = yearBuckets.getInt(tableOffset);
+        int timesOffset = tableOffset + yearBucketsTimesOffset(yearCount);
+        int offsetsOffset = timesOffset + 8 * count;
+        int i = yearBuckets.getInt(tableOffset + 8 + 4 * y);
+        int end = yearBuckets.getInt(tableOffset + 8 + 4 * (y + 1));
+        while (i < end && yearBuckets.getLong(timesOffset + 8 * i) <= time) {
+            i++;
+        }
+        return i == 0 ? yearBuckets.getInt(tableOffset + 4)
+                : yearBuckets.getInt(offsetsOffset + 4 * (i - 1));
+    }
+
+    /** Returns {@code true} if the file has a checksums section. */
+    public boolean hasChecksums() {
+        return checksums != null;
+    }
+
+    /**
+     * Checks the index, the zone.tab section and every payload against the checksums section,
+     * without parsing any zones. Payloads shared by several index slots are only checked once.
+     *
+     * @throws IOException if the file has no checksums section or anything does not match
+     */
+    public void verifyChecksums() throws IOException {
+        if (checksums == null) {
+            throw new IOException("File has no checksums section");
+        }
+        CRC32 indexCrc = new CRC32();
+        if (dictionary != null) {
+            indexCrc.update(dictionary.getSection());
+            if (aliases != null) {
+                indexCrc.update(aliases.getSection());
+            }
+        } else {
+            indexCrc.update(slice(indexOffset, dataOffset - indexOffset));
+        }
+        if ((int) indexCrc.getValue() != checksums.getInt(0)) {
+            throw new IOException("Index checksum mismatch");
+        }
+        if (checksum(getZoneTab()) != checksums.getInt(4)) {
+            throw new IOException("zone.tab checksum mismatch");
+        }
+        // Checksums of the payloads checked so far, by offset and length.
+        Map<Long, Integer> payloadChecksums = new HashMap<>();
+        for (int i = 0; i < zoneCount; i++) {
+            long key = ((long) getPayloadOffset(i) << 32) | (getPayloadLength(i) & 0xffffffffL);
+            Integer actual = payloadChecksums.get(key);
+            if (actual == null) {
+                try {
+                    actual = checksum(getPayload(i));
+                } catch (IllegalStateException e) {
+                    throw new IOException("Unreadable payload for " + getZoneId(i), e);
+                }
+                payloadChecksums.put(key, actual);
+            }
+            if (actual != checksums.getInt(8 + 4 * i)) {
+                throw new IOException("Payload checksum mismatch for " + getZoneId(i));
+            }
+        }
+    }
+
+    private static int checksum(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer);
+        return (int) crc.getValue();
+    }
+
+    /** Returns a read-only view of the zone.tab text stored at the end of the file. */
+    public ByteBuffer getZoneTab() {
+        return slice(zoneTabOffset, mappedFile.capacity() - zoneTabOffset);
+    }
+
+    /** Returns the offset of the index from the start of the file. */
+    public int getIndexOffset() {
+        return indexOffset;
+    }
+
+    /** Returns the offset of the data section from the start of the file. */
+    public int getDataOffset() {
+        return dataOffset;
+    }
+
+    /** Returns the offset of the zone.tab section from the start of the file. */
+    public int getZoneTabOffset() {
+        return zoneTabOffset;
+    }
+
+    /**
+     * Returns a read-only view of the optional section with {@code tag}, or {@code null} if the
+     * file does not have one.
+     */
+    public ByteBuffer getSection(String tag) {
+        for (int i = 0; i < sectionCount; i++) {
+            int entryOffset = sectionEntryOffset(i);
+            if (compareAscii(entryOffset, tag, 4)) {
+                return slice(mappedFile.getInt(entryOffset + 4),
+                        mappedFile.getInt(entryOffset + 8));
+            }
+        }
+        return null;
+    }
+
+    /** Returns the length of the file. */
+    public int getFileLength() {
+        return mappedFile.capacity();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        if (offset < 0 || length < 0 || offset > mappedFile.capacity() - length) {
+            throw new IllegalStateException("Bad slice: offset=" + offset + ", length=" + length
+                    + ", file length=" + mappedFile.capacity());
+        }
+        ByteBuffer duplicate = mappedFile.asReadOnlyBuffer();
+        duplicate.position(offset);
+        duplicate.limit(offset + length);
+        return duplicate.slice();
+    }
+
+    private static ByteBuffer subBuffer(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.limit(offset + length);
+        return duplicate.slice();
+    }
+
+    private static int sectionEntryOffset(int section) {
+        return HEADER_SIZE + EXTENSION_HEADER_SIZE + section * SECTION_ENTRY_SIZE;
+    }
+
+    private int indexEntryOffset(int index) {
+        return indexOffset + index * INDEX_ENTRY_SIZE;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= zoneCount) {
+            throw new IndexOutOfBoundsException(
+                    "index=" + index + ", zone count=" + zoneCount);
+        }
+    }
+
+    /**
+     * Compares the NUL-padded name at {@code offset} with {@code zoneId} in the order used to
+     * sort the index.
+     */
+    private int compareName(int offset, String zoneId) {
+        int zoneIdLength = zoneId.length();
+        for (int i = 0; i < MAXNAME; i++) {
+            int b = mappedFile.get(offset + i) & 0xff;
+            if (b == 0) {
+                return i == zoneIdLength ? 0 : -1;
+            }
+            if (i == zoneIdLength) {
+                return 1;
+            }
+            int c = zoneId.charAt(i);
+            if (b != c) {
+                return b - c;
+            }
+        }
+        return MAXNAME - zoneIdLength;
+    }
+
+    private boolean compareAscii(int offset, String s, int length) {
+        if (s.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if ((mappedFile.get(offset + i) & 0xff) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The hash function used by the perfect hash section: 32-bit FNV-1a of the ASCII zone ID,
+     * starting from {@code seed} rather than the offset basis if {@code seed} is non-zero.
+     */
+    private static int hash(int seed, String zoneId) {
+        int h = seed == 0 ? FNV_OFFSET_BASIS : seed;
+        for (int i = 0; i < zoneId.length(); i++) {
+            h ^= zoneId.charAt(i) & 0xff;
+            h *= FNV_PRIME;
+        }
+        return h;
+    }
+
+    private static int mod(int h, int n) {
+        return (int) (Integer.toUnsignedLong(h) % n);
+    }
+
+    private static String readAscii(ByteBuffer buffer, int offset, int maxLength) {
+        StringBuilder sb = new StringBuilder(maxLength);
+        for (int i = 0; i < maxLength; i++) {
+            byte b = buffer.get(offset + i);
+            if (b == 0) {
+                break;
+            }
+            sb.append((char) b);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,740 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.timezone.tzdata;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TzDataFileTest {
+
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("TzDataFileTest");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File file : tempDir.toFile().listFiles()) {
+            file.delete();
+        }
+        Files.delete(tempDir);
+    }
+
+    @Test
+    public void readHeader() throws Exception {
+        Map<String, String> zones = new TreeMap<>();
+        zones.put("Europe/London", "TZifLondon");
+        Path file = createTzData("tzdata2019b", zones, "GB\t+513030-0000731\tEurope/London\n");
+        try (TzDataFile tzData = TzDataFile.open(file)) {
+            assertEquals("tzdata2019b", tzData.getVersion());
+            assertEquals(1, tzData.getZoneCount());
+            assertEquals(24, tzData.getIndexOffset());
+            assertEquals(24 + 52, tzData.getDataOffset());
+            assertEquals("GB\t+513030-0000731\tEurope/London\n", toString(tzData.getZoneTab()));
+        }
+    }
+
+    @Test
+    public void findZone() throws Exception {
+        Map<String, String> zones = new TreeMap<>();
+        zones.put("America/New_York", "TZifNewYork");
+        zones.put("America/Los_Angeles", "TZifLA");
+        zones.put("Europe/London", "TZifLondon");
+        zones.put("GMT", "TZifGMT");
+        zones.put("GMT0", "TZifGMT0");
+        Path file = createTzData("tzdata2019b", zones, "");
+        try (TzDataFile tzData = TzDataFile.open(file)) {
+            List<String> zoneIds = new ArrayList<>(zones.keySet());
+            for (int i = 0; i < zoneIds.size(); i++) {
+                String zoneId = zoneIds.get(i);
+                assertEquals(i, tzData.findZone(zoneId));
+                assertEquals(zoneId, tzData.getZoneId(i));
+                assertEquals(zones.get(zoneId), toString(tzData.getPayload(zoneId)));
+            }
+
+            assertTrue(tzData.findZone("Africa/Abidjan") < 0);
+            assertTrue(tzData.findZone("America/New") < 0);
+            assertTrue(tzData.findZone("America/New_York2") < 0);
+            assertTrue(tzData.findZone("GM") < 0);
+            assertTrue(tzData.findZone("Zulu") < 0);
+            assertNull(tzData.getPayload("Europe/Paris"));
+        }
+    }
+
+    @Test
+    public void payloadIsReadOnlyView() throws Exception {
+        Map<String, String> zones = new TreeMap<>();
+        zones.put("GMT", "TZifGMT");
+        Path file = createTzData("tzdata2019b", zones, "");
+        try (TzDataFile tzData = TzDataFile.open(file)) {
+            ByteBuffer payload = tzData.getPayload(0);
+            assertTrue(payload.isReadOnly());
+            assertEquals(0, payload.position());
+            assertEquals(7, payload.limit());
+        }
+    }
+
+    @Test
+    public void perfectHash() throws Exception {
+        Map<String, String> zones = new TreeMap<>();
+        zones.put("America/Los_Angeles", "TZifLA");
+        zones.put("America/New_York", "TZifNewYork");
+        zones.put("Europe/London", "TZifLondon");
+        zones.put("GMT", "TZifGMT");
+
+        // "America/Los_Angeles" and "America/New_York" share the first-level bucket 0 and are
+        // displaced into hash values 1 and 3 with d = 2. "Europe/London" and "GMT" are alone in
+        // buckets 2 and 3 and point straight at the free hash values 0 and 2.
+        ByteBuffer section = ByteBuffer.allocate(4 + 8 * 4);
+        section.putInt(4);
+        section.putInt(2).putInt(0).putInt(-1).putInt(-3);
+        section.putInt(2).putInt(0).putInt(3).putInt(1);
+        Map<String, byte[]> sections = new TreeMap<>();
+        sections.put(TzDataFile.PERFECT_HASH_SECTION, section.array());
+
+        Path file = createTzData("tzdata2019b", sections, zones, "");
+        try (TzDataFile tzData = TzDataFile.open(file)) {
+            assertEquals(section.capacity(),
+                    tzData.getSection(TzDataFile.PERFECT_HASH_SECTION).remaining());
+            List<String> zoneIds = new ArrayList<>(zones.keySet());
+            for (int i = 0; i < zoneIds.size(); i++) {
+                String zoneId = zoneIds.get(i);
+                assertEquals(i, tzData.findZone(zoneId));
+                assertEquals(zones.get(zoneId), toString(tzData.getPayload(zoneId)));
+            }
+            assertTrue(tzData.findZone("Europe/Paris") < 0);
+            assertTrue(tzData.findZone("") < 0);
+        }
+    }
+
+    @Test
+    public void transitions() throws Exception {
+        Map<String, String> zones = new TreeMap<>();
+        zones.put("Europe/London", "TZifLondon");
+        zones.put("GMT", "TZifGMT");
+
+        // Both zones share one table with two transitions.
+        ByteBuffer section = ByteBuffer.allocate(16 + 16 + 2 * (8 + 4 + 1));
+        section.putInt(2);
+        section.putInt(16).putInt(16);
+        section.putInt(0);
+        section.putInt(2).putInt(-75).putInt(0).putInt(0);
+        section.putLong(-3852662325L).putLong(-1691964000L);
+        section.putInt(0).putInt(3600);
+        section.put((byte) 0).put((byte) 1);
+        Map<String, byte[]> sections = new TreeMap<>();
+        sections.put(TzDataFile.TRANSITIONS_SECTION, section.array());
+
+        Path file = createTzData("tzdata2019b", sections, zones, "");
+        try (TzDataFile tzData = TzDataFile.open(file)) {
+            for (int i = 0; i < 2; i++) {
+                TzDataFile.Transitions transitions = tzData.getTransitions(i);
+                assertEquals(-75, transitions.initialOffset);
+                assertFalse(transitions.initialIsDst);
+                assertEquals(2, transitions.times.remaining());
+                assertEquals(-3852662325L, transitions.times.get(0));
+                assertEquals(-1691964000L, transitions.times.get(1));
+                assertEquals(0, transitions.offsets.get(0));
+                assertEquals(3600, transitions.offsets.get(1));
+                assertEquals(0, transitions.isDst.get(0));
+                assertEquals(1, transitions.isDst.get(1));
+            }
+        }
+    }
+
+    @Test
+    public void noTransitionsSection() throws Exception {
+        Map<String, String> zones = new TreeMap<>();
+        zones.put("GMT", "TZifGMT");
+        Path file = createTzData("tzdata2019b", zones, "");
+        try (TzDataFile tzData = TzDataFile.open(file)) {
+            assertNull(tzData.getTransitions(0));
+        }
+    }
+
+    @Test
+    public void compressedBlocks() throws Exception {
+        Map<String, String> zones = new TreeMap<>();
+        zones.put("America/New_York", "TZifNewYork");
+        zones.put("Europe/London", "TZifLondon");
+        zones.put("GMT", "TZifGMT");
+
+        // "America/New_York" is in the first block, the others share the second.
+        byte[] uncompressed = concatenate(zones);
+        byte[] block1 = deflate(Arrays.copyOfRange(uncompressed, 0, 11));
+        byte[] block2 = deflate(Arrays.copyOfRange(uncompressed, 11, uncompressed.length));
+        ByteBuffer data = ByteBuffer.allocate(block1.length + block2.length);
+        data.put(block1).put(block2);
+        ByteBuffer section = ByteBuffer.allocate(4 + 2 * 16);
+        section.putInt(2);
+        section.putInt(0).putInt(11).putInt(0).putInt(block1.length);
+        section.putInt(11).putInt(uncompressed.length - 11).putInt(block1.length)
+                .putInt(block2.length);
+        Map<String, byte[]> sections = new TreeMap<>();
+        sections.put(TzDataFile.COMPRESSED_BLOCKS_SECTION, section.array());
+
+        Path file = createTzData("tzblk2019b", sections, zones, data.array(), "");
+        try (TzDataFile tzData = TzDataFile.open(file)) {
+            assertTrue(tzData.isCompressed());
+            for (String zoneId : zones.keySet()) {
+                assertEquals(zones.get(zoneId), toString(tzData.getPayload(zoneId)));
+            }
+        }
+    }
+
+    @Test
+    public void compressedWithNoBlocks() throws Exception {
+        Map<String, String> zones = new TreeMap<>();
+        zones.put("GMT", "TZifGMT");
+        Map<String, byte[]> sections = new TreeMap<>();
+        sections.put(TzDataFile.COMPRESSED_BLOCKS_SECTION, new byte[4]);
+
+        Path file = createTzData("tzblk2019b", sections, zones, new byte[0], "");
+        try (TzDataFile tzData = TzDataFile.open(file)) {
+            tzData.getPayload("GMT");
+            fail();
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage().startsWith("No block holds payload"));
+        }
+    }
+
+    @Test
+    public void checksums() throws Exception {
+        Map<String, String> zones = new TreeMap<>();
+        zones.put("Europe/London", "TZifLondon");
+        zones.put("GMT", "TZifGMT");
+        String zoneTab = "GB\t+513030-0000731\tEurope/London\n";
+
+        Path file = createTzData("tzdata2019b", createChecksumsSections(zones, zoneTab), zones,
+                zoneTab);
+        try (TzDataFile tzData = TzDataFile.open(file)) {
+            assertTrue(tzData.hasChecksums());
+            tzData.verifyChecksums();
+        }
+    }
+
+    @Test
+    public void checksumMismatch() throws Exception {
+        Map<String, String> zones = new TreeMap<>();
+        zones.put("Europe/London", "TZifLondon");
+        zones.put("GMT", "TZifGMT");
+        Map<String, byte[]> sections = createChecksumsSections(zones, "");
+
+        // Same lengths, different contents.
+        zones.put("GMT", "TZifGMX");
+        Path file = createTzData("tzdata2019b", sections, zones, "");
+        try (TzDataFile tzData = TzDataFile.open(file)) {
+            tzData.verifyChecksums();
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void noChecksumsSection() throws Exception {
+        Map<String, String> zones = new TreeMap<>();
+        zones.put("GMT", "TZifGMT");
+        Path file = createTzData("tzdata2019b", zones, "");
+        try (TzDataFile tzData = TzDataFile.open(file)) {
+            assertFalse(tzData.hasChecksums());
+            tzData.verifyChecksums();
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void compactIndex() throws Exception {
+        Map<String, String> zones = new TreeMap<>();
+        zones.put("America/Argentina/ComodRivadavia", "TZifComodRivadavia");
+        zones.put("America/Los_Angeles", "TZifLA");
+        zones.put("America/New_York", "TZifNewYork");
+        zones.put("America/North_Dakota/New_Salem", "TZifNewSalem");
+        zones.put("Europe/London", "TZifLondon");
+        zones.put("GMT", "TZifGMT");
+        zones.put("GMT0", "TZifGMT0");
+        Map<String, byte[]> sections = new TreeMap<>();
+        sections.put(TzDataFile.NAME_DICTIONARY_SECTION, createDictionary(zones, 3));
+
+        Path file = createTzData("tzidx2019b", sections, new TreeMap<>(), concatenate(zones), "");
+        try (TzDataFile tzData = TzDataFile.open(file)) {
+            assertEquals(zones.size(), tzData.getZoneCount());
+            int i = 0;
+            for (String zoneId : zones.keySet()) {
+                assertEquals(zoneId, tzData.getZoneId(i));
+                assertEquals(i, tzData.findZone(zoneId));
+                assertEquals(zones.get(zoneId), toString(tzData.getPayload(i)));
+                i++;
+            }
+            assertTrue(tzData.findZone("America") < 0);
+            assertTrue(tzData.findZone("America/New") < 0);
+            assertTrue(tzData.findZone("America/New_York2") < 0);
+            assertTrue(tzData.findZone("Europe/Paris") < 0);
+            assertTrue(tzData.findZone("GM") < 0);
+            assertTrue(tzData.findZone("AAA") < 0);
+            assertTrue(tzData.findZone("Zulu") < 0);
+        }
+    }
+
+    @Test
+    public void aliases() throws Exception {
+        Map<String, String> zones = new TreeMap<>();
+        zones.put("America/Argentina/Buenos_Aires", "TZifBuenosAires");
+        zones.put("Europe/London", "TZifLondon");
+        zones.put("Etc/UTC", "TZifUTC");
+        Map<String, int[]> aliases = new TreeMap<>();
+        aliases.put("America/Buenos_Aires", new int[] { 0 });
+        aliases.put("Europe/Belfast", new int[] { 2 });
+        aliases.put("GB", new int[] { 2 });
+        aliases.put("UTC", new int[] { 1 });
+        aliases.put("Zulu", new int[] { 1 });
+        Map<String, byte[]> sections = new TreeMap<>();
+        sections.put(TzDataFile.NAME_DICTIONARY_SECTION, createDictionary(zones, 2));
+        sections.put(TzDataFile.ALIASES_SECTION, createNameDictionary(aliases, 2));
+
+        Path file = createTzData("tzidx2019b", sections, new TreeMap<>(), concatenate(zones), "");
+        try (TzDataFile tzData = TzDataFile.open(file)) {
+            assertEquals(zones.size(), tzData.getZoneCount());
+            assertEquals(aliases.size(), tzData.getAliasCount());
+            int i = 0;
+            for (Map.Entry<String, int[]> alias : aliases.entrySet()) {
+                assertEquals(alias.getKey(), tzData.getAliasId(i));
+                assertEquals(alias.getValue()[0], tzData.getAliasTarget(i));
+                assertEquals(alias.getValue()[0], tzData.findAlias(alias.getKey()));
+                assertEquals(alias.getValue()[0], tzData.findZone(alias.getKey()));
+                i++;
+            }
+            assertEquals("TZifLondon", toString(tzData.getPayload("GB")));
+            assertEquals(-1, tzData.findAlias("Europe/London"));
+            assertEquals(2, tzData.findZone("Europe/London"));
+            assertTrue(tzData.findZone("Europe/Paris") < 0);
+        }
+    }
+
+    @Test
+    public void badAliasTarget() throws Exception {
+        Map<String, String> zones = new TreeMap<>();
+        zones.put("Etc/UTC", "TZifUTC");
+        Map<String, int[]> aliases = new TreeMap<>();
+        aliases.put("UTC", new int[] { 1 });
+        Map<String, byte[]> sections = new TreeMap<>();
+        sections.put(TzDataFile.NAME_DICTIONARY_SECTION, createDictionary(zones, 2));
+        sections.put(TzDataFile.ALIASES_SECTION, createNameDictionary(aliases, 2));
+
+        Path file = createTzData("tzidx2019b", sections, new TreeMap<>(), concatenate(zones), "");
+        try {
+            TzDataFile.open(file);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void countries() throws Exception {
+        Map<String, String> zones = new TreeMap<>();
+        zones.put("America/Los_Angeles", "TZifLA");
+        zones.put("America/New_York", "TZifNewYork");
+        zones.put("Europe/London", "TZifLondon");
+        Map<String, byte[]> sections = new TreeMap<>();
+        ByteBuffer countries = ByteBuffer.allocate(4 + 8 * 2 + 4 * 3);
+        countries.putInt(2);
+        countries.put("GB".getBytes(StandardCharsets.US_ASCII)).putShort((short) 1).putInt(0);
+        countries.put("US".getBytes(StandardCharsets.US_ASCII)).putShort((short) 2).putInt(1);
+        countries.putInt(2).putInt(1).putInt(0);
+        sections.put(TzDataFile.COUNTRIES_SECTION, countries.array());
+
+        Path file = createTzData("tzdata2019b", sections, zones, "");
+        try (TzDataFile tzData = TzDataFile.open(file)) {
+            assertEquals(2, tzData.getCountryCount());
+            assertEquals("GB", tzData.getCountryCode(0));
+            assertEquals("US", tzData.getCountryCode(1));
+            IntBuffer gb = tzData.getCountryZones("GB");
+            assertEquals(1, gb.remaining());
+            assertEquals("Europe/London", tzData.getZoneId(gb.get(0)));
+            IntBuffer us = tzData.getCountryZones("US");
+            assertEquals(2, us.remaining());
+            assertEquals("America/New_York", tzData.getZoneId(us.get(0)));
+            assertEquals("America/Los_Angeles", tzData.getZoneId(us.get(1)));
+            assertNull(tzData.getCountryZones("FR"));
+            assertNull(tzData.getCountryZones("ZZ"));
+            assertNull(tzData.getCountryZones("A"));
+        }
+    }
+
+    @Test
+    public void noCountriesSection() throws Exception {
+        Map<String, String> zones = new TreeMap<>();
+        zones.put("Europe/London", "TZifLondon");
+        Path file = createTzData("tzdata2019b", zones, "GB\t+513030-0000731\tEurope/London\n");
+        try (TzDataFile tzData = TzDataFile.open(file)) {
+            assertEquals(0, tzData.getCountryCount());
+            assertNull(tzData.getCountryZones("GB"));
+        }
+    }
+
+    @Test
+    public void rules() throws Exception {
+        Map<String, String> zones = new TreeMap<>();
+        zones.put("America/Los_Angeles", "TZifLA");
+        zones.put("Etc/UTC", "TZifUTC");
+        zones.put("US/Pacific", "TZifLA");
+        String pacific = "PST8PDT,M3.2.0,M11.1.0";
+        int stringsOffset = 8 + 4 * 3 + 8 * 2;
+        ByteBuffer rules = ByteBuffer.allocate(stringsOffset + pacific.length() + 3);
+        rules.putInt(3).putInt(2);
+        rules.putInt(0).putInt(1).putInt(0);
+        rules.putInt(stringsOffset).putInt(pacific.length());
+        rules.putInt(stringsOffset + pacific.length()).putInt(3);
+        rules.put((pacific + "UTC").getBytes(StandardCharsets.US_ASCII));
+        Map<String, byte[]> sections = new TreeMap<>();
+        sections.put(TzDataFile.RULES_SECTION, rules.array());
+
+        Path file = createTzData("tzdata2019b", sections, zones, "");
+        try (TzDataFile tzData = TzDataFile.open(file)) {
+            assertEquals(2, tzData.getRuleCount());
+            assertEquals(0, tzData.getRuleId(0));
+            assertEquals(1, tzData.getRuleId(1));
+            assertEquals(0, tzData.getRuleId(2));
+            assertEquals(pacific, tzData.getRule(0));
+            assertEquals("UTC", tzData.getRule(1));
+        }
+    }
+
+    @Test
+    public void badRuleId() throws Exception {
+        Map<String, String> zones = new TreeMap<>();
+        zones.put("Etc/UTC", "TZifUTC");
+        ByteBuffer rules = ByteBuffer.allocate(8 + 4);
+        rules.putInt(1).putInt(0).putInt(0);
+        Map<String, byte[]> sections = new TreeMap<>();
+        sections.put(TzDataFile.RULES_SECTION, rules.array());
+
+        Path file = createTzData("tzdata2019b", sections, zones, "");
+        try {
+            TzDataFile.open(file);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void yearBuckets() throws Exception {
+        Map<String, String> zones = new TreeMap<>();
+        zones.put("America/Los_Angeles", "TZifLA");
+        long start2019 = 1546300800L;
+        long start2020 = 1577836800L;
+        long start2021 = 1609459200L;
+        long dstStart2019 = 1552212000L;
+        long dstEnd2019 = 1572771600L;
+        // 2019 and 2020, with only the 2019 transitions.
+        ByteBuffer buckets = ByteBuffer.allocate(48 + 24 + 8 * 2 + 4 * 2);
+        buckets.putInt(2019).putInt(2).putInt(1).putInt(0);
+        buckets.putLong(start2019).putLong(start2020).putLong(start2021);
+        buckets.putInt(48);
+        buckets.position(48);
+        buckets.putInt(2).putInt(-28800);
+        buckets.putInt(0).putInt(2).putInt(2);
+        buckets.position(48 + 24);
+        buckets.putLong(dstStart2019).putLong(dstEnd2019);
+        buckets.putInt(-25200).putInt(-28800);
+        Map<String, byte[]> sections = new TreeMap<>();
+        sections.put(TzDataFile.YEAR_BUCKETS_SECTION, buckets.array());
+
+        Path file = createTzData("tzdata2019b", sections, zones, "");
+        try (TzDataFile tzData = TzDataFile.open(file)) {
+            assertFalse(tzData.isInYearBuckets(start2019 - 1));
+            assertTrue(tzData.isInYearBuckets(start2019));
+            assertTrue(tzData.isInYearBuckets(start2021 - 1));
+            assertFalse(tzData.isInYearBuckets(start2021));
+            assertEquals(-28800, tzData.getOffsetAt(0, start2019));
+            assertEquals(-28800, tzData.getOffsetAt(0, dstStart2019 - 1));
+            assertEquals(-25200, tzData.getOffsetAt(0, dstStart2019));
+            assertEquals(-25200, tzData.getOffsetAt(0, dstEnd2019 - 1));
+            assertEquals(-28800, tzData.getOffsetAt(0, dstEnd2019));
+            assertEquals(-28800, tzData.getOffsetAt(0, start2020));
+            assertEquals(-28800, tzData.getOffsetAt(0, start2021 - 1));
+            try {
+                tzData.getOffsetAt(0, start2021);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void noYearBucketsSection() throws Exception {
+        Map<String, String> zones = new TreeMap<>();
+        zones.put("GMT", "TZifGMT");
+        Path file = createTzData("tzdata2019b", zones, "");
+        try (TzDataFile tzData = TzDataFile.open(file)) {
+            assertFalse(tzData.isInYearBuckets(0));
+        }
+    }
+
+    @Test
+    public void compactIndexWithoutDictionary() throws Exception {
+        Map<String, String> zones = new TreeMap<>();
+        zones.put("GMT", "TZifGMT");
+        Path file = createTzData("tzidx2019b", zones, "");
+        try {
+            TzDataFile.open(file);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void compressedWithoutBlockIndex() throws Exception {
+        Map<String, String> zones = new TreeMap<>();
+        zones.put("GMT", "TZifGMT");
+        Path file = createTzData("tzblk2019b", zones, "");
+        try {
+            TzDataFile.open(file);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void unknownSectionsAreIgnored() throws Exception {
+        Map<String, String> zones = new TreeMap<>();
+        zones.put("GMT", "TZifGMT");
+        Map<String, byte[]> sections = new TreeMap<>();
+        sections.put("abcd", new byte[] { 1, 2, 3 });
+        Path file = createTzData("tzdata2019b", sections, zones, "");
+        try (TzDataFile tzData = TzDataFile.open(file)) {
+            assertEquals(3, tzData.getSection("abcd").remaining());
+            assertNull(tzData.getSection("efgh"));
+            assertEquals(0, tzData.findZone("GMT"));
+        }
+    }
+
+    @Test
+    public void badVersion() throws Exception {
+        Path file = tempDir.resolve("tzdata");
+        Files.write(file, new byte[24]);
+        try {
+            TzDataFile.open(file);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void badOffsets() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(24);
+        buffer.put("tzdata2019b".getBytes(StandardCharsets.US_ASCII));
+        buffer.position(12);
+        buffer.putInt(24);
+        buffer.putInt(24 + 52);
+        buffer.putInt(24 + 52);
+        Path file = tempDir.resolve("tzdata");
+        Files.write(file, buffer.array());
+        try {
+            TzDataFile.open(file);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    private Path createTzData(String version, Map<String, String> zones, String zoneTab)
+            throws IOException {
+        return createTzData(version, new TreeMap<>(), zones, zoneTab);
+    }
+
+    private Path createTzData(String version, Map<String, byte[]> sections,
+            Map<String, String> zones, String zoneTab) throws IOException {
+        return createTzData(version, sections, zones, concatenate(zones), zoneTab);
+    }
+
+    /**
+     * Creates a tzdata file whose index describes {@code zones} but whose data section is
+     * {@code data}.
+     */
+    private Path createTzData(String version, Map<String, byte[]> sections,
+            Map<String, String> zones, byte[] data, String zoneTab) throws IOException {
+        int indexOffset = 24;
+        if (!sections.isEmpty()) {
+            indexOffset += 8 + 12 * sections.size();
+            for (byte[] section : sections.values()) {
+                indexOffset = align8(indexOffset) + section.length;
+            }
+            indexOffset = align8(indexOffset);
+        }
+        int dataOffset = indexOffset + zones.size() * 52;
+        int zoneTabOffset = dataOffset + data.length;
+        ByteBuffer buffer = ByteBuffer.allocate(zoneTabOffset + zoneTab.length());
+        buffer.put(version.getBytes(StandardCharsets.US_ASCII));
+        buffer.position(12);
+        buffer.putInt(indexOffset);
+        buffer.putInt(dataOffset);
+        buffer.putInt(zoneTabOffset);
+        if (!sections.isEmpty()) {
+            buffer.put("tzex".getBytes(StandardCharsets.US_ASCII));
+            buffer.putInt(sections.size());
+            int sectionOffset = buffer.position() + 12 * sections.size();
+            for (Map.Entry<String, byte[]> section : sections.entrySet()) {
+                sectionOffset = align8(sectionOffset);
+                buffer.put(section.getKey().getBytes(StandardCharsets.US_ASCII));
+                buffer.putInt(sectionOffset);
+                buffer.putInt(section.getValue().length);
+                sectionOffset += section.getValue().length;
+            }
+            for (byte[] section : sections.values()) {
+                buffer.position(align8(buffer.position()));
+                buffer.put(section);
+            }
+            buffer.position(indexOffset);
+        }
+        int offset = 0;
+        for (Map.Entry<String, String> zone : zones.entrySet()) {
+            byte[] name = new byte[52];
+            byte[] zoneId = zone.getKey().getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(zoneId, 0, name, 0, zoneId.length);
+            buffer.put(name);
+            buffer.putInt(buffer.position() - 12, offset);
+            buffer.putInt(buffer.position() - 8, zone.getValue().length());
+            offset += zone.getValue().length();
+        }
+        buffer.put(data);
+        buffer.put(zoneTab.getBytes(StandardCharsets.US_ASCII));
+        Path file = tempDir.resolve("tzdata");
+        Files.write(file, buffer.array());
+        return file;
+    }
+
+    /** Returns the sections of a file with {@code zones} and {@code zoneTab} and checksums. */
+    private Map<String, byte[]> createChecksumsSections(Map<String, String> zones,
+            String zoneTab) throws IOException {
+        // The index does not depend on the sections before it.
+        byte[] withoutSections = Files.readAllBytes(createTzData("tzdata2019b", zones, zoneTab));
+        ByteBuffer section = ByteBuffer.allocate(8 + 4 * zones.size());
+        section.putInt(crc(Arrays.copyOfRange(withoutSections, 24, 24 + 52 * zones.size())));
+        section.putInt(crc(zoneTab.getBytes(StandardCharsets.US_ASCII)));
+        for (String payload : zones.values()) {
+            section.putInt(crc(payload.getBytes(StandardCharsets.US_ASCII)));
+        }
+        Map<String, byte[]> sections = new TreeMap<>();
+        sections.put(TzDataFile.CHECKSUMS_SECTION, section.array());
+        return sections;
+    }
+
+    /**
+     * Returns a name dictionary section for {@code zones}, whose payloads are stored one after
+     * another, with every {@code restartInterval}-th name stored whole.
+     */
+    private static byte[] createDictionary(Map<String, String> zones, int restartInterval) {
+        Map<String, int[]> values = new TreeMap<>();
+        int offset = 0;
+        for (Map.Entry<String, String> zone : zones.entrySet()) {
+            values.put(zone.getKey(), new int[] { offset, zone.getValue().length() });
+            offset += zone.getValue().length();
+        }
+        return createNameDictionary(values, restartInterval);
+    }
+
+    private static byte[] createNameDictionary(Map<String, int[]> values, int restartInterval) {
+        int n = values.size();
+        int restartCount = (n + restartInterval - 1) / restartInterval;
+        ByteBuffer section = ByteBuffer.allocate(1024);
+        section.putInt(n);
+        section.putInt(restartInterval);
+        for (int[] nameValues : values.values()) {
+            for (int value : nameValues) {
+                section.putInt(value);
+            }
+        }
+        int restartsOffset = section.position();
+        section.position(restartsOffset + 4 * restartCount);
+        String previous = "";
+        int i = 0;
+        for (String name : values.keySet()) {
+            int shared = 0;
+            if (i % restartInterval == 0) {
+                section.putInt(restartsOffset + 4 * (i / restartInterval), section.position());
+            } else {
+                while (shared < Math.min(previous.length(), name.length())
+                        && previous.charAt(shared) == name.charAt(shared)) {
+                    shared++;
+                }
+            }
+            section.put((byte) shared).put((byte) (name.length() - shared));
+            section.put(name.substring(shared).getBytes(StandardCharsets.US_ASCII));
+            previous = name;
+            i++;
+        }
+        return Arrays.copyOf(section.array(), section.position());
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] concatenate(Map<String, String> zones) {
+        StringBuilder data = new StringBuilder();
+        for (String payload : zones.values()) {
+            data.append(payload);
+        }
+        return data.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static int align8(int offset) {
+        return (offset + 7) & ~7;
+    }
+
+    private static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(bytes);
+        deflater.finish();
+        byte[] buf = new byte[1024];
+        int length = deflater.deflate(buf);
+        deflater.end();
+        return Arrays.copyOf(buf, length);
+    }
+
+    private static String toString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
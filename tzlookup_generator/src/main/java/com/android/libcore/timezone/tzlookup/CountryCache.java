@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.libcore.timezone.tzlookup;
+
+import com.android.libcore.timezone.tzlookup.proto.CountryZonesFile;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An on-disk cache of the {@link TzLookupFile.Country} generated for each country, so that only
+ * the countries whose input has changed need to be recomputed.
+ *
+ * <p>Each country has a file in the cache directory named after its ISO code. The file records
+ * a key that is a hash of everything the output for the country is computed from: the country's
+ * entry in countryzones.txt, its zones in zone.tab, the IANA version and the time window used for
+ * the zone usage calculations. An entry is only used if its key matches the current one. The
+ * file has the form:
+ * <pre>
+ * key=&lt;hex SHA-256&gt;
+ * country=&lt;iso code&gt; &lt;default zone ID&gt; &lt;y|n, ever uses UTC&gt;
+ * id=&lt;zone ID&gt; &lt;y|n, shown in picker&gt; &lt;not after millis, or -&gt;
+ * ...
+ * </pre>
+ *
+ * <p>Entries are written atomically, so different countries can be read and written
+ * concurrently.
+ */
+final class CountryCache {
+
+    /**
+     * Changed whenever the output for a given input could change, e.g. a change to the zone tree
+     * algorithm, so that existing entries are not used.
+     */
+    private static final int VERSION = 1;
+
+    private static final String KEY_PREFIX = "key=";
+    private static final String COUNTRY_PREFIX = "country=";
+    private static final String ID_PREFIX = "id=";
+    private static final String NO_NOT_AFTER = "-";
+
+    private final Path directory;
+    private final String ianaVersion;
+    private final Instant[] window;
+
+    CountryCache(Path directory, String ianaVersion, Instant... window) throws IOException {
+        this.directory = directory;
+        this.ianaVersion = ianaVersion;
+        this.window = window.clone();
+        Files.createDirectories(directory);
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the key for the output generated for a country from the supplied input.
+     */
+    String createKey(CountryZonesFile.Country countryIn, List<String> zoneTabTimeZoneIds) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        updateDigest(digest, Integer.toString(VERSION));
+        updateDigest(digest, ianaVersion);
+        for (Instant instant : window) {
+            updateDigest(digest, instant.toString());
+        }
+        updateDigest(digest, String.join(",", zoneTabTimeZoneIds));
+        updateDigest(digest, countryIn.toByteArray());
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b & 0xff));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the cached output for the country with the specified ISO code, or {@code null} if
+     * there isn't one with the specified key. Unreadable entries are treated as missing.
+     */
+    TzLookupFile.Country get(String isoCode, String key) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(getFile(isoCode), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            // Includes there being no entry.
+            return null;
+        }
+        if (lines.size() < 2 || !lines.get(0).equals(KEY_PREFIX + key)) {
+            return null;
+        }
+        try {
+            String[] countryFields = parseLine(lines.get(1), COUNTRY_PREFIX, 3);
+            if (!countryFields[0].equals(isoCode)) {
+                return null;
+            }
+            TzLookupFile.Country country = new TzLookupFile.Country(
+                    countryFields[0], countryFields[1], parseBoolean(countryFields[2]));
+            for (String line : lines.subList(2, lines.size())) {
+                String[] idFields = parseLine(line, ID_PREFIX, 3);
+                Instant notUsedAfter = idFields[2].equals(NO_NOT_AFTER)
+                        ? null : Instant.ofEpochMilli(Long.parseLong(idFields[2]));
+                country.addTimeZoneIdentifier(new TzLookupFile.TimeZoneMapping(
+                        idFields[0], parseBoolean(idFields[1]), notUsedAfter));
+            }
+            return country;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores the output for a country under the specified key, replacing any existing entry.
+     */
+    void put(String key, TzLookupFile.Country country) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(KEY_PREFIX + key);
+        lines.add(COUNTRY_PREFIX + country.getIsoCode() + " " + country.getDefaultTimeZoneId()
+                + " " + formatBoolean(country.getEverUsesUtc()));
+        for (TzLookupFile.TimeZoneMapping mapping : country.getTimeZoneMappings()) {
+            Instant notUsedAfter = mapping.getNotUsedAfterInclusive();
+            lines.add(ID_PREFIX + mapping.getOlsonId() + " "
+                    + formatBoolean(mapping.getShowInPicker()) + " "
+                    + (notUsedAfter == null
+                            ? NO_NOT_AFTER : Long.toString(notUsedAfter.toEpochMilli())));
+        }
+
+        Path file = getFile(country.getIsoCode());
+        Path tempFile = Files.createTempFile(directory, country.getIsoCode(), ".tmp");
+        try {
+            Files.write(tempFile, lines, StandardCharsets.UTF_8);
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private Path getFile(String isoCode) {
+        return directory.resolve(isoCode + ".txt");
+    }
+
+    private static void updateDigest(MessageDigest digest, String value) {
+        updateDigest(digest, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void updateDigest(MessageDigest digest, byte[] value) {
+        // Length-prefixed so that different inputs cannot produce the same bytes.
+        int length = value.length;
+        digest.update(new byte[] {
+                (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8),
+                (byte) length });
+        digest.update(value);
+    }
+
+    private static String[] parseLine(String line, String prefix, int fieldCount) {
+        if (!line.startsWith(prefix)) {
+            throw new IllegalArgumentException("Expected " + prefix + " in: " + line);
+        }
+        String[] fields = line.substring(prefix.length()).split(" ");
+        if (fields.length != fieldCount) {
+            throw new IllegalArgumentException("Expected " + fieldCount + " fields in: " + line);
+        }
+        return fields;
+    }
+
+    private static String formatBoolean(boolean value) {
+        return value ? "y" : "n";
+    }
+
+    private static boolean parseBoolean(String value) {
+        switch (value) {
+            case "y":
+                return true;
+            case "n":
+                return false;
+            default:
+                throw new IllegalArgumentException("Bad boolean: " + value);
+        }
+    }
+}
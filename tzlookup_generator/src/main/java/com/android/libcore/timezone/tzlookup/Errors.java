@@ -37,6 +37,25 @@ final class Errors {
     Errors() {
     }
 
+    /**
+     * Returns an empty {@link Errors} with the same scopes as this one, for work that may run on
+     * another thread. Its messages can be added back to this one with {@link #addAll(Errors)}.
+     */
+    Errors createChild() {
+        Errors child = new Errors();
+        child.scopes.addAll(scopes);
+        return child;
+    }
+
+    /**
+     * Adds the messages of {@code other} after those of this one, and raises the level of this
+     * one to that of {@code other} if it is higher.
+     */
+    void addAll(Errors other) {
+        level = Math.max(level, other.level);
+        messages.addAll(other.messages);
+    }
+
     void pushScope(String name) {
         scopes.add(name);
     }
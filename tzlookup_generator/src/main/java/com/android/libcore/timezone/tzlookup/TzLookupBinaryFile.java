@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.libcore.timezone.tzlookup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary form of the information in tzlookup.xml, laid out so that it can be memory
+ * mapped and a country looked up with a binary search, without parsing the whole file.
+ *
+ * <p>All ints are big-endian. Varints are unsigned LEB128; signed values are zig-zag encoded
+ * first. The file is:
+ * <pre>
+ * header:
+ *   byte[8]  magic, "tzlookup"
+ *   int      format version, currently 1
+ *   int      string offset of the IANA version
+ *   int      country count
+ *   int      offset of the country index
+ *   int      offset of the string table
+ *   int      length of the string table
+ *   int      offset of the country records
+ *   int      length of the country records
+ * country index, sorted by ISO code, one entry per country:
+ *   int      string offset of the ISO code
+ *   int      offset of the country record, from the start of the country records
+ * string table, each string once:
+ *   varint   length in bytes, then the UTF-8 bytes
+ * country records:
+ *   varint   string offset of the default zone ID
+ *   byte     flags: 1 = ever uses UTC
+ *   varint   zone count, then for each zone in the tzlookup.xml order:
+ *     varint   string offset of the zone ID
+ *     byte     flags: 1 = shown in picker, 2 = has a "not used after" time
+ *     varint   the "not used after" time in milliseconds, zig-zag encoded, if flagged
+ * </pre>
+ * String offsets are from the start of the string table.
+ */
+final class TzLookupBinaryFile {
+
+    private static final byte[] MAGIC = "tzlookup".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = MAGIC.length + 8 * Integer.BYTES;
+    private static final int INDEX_ENTRY_SIZE = 2 * Integer.BYTES;
+
+    private static final int COUNTRY_FLAG_EVER_USES_UTC = 1;
+    private static final int ZONE_FLAG_SHOWN_IN_PICKER = 1;
+    private static final int ZONE_FLAG_HAS_NOT_USED_AFTER = 2;
+
+    private final ByteBuffer buffer;
+    private final String ianaVersion;
+    private final int countryCount;
+    private final int indexOffset;
+    private final int stringsOffset;
+    private final int stringsLength;
+    private final int countriesOffset;
+    private final int countriesLength;
+
+    private TzLookupBinaryFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE) {
+            throw new IOException("File too short: " + buffer.limit());
+        }
+        byte[] magic = new byte[MAGIC.length];
+        buffer.duplicate().get(magic);
+        int version = buffer.getInt(MAGIC.length);
+        if (!Arrays.equals(magic, MAGIC) || version != VERSION) {
+            throw new IOException("Not a version " + VERSION + " tzlookup binary file");
+        }
+        int ianaVersionOffset = buffer.getInt(MAGIC.length + 4);
+        countryCount = buffer.getInt(MAGIC.length + 8);
+        indexOffset = buffer.getInt(MAGIC.length + 12);
+        stringsOffset = buffer.getInt(MAGIC.length + 16);
+        stringsLength = buffer.getInt(MAGIC.length + 20);
+        countriesOffset = buffer.getInt(MAGIC.length + 24);
+        countriesLength = buffer.getInt(MAGIC.length + 28);
+        checkSection("index", indexOffset, (long) countryCount * INDEX_ENTRY_SIZE);
+        checkSection("strings", stringsOffset, stringsLength);
+        checkSection("countries", countriesOffset, countriesLength);
+        ianaVersion = getString(ianaVersionOffset);
+    }
+
+    /**
+     * Maps the specified file and checks its header.
+     */
+    static TzLookupBinaryFile open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new TzLookupBinaryFile(
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes the binary form of the supplied {@link TzLookupFile.TimeZones}.
+     */
+    static void write(TzLookupFile.TimeZones timeZones, String outputFile) throws IOException {
+        StringTable strings = new StringTable();
+        int ianaVersionOffset = strings.add(timeZones.getIanaVersion());
+
+        // Country records are in the order of the XML, the index is sorted by ISO code.
+        List<TzLookupFile.Country> countries = timeZones.getCountries();
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        int[][] indexEntries = new int[countries.size()][];
+        for (int i = 0; i < countries.size(); i++) {
+            TzLookupFile.Country country = countries.get(i);
+            indexEntries[i] = new int[] { strings.add(country.getIsoCode()), records.size() };
+            writeVarint(records, strings.add(country.getDefaultTimeZoneId()));
+            records.write(country.getEverUsesUtc() ? COUNTRY_FLAG_EVER_USES_UTC : 0);
+            List<TzLookupFile.TimeZoneMapping> mappings = country.getTimeZoneMappings();
+            writeVarint(records, mappings.size());
+            for (TzLookupFile.TimeZoneMapping mapping : mappings) {
+                writeVarint(records, strings.add(mapping.getOlsonId()));
+                Instant notUsedAfter = mapping.getNotUsedAfterInclusive();
+                int flags = (mapping.getShowInPicker() ? ZONE_FLAG_SHOWN_IN_PICKER : 0)
+                        | (notUsedAfter != null ? ZONE_FLAG_HAS_NOT_USED_AFTER : 0);
+                records.write(flags);
+                if (notUsedAfter != null) {
+                    long millis = notUsedAfter.toEpochMilli();
+                    writeVarint(records, (millis << 1) ^ (millis >> 63));
+                }
+            }
+        }
+        Arrays.sort(indexEntries,
+                Comparator.comparing((int[] entry) -> strings.get(entry[0])));
+
+        byte[] stringBytes = strings.toByteArray();
+        byte[] recordBytes = records.toByteArray();
+        int indexOffset = HEADER_SIZE;
+        int stringsOffset = indexOffset + indexEntries.length * INDEX_ENTRY_SIZE;
+        int countriesOffset = stringsOffset + stringBytes.length;
+        ByteBuffer out = ByteBuffer.allocate(countriesOffset + recordBytes.length);
+        out.put(MAGIC);
+        out.putInt(VERSION);
+        out.putInt(ianaVersionOffset);
+        out.putInt(indexEntries.length);
+        out.putInt(indexOffset);
+        out.putInt(stringsOffset);
+        out.putInt(stringBytes.length);
+        out.putInt(countriesOffset);
+        out.putInt(recordBytes.length);
+        for (int[] entry : indexEntries) {
+            out.putInt(entry[0]);
+            out.putInt(entry[1]);
+        }
+        out.put(stringBytes);
+        out.put(recordBytes);
+        Files.write(Paths.get(outputFile), out.array());
+    }
+
+    String getIanaVersion() {
+        return ianaVersion;
+    }
+
+    int getCountryCount() {
+        return countryCount;
+    }
+
+    /**
+     * Returns the country with the specified ISO code, or {@code null} if there isn't one.
+     */
+    TzLookupFile.Country findCountry(String isoCode) throws IOException {
+        int low = 0;
+        int high = countryCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comparison = getIsoCode(mid).compareTo(isoCode);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return getCountry(mid);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the differences between the content of this file and the supplied
+     * {@link TzLookupFile.TimeZones}, which must not have duplicate countries. Returns an empty
+     * list if they hold the same information.
+     */
+    List<String> findDifferences(TzLookupFile.TimeZones expected) throws IOException {
+        List<String> differences = new ArrayList<>();
+        if (!ianaVersion.equals(expected.getIanaVersion())) {
+            differences.add("IANA version is " + ianaVersion + ", expected "
+                    + expected.getIanaVersion());
+        }
+        List<TzLookupFile.Country> expectedCountries = expected.getCountries();
+        if (countryCount != expectedCountries.size()) {
+            differences.add("Has " + countryCount + " countries, expected "
+                    + expectedCountries.size());
+        }
+        for (TzLookupFile.Country expectedCountry : expectedCountries) {
+            TzLookupFile.Country actualCountry = findCountry(expectedCountry.getIsoCode());
+            if (!expectedCountry.equals(actualCountry)) {
+                differences.add("Country is " + actualCountry + ", expected " + expectedCountry);
+            }
+        }
+        return differences;
+    }
+
+    private String getIsoCode(int index) throws IOException {
+        return getString(buffer.getInt(indexOffset + index * INDEX_ENTRY_SIZE));
+    }
+
+    private TzLookupFile.Country getCountry(int index) throws IOException {
+        int recordOffset = buffer.getInt(indexOffset + index * INDEX_ENTRY_SIZE + Integer.BYTES);
+        if (recordOffset < 0 || recordOffset >= countriesLength) {
+            throw new IOException("Bad country record offset: " + recordOffset);
+        }
+        ByteBuffer in = section(countriesOffset, countriesLength);
+        in.position(recordOffset);
+        try {
+            TzLookupFile.Country country = new TzLookupFile.Country(getIsoCode(index),
+                    getString(readIntVarint(in)),
+                    (in.get() & COUNTRY_FLAG_EVER_USES_UTC) != 0);
+            int zoneCount = readIntVarint(in);
+            for (int i = 0; i < zoneCount; i++) {
+                String olsonId = getString(readIntVarint(in));
+                int flags = in.get();
+                Instant notUsedAfter = null;
+                if ((flags & ZONE_FLAG_HAS_NOT_USED_AFTER) != 0) {
+                    long zigZag = readVarint(in);
+                    notUsedAfter = Instant.ofEpochMilli((zigZag >>> 1) ^ -(zigZag & 1));
+                }
+                country.addTimeZoneIdentifier(new TzLookupFile.TimeZoneMapping(
+                        olsonId, (flags & ZONE_FLAG_SHOWN_IN_PICKER) != 0, notUsedAfter));
+            }
+            return country;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated country record at " + recordOffset, e);
+        }
+    }
+
+    private String getString(int offset) throws IOException {
+        if (offset < 0 || offset >= stringsLength) {
+            throw new IOException("Bad string offset: " + offset);
+        }
+        ByteBuffer in = section(stringsOffset, stringsLength);
+        in.position(offset);
+        try {
+            byte[] bytes = new byte[readIntVarint(in)];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated string at " + offset, e);
+        }
+    }
+
+    /** Returns a buffer over a section, so reads past its end fail. */
+    private ByteBuffer section(int offset, int length) {
+        ByteBuffer section = buffer.duplicate();
+        section.position(offset);
+        section.limit(offset + length);
+        return section.slice();
+    }
+
+    private void checkSection(String name, int offset, long length) throws IOException {
+        if (offset < HEADER_SIZE || length < 0 || offset + length > buffer.limit()) {
+            throw new IOException("Bad " + name + " section: offset=" + offset
+                    + ", length=" + length + ", file length=" + buffer.limit());
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(ByteBuffer in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint too long");
+    }
+
+    private static int readIntVarint(ByteBuffer in) throws IOException {
+        long value = readVarint(in);
+        if (value > Integer.MAX_VALUE) {
+            throw new IOException("Value too large: " + value);
+        }
+        return (int) value;
+    }
+
+    /** Holds each string once, in the order they were first added. */
+    private static final class StringTable {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final Map<String, Integer> offsets = new HashMap<>();
+        private final Map<Integer, String> strings = new HashMap<>();
+
+        /** Returns the offset of the string, adding it if it isn't in the table. */
+        int add(String s) {
+            Integer offset = offsets.get(s);
+            if (offset == null) {
+                offset = bytes.size();
+                byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+                writeVarint(bytes, utf8.length);
+                bytes.write(utf8, 0, utf8.length);
+                offsets.put(s, offset);
+                strings.put(offset, s);
+            }
+            return offset;
+        }
+
+        String get(int offset) {
+            return strings.get(offset);
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
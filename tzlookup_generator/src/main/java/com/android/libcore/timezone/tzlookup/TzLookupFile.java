@@ -15,25 +15,24 @@
  */
 package com.android.libcore.timezone.tzlookup;
 
-import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.StringReader;
-import java.io.StringWriter;
+import java.io.InputStream;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
-import javax.xml.stream.XMLOutputFactory;
+import java.util.Objects;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  * A class that knows about the structure of the tzlookup.xml file.
@@ -65,8 +64,7 @@ final class TzLookupFile {
     private static final String ATTRIBUTE_FALSE = "n";
     private static final String ATTRIBUTE_TRUE = "y";
 
-    static void write(TimeZones timeZones, String outputFile)
-            throws XMLStreamException, IOException {
+    static void write(TimeZones timeZones, String outputFile) throws IOException {
         /*
          * The required XML structure is:
          * <timezones ianaversion="2017b">
@@ -87,34 +85,237 @@ final class TzLookupFile {
          * </timezones>
          */
 
-        StringWriter writer = new StringWriter();
-        writeRaw(timeZones, writer);
-        String rawXml = writer.getBuffer().toString();
+        try (Writer fileWriter = Files.newBufferedWriter(
+                Paths.get(outputFile), StandardCharsets.UTF_8)) {
+            IndentingXmlWriter xmlWriter = new IndentingXmlWriter(fileWriter);
+            xmlWriter.writeStartDocument();
+            xmlWriter.writeComment("\n\n **** Autogenerated file - DO NOT EDIT ****\n\n");
+            TimeZones.writeXml(timeZones, xmlWriter);
+            xmlWriter.writeEndDocument();
+        }
+    }
 
-        TransformerFactory factory = TransformerFactory.newInstance();
-        try (Writer fileWriter = new OutputStreamWriter(
-                new FileOutputStream(outputFile), StandardCharsets.UTF_8)) {
+    /**
+     * Reads a file written by {@link #write(TimeZones, String)}.
+     */
+    static TimeZones read(String inputFile) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(inputFile)))) {
+            XMLStreamReader reader = XMLInputFactory.newFactory().createXMLStreamReader(in);
+            TimeZones timeZones = null;
+            Country country = null;
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                switch (reader.getLocalName()) {
+                    case TIMEZONES_ELEMENT:
+                        timeZones = new TimeZones(
+                                getRequiredAttribute(reader, IANA_VERSION_ATTRIBUTE));
+                        break;
+                    case COUNTRY_ZONES_ELEMENT:
+                        checkParent(reader, timeZones);
+                        timeZones.setCountryZones(new CountryZones());
+                        break;
+                    case COUNTRY_ELEMENT:
+                        checkParent(reader, timeZones == null ? null : timeZones.countryZones);
+                        country = new Country(getRequiredAttribute(reader, COUNTRY_CODE_ATTRIBUTE),
+                                getRequiredAttribute(reader, DEFAULT_ATTRIBUTE),
+                                decodeBooleanAttribute(
+                                        getRequiredAttribute(reader, EVER_USES_UTC_ATTRIBUTE)));
+                        timeZones.countryZones.addCountry(country);
+                        break;
+                    case ZONE_ID_ELEMENT:
+                        checkParent(reader, country);
+                        String picker =
+                                reader.getAttributeValue(null, ZONE_SHOW_IN_PICKER_ATTRIBUTE);
+                        String notAfter =
+                                reader.getAttributeValue(null, ZONE_NOT_USED_AFTER_ATTRIBUTE);
+                        boolean showInPicker = picker == null || decodeBooleanAttribute(picker);
+                        Instant notUsedAfterInclusive = notAfter == null
+                                ? null : Instant.ofEpochMilli(decodeLongAttribute(notAfter));
+                        country.addTimeZoneIdentifier(new TimeZoneMapping(
+                                reader.getElementText(), showInPicker, notUsedAfterInclusive));
+                        break;
+                    default:
+                        throw new IOException("Unexpected element " + reader.getLocalName()
+                                + " in " + inputFile);
+                }
+            }
+            if (timeZones == null || timeZones.countryZones == null) {
+                throw new IOException("No " + COUNTRY_ZONES_ELEMENT + " in " + inputFile);
+            }
+            return timeZones;
+        } catch (XMLStreamException | IllegalArgumentException e) {
+            throw new IOException("Unable to read " + inputFile, e);
+        }
+    }
 
-            // Transform the XML with the identity transform but with indenting
-            // so it's more human-readable.
-            Transformer transformer = factory.newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "1");
-            transformer.transform(
-                    new StreamSource(new StringReader(rawXml)), new StreamResult(fileWriter));
-        } catch (TransformerException e) {
-            throw new XMLStreamException(e);
+    private static String getRequiredAttribute(XMLStreamReader reader, String name)
+            throws IOException {
+        String value = reader.getAttributeValue(null, name);
+        if (value == null) {
+            throw new IOException("No " + name + " attribute on " + reader.getLocalName()
+                    + " at " + reader.getLocation());
         }
+        return value;
     }
 
-    private static void writeRaw(TimeZones timeZones, Writer fileWriter)
-            throws XMLStreamException {
-        XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newFactory();
-        XMLStreamWriter xmlWriter = xmlOutputFactory.createXMLStreamWriter(fileWriter);
-        xmlWriter.writeStartDocument();
-        xmlWriter.writeComment("\n\n **** Autogenerated file - DO NOT EDIT ****\n\n");
-        TimeZones.writeXml(timeZones, xmlWriter);
-        xmlWriter.writeEndDocument();
+    private static void checkParent(XMLStreamReader reader, Object parent) throws IOException {
+        if (parent == null) {
+            throw new IOException("Unexpected " + reader.getLocalName() + " at "
+                    + reader.getLocation());
+        }
+    }
+
+    /**
+     * Writes XML straight to a {@link Writer} with each element on its own line, indented by one
+     * space per level. The output is the same as writing the XML without whitespace and passing it
+     * through the JDK's identity {@link javax.xml.transform.Transformer} with indenting on and an
+     * indent-amount of 1, as this class used to. Only the names of the open elements are held, so
+     * memory use does not depend on the size of the document.
+     */
+    static final class IndentingXmlWriter {
+
+        private final Writer writer;
+        private final Deque<String> openElements = new ArrayDeque<>();
+
+        /** True if the ">" of the last start tag has not been written yet. */
+        private boolean startTagOpen;
+
+        /** True if the current element has child elements, so its end tag goes on a new line. */
+        private boolean hasChildElements;
+
+        IndentingXmlWriter(Writer writer) {
+            this.writer = writer;
+        }
+
+        void writeStartDocument() throws IOException {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        }
+
+        void writeComment(String comment) throws IOException {
+            closeStartTag();
+            writeIndent();
+            writer.write("<!--");
+            writer.write(comment);
+            writer.write("-->");
+        }
+
+        void writeStartElement(String name) throws IOException {
+            closeStartTag();
+            writeIndent();
+            writer.write('<');
+            writer.write(name);
+            openElements.push(name);
+            startTagOpen = true;
+            hasChildElements = false;
+        }
+
+        void writeAttribute(String name, String value) throws IOException {
+            if (!startTagOpen) {
+                throw new IllegalStateException("No start tag for attribute " + name);
+            }
+            writer.write(' ');
+            writer.write(name);
+            writer.write("=\"");
+            writeEscaped(value, true /* attribute */);
+            writer.write('"');
+        }
+
+        void writeCharacters(String text) throws IOException {
+            if (text.isEmpty()) {
+                return;
+            }
+            closeStartTag();
+            writeEscaped(text, false /* attribute */);
+        }
+
+        void writeEndElement() throws IOException {
+            String name = openElements.pop();
+            if (startTagOpen) {
+                writer.write("/>");
+                startTagOpen = false;
+            } else {
+                if (hasChildElements) {
+                    writeNewLine();
+                }
+                writer.write("</");
+                writer.write(name);
+                writer.write('>');
+            }
+            // The parent now has at least one child element.
+            hasChildElements = true;
+        }
+
+        void writeEndDocument() throws IOException {
+            while (!openElements.isEmpty()) {
+                writeEndElement();
+            }
+            writer.write('\n');
+        }
+
+        private void closeStartTag() throws IOException {
+            if (startTagOpen) {
+                writer.write('>');
+                startTagOpen = false;
+            }
+        }
+
+        /** Starts a new line for anything inside the root element. */
+        private void writeIndent() throws IOException {
+            if (!openElements.isEmpty()) {
+                writeNewLine();
+            }
+        }
+
+        private void writeNewLine() throws IOException {
+            writer.write('\n');
+            for (int i = 0; i < openElements.size(); i++) {
+                writer.write(' ');
+            }
+        }
+
+        /**
+         * Writes a text or attribute value with the escaping, and the line end and attribute value
+         * normalization, that a round trip through an XML parser and the Transformer gives.
+         */
+        private void writeEscaped(String value, boolean attribute) throws IOException {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '&':
+                        writer.write("&amp;");
+                        break;
+                    case '<':
+                        writer.write("&lt;");
+                        break;
+                    case '>':
+                        writer.write("&gt;");
+                        break;
+                    case '"':
+                        writer.write(attribute ? "&quot;" : "\"");
+                        break;
+                    case '\r':
+                        if (i + 1 < value.length() && value.charAt(i + 1) == '\n') {
+                            i++;
+                        }
+                        writer.write(attribute ? ' ' : '\n');
+                        break;
+                    case '\n':
+                    case '\t':
+                        writer.write(attribute ? ' ' : c);
+                        break;
+                    default:
+                        if (Character.isHighSurrogate(c) && i + 1 < value.length()) {
+                            writer.write("&#" + value.codePointAt(i) + ";");
+                            i++;
+                        } else {
+                            writer.write(c);
+                        }
+                        break;
+                }
+            }
+        }
     }
 
     static class TimeZones {
@@ -130,8 +331,17 @@ final class TzLookupFile {
             this.countryZones = countryZones;
         }
 
-        static void writeXml(TimeZones timeZones, XMLStreamWriter writer)
-                throws XMLStreamException {
+        String getIanaVersion() {
+            return ianaVersion;
+        }
+
+        /** Returns the countries in the order they are written. */
+        List<Country> getCountries() {
+            return Collections.unmodifiableList(countryZones.countries);
+        }
+
+        static void writeXml(TimeZones timeZones, IndentingXmlWriter writer)
+                throws IOException {
             writer.writeStartElement(TIMEZONES_ELEMENT);
             writer.writeAttribute(IANA_VERSION_ATTRIBUTE, timeZones.ianaVersion);
             CountryZones.writeXml(timeZones.countryZones, writer);
@@ -146,8 +356,8 @@ final class TzLookupFile {
         CountryZones() {
         }
 
-        static void writeXml(CountryZones countryZones, XMLStreamWriter writer)
-                throws XMLStreamException {
+        static void writeXml(CountryZones countryZones, IndentingXmlWriter writer)
+                throws IOException {
             writer.writeStartElement(COUNTRY_ZONES_ELEMENT);
             for (Country country : countryZones.countries) {
                 Country.writeXml(country, writer);
@@ -177,8 +387,54 @@ final class TzLookupFile {
             timeZoneIds.add(timeZoneId);
         }
 
-        static void writeXml(Country country, XMLStreamWriter writer)
-                throws XMLStreamException {
+        String getIsoCode() {
+            return isoCode;
+        }
+
+        String getDefaultTimeZoneId() {
+            return defaultTimeZoneId;
+        }
+
+        boolean getEverUsesUtc() {
+            return everUsesUtc;
+        }
+
+        List<TimeZoneMapping> getTimeZoneMappings() {
+            return Collections.unmodifiableList(timeZoneIds);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Country country = (Country) o;
+            return everUsesUtc == country.everUsesUtc
+                    && isoCode.equals(country.isoCode)
+                    && defaultTimeZoneId.equals(country.defaultTimeZoneId)
+                    && timeZoneIds.equals(country.timeZoneIds);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(isoCode, defaultTimeZoneId, everUsesUtc, timeZoneIds);
+        }
+
+        @Override
+        public String toString() {
+            return "Country{" +
+                    "isoCode='" + isoCode + '\'' +
+                    ", defaultTimeZoneId='" + defaultTimeZoneId + '\'' +
+                    ", everUsesUtc=" + everUsesUtc +
+                    ", timeZoneIds=" + timeZoneIds +
+                    '}';
+        }
+
+        static void writeXml(Country country, IndentingXmlWriter writer)
+                throws IOException {
             writer.writeStartElement(COUNTRY_ELEMENT);
             writer.writeAttribute(COUNTRY_CODE_ATTRIBUTE, country.isoCode);
             writer.writeAttribute(DEFAULT_ATTRIBUTE, country.defaultTimeZoneId);
@@ -199,6 +455,21 @@ final class TzLookupFile {
         return Long.toString(epochMillis);
     }
 
+    private static boolean decodeBooleanAttribute(String value) {
+        switch (value) {
+            case ATTRIBUTE_TRUE:
+                return true;
+            case ATTRIBUTE_FALSE:
+                return false;
+            default:
+                throw new IllegalArgumentException("Bad boolean attribute value: " + value);
+        }
+    }
+
+    private static long decodeLongAttribute(String value) {
+        return Long.parseLong(value);
+    }
+
     static class TimeZoneMapping {
 
         private final String olsonId;
@@ -211,8 +482,48 @@ final class TzLookupFile {
             this.notUsedAfterInclusive = notUsedAfterInclusive;
         }
 
-        static void writeXml(TimeZoneMapping timeZoneId, XMLStreamWriter writer)
-                throws XMLStreamException {
+        String getOlsonId() {
+            return olsonId;
+        }
+
+        boolean getShowInPicker() {
+            return showInPicker;
+        }
+
+        Instant getNotUsedAfterInclusive() {
+            return notUsedAfterInclusive;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            TimeZoneMapping that = (TimeZoneMapping) o;
+            return showInPicker == that.showInPicker
+                    && olsonId.equals(that.olsonId)
+                    && Objects.equals(notUsedAfterInclusive, that.notUsedAfterInclusive);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(olsonId, showInPicker, notUsedAfterInclusive);
+        }
+
+        @Override
+        public String toString() {
+            return "TimeZoneMapping{" +
+                    "olsonId='" + olsonId + '\'' +
+                    ", showInPicker=" + showInPicker +
+                    ", notUsedAfterInclusive=" + notUsedAfterInclusive +
+                    '}';
+        }
+
+        static void writeXml(TimeZoneMapping timeZoneId, IndentingXmlWriter writer)
+                throws IOException {
             writer.writeStartElement(ZONE_ID_ELEMENT);
             if (!timeZoneId.showInPicker) {
                 writer.writeAttribute(ZONE_SHOW_IN_PICKER_ATTRIBUTE, encodeBooleanAttribute(false));
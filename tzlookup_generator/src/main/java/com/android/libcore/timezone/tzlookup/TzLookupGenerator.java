@@ -18,22 +18,26 @@ package com.android.libcore.timezone.tzlookup;
 import com.android.libcore.timezone.tzlookup.proto.CountryZonesFile;
 import com.android.libcore.timezone.tzlookup.zonetree.CountryZoneTree;
 import com.android.libcore.timezone.tzlookup.zonetree.CountryZoneUsage;
-import com.ibm.icu.util.BasicTimeZone;
+import com.android.libcore.timezone.tzlookup.zonetree.ZoneTimelineCache;
 import com.ibm.icu.util.Calendar;
 import com.ibm.icu.util.GregorianCalendar;
 import com.ibm.icu.util.TimeZone;
-import com.ibm.icu.util.TimeZoneRule;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.text.ParseException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.TimeUnit;
-import javax.xml.stream.XMLStreamException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Generates the tzlookup.xml file using the information from countryzones.txt and zones.tab.
@@ -70,6 +74,9 @@ public final class TzLookupGenerator {
     private final String countryZonesFile;
     private final String zoneTabFile;
     private final String outputFile;
+    private final int threads;
+    private final String cacheDir;
+    private final String binaryOutputFile;
 
     /**
      * Executes the generator.
@@ -78,22 +85,69 @@ public final class TzLookupGenerator {
      * 1: The countryzones.txt file
      * 2: the zone.tab file
      * 3: the file to generate
+     *
+     * Optional arguments:
+     * --threads=<n>: the number of countries to process concurrently. Defaults to the number of
+     *     available processors; 1 processes them one after another. The output is the same
+     *     either way.
+     * --cache-dir=<dir>: a directory in which to keep the output for each country between runs.
+     *     Only countries whose input has changed since the last run are recomputed. The output
+     *     is the same as without the cache.
+     * --binary=<file>: also write the information in the compact binary form described in
+     *     {@link TzLookupBinaryFile}. It is checked against the XML file after writing.
      */
     public static void main(String[] args) throws Exception {
-        if (args.length != 3) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String cacheDir = null;
+        String binaryOutputFile = null;
+        boolean validArgs = args.length >= 3;
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].startsWith("--threads=")) {
+                threads = Integer.parseInt(args[i].substring("--threads=".length()));
+            } else if (args[i].startsWith("--cache-dir=")) {
+                cacheDir = args[i].substring("--cache-dir=".length());
+            } else if (args[i].startsWith("--binary=")) {
+                binaryOutputFile = args[i].substring("--binary=".length());
+            } else {
+                validArgs = false;
+            }
+        }
+        if (!validArgs || threads < 1) {
             System.err.println(
                     "usage: java com.android.libcore.timezone.tzlookup.proto.TzLookupGenerator"
-                            + " <input proto file> <zone.tab file> <output xml file>");
+                            + " <input proto file> <zone.tab file> <output xml file>"
+                            + " [--threads=<n>] [--cache-dir=<dir>] [--binary=<file>]");
             System.exit(0);
         }
-        boolean success = new TzLookupGenerator(args[0], args[1], args[2]).execute();
+        boolean success = new TzLookupGenerator(
+                args[0], args[1], args[2], threads, cacheDir, binaryOutputFile).execute();
         System.exit(success ? 0 : 1);
     }
 
     TzLookupGenerator(String countryZonesFile, String zoneTabFile, String outputFile) {
+        this(countryZonesFile, zoneTabFile, outputFile,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    TzLookupGenerator(String countryZonesFile, String zoneTabFile, String outputFile,
+            int threads) {
+        this(countryZonesFile, zoneTabFile, outputFile, threads, null /* cacheDir */);
+    }
+
+    TzLookupGenerator(String countryZonesFile, String zoneTabFile, String outputFile,
+            int threads, String cacheDir) {
+        this(countryZonesFile, zoneTabFile, outputFile, threads, cacheDir,
+                null /* binaryOutputFile */);
+    }
+
+    TzLookupGenerator(String countryZonesFile, String zoneTabFile, String outputFile,
+            int threads, String cacheDir, String binaryOutputFile) {
         this.countryZonesFile = countryZonesFile;
         this.zoneTabFile = zoneTabFile;
         this.outputFile = outputFile;
+        this.threads = threads;
+        this.cacheDir = cacheDir;
+        this.binaryOutputFile = binaryOutputFile;
     }
 
     boolean execute() throws IOException {
@@ -150,17 +204,33 @@ public final class TzLookupGenerator {
             return false;
         }
 
+        CountryCache countryCache = null;
+        if (cacheDir != null) {
+            countryCache = new CountryCache(Paths.get(cacheDir), inputIanaVersion,
+                    ZONE_USAGE_CALCS_START, ZONE_USAGE_CALCS_END, ZONE_USAGE_NOT_AFTER_CUT_OFF);
+        }
+
         Errors processingErrors = new Errors();
-        TzLookupFile.TimeZones timeZonesOut = createOutputTimeZones(
-                inputIanaVersion, zoneTabMapping, countriesIn, processingErrors);
+        TzLookupFile.TimeZones timeZonesOut = createOutputTimeZones(inputIanaVersion,
+                zoneTabMapping, countriesIn, processingErrors, threads, countryCache);
         if (!processingErrors.hasError()) {
             // Write the output structure if there wasn't an error.
             logInfo("Writing " + outputFile);
-            try {
-                TzLookupFile.write(timeZonesOut, outputFile);
-            } catch (XMLStreamException e) {
-                e.printStackTrace(System.err);
-                processingErrors.addFatal("Unable to write output file");
+            TzLookupFile.write(timeZonesOut, outputFile);
+
+            if (binaryOutputFile != null) {
+                logInfo("Writing " + binaryOutputFile);
+                TzLookupBinaryFile.write(timeZonesOut, binaryOutputFile);
+
+                // Check the binary file holds the same information as the XML file as read back,
+                // so that the two cannot drift apart.
+                List<String> differences = TzLookupBinaryFile.open(Paths.get(binaryOutputFile))
+                        .findDifferences(TzLookupFile.read(outputFile));
+                if (!differences.isEmpty()) {
+                    processingErrors.addFatal(binaryOutputFile + " does not match " + outputFile);
+                    differences.forEach(processingErrors::addFatal);
+                    Files.delete(Paths.get(binaryOutputFile));
+                }
             }
         }
 
@@ -172,9 +242,22 @@ public final class TzLookupGenerator {
         return !processingErrors.hasError();
     }
 
+    /**
+     * The output for one country and the errors found while producing it.
+     */
+    private static class CountryResult {
+        final TzLookupFile.Country countryOut;
+        final Errors errors;
+
+        CountryResult(TzLookupFile.Country countryOut, Errors errors) {
+            this.countryOut = countryOut;
+            this.errors = errors;
+        }
+    }
+
     private static TzLookupFile.TimeZones createOutputTimeZones(String inputIanaVersion,
             Map<String, List<String>> zoneTabMapping, List<CountryZonesFile.Country> countriesIn,
-            Errors processingErrors) {
+            Errors processingErrors, int threads, CountryCache countryCache) {
         // Start constructing the output structure.
         TzLookupFile.TimeZones timeZonesOut = new TzLookupFile.TimeZones(inputIanaVersion);
         TzLookupFile.CountryZones countryZonesOut = new TzLookupFile.CountryZones();
@@ -188,32 +271,87 @@ public final class TzLookupGenerator {
         // to WW2) so we start looking at the beginning of "this year".
         long everUseUtcStartTimeMillis = getYearStartTimeMillisForData(inputIanaVersion);
 
-        // Process each Country.
+        // The offsets of each zone, shared by all the checks below and by all countries so that
+        // each zone's ICU transitions are scanned once.
+        ZoneTimelineCache zoneTimelines =
+                new ZoneTimelineCache(ZONE_USAGE_CALCS_START, ZONE_USAGE_CALCS_END);
+
+        // Process each Country. No country depends on another, so with more than one thread
+        // they are processed concurrently. Each reports to its own Errors and the results are
+        // merged in input order, so the output and the errors reported are the same as when they
+        // are processed one after another.
+        //
+        // With a cache, countries whose input is unchanged are taken from it. Only countries
+        // processed without any issues are cached, so that the issues for the others are
+        // reported every time.
+        AtomicInteger cacheHits = new AtomicInteger();
+        List<ForkJoinTask<CountryResult>> tasks = new ArrayList<>();
         for (CountryZonesFile.Country countryIn : countriesIn) {
-            String isoCode = countryIn.getIsoCode();
-            List<String> zoneTabCountryTimeZoneIds = zoneTabMapping.get(isoCode.toUpperCase());
-            if (zoneTabCountryTimeZoneIds == null) {
-                processingErrors.addError("Country=" + isoCode + " missing from zone.tab");
-                // No point in continuing.
-                continue;
-            }
+            Errors countryErrors = processingErrors.createChild();
+            tasks.add(ForkJoinTask.adapt(() -> {
+                String isoCode = countryIn.getIsoCode();
+                List<String> zoneTabCountryTimeZoneIds =
+                        zoneTabMapping.get(isoCode.toUpperCase());
+                if (zoneTabCountryTimeZoneIds == null) {
+                    countryErrors.addError("Country=" + isoCode + " missing from zone.tab");
+                    // No point in continuing.
+                    return new CountryResult(null, countryErrors);
+                }
+                String cacheKey = null;
+                if (countryCache != null) {
+                    cacheKey = countryCache.createKey(countryIn, zoneTabCountryTimeZoneIds);
+                    TzLookupFile.Country cachedCountryOut = countryCache.get(isoCode, cacheKey);
+                    if (cachedCountryOut != null) {
+                        cacheHits.incrementAndGet();
+                        return new CountryResult(cachedCountryOut, countryErrors);
+                    }
+                }
+                TzLookupFile.Country countryOut = processCountry(zoneTimelines,
+                        offsetSampleTimeMillis, everUseUtcStartTimeMillis, countryIn,
+                        zoneTabCountryTimeZoneIds, countryErrors);
+                if (countryCache != null && countryOut != null && countryErrors.isEmpty()) {
+                    try {
+                        countryCache.put(cacheKey, countryOut);
+                    } catch (IOException e) {
+                        countryErrors.addWarning("Unable to cache country=" + isoCode + ": " + e);
+                    }
+                }
+                return new CountryResult(countryOut, countryErrors);
+            }));
+        }
 
-            TzLookupFile.Country countryOut = processCountry(
-                    offsetSampleTimeMillis, everUseUtcStartTimeMillis, countryIn,
-                    zoneTabCountryTimeZoneIds, processingErrors);
-            if (processingErrors.hasFatal()) {
-                // Stop if there's a fatal error, continue processing countries if there are just
-                // errors.
-                break;
-            } else if (countryOut == null) {
-                continue;
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        try {
+            if (pool != null) {
+                tasks.forEach(pool::execute);
+            }
+            for (ForkJoinTask<CountryResult> task : tasks) {
+                CountryResult result = pool != null ? task.join() : task.invoke();
+                processingErrors.addAll(result.errors);
+                if (processingErrors.hasFatal()) {
+                    // Stop if there's a fatal error, continue processing countries if there are
+                    // just errors.
+                    break;
+                } else if (result.countryOut == null) {
+                    continue;
+                }
+                countryZonesOut.addCountry(result.countryOut);
+            }
+        } finally {
+            if (pool != null) {
+                // Countries after a fatal error are not needed.
+                pool.shutdownNow();
             }
-            countryZonesOut.addCountry(countryOut);
+        }
+        if (countryCache != null) {
+            logInfo("Reused " + cacheHits.get() + " of " + countriesIn.size()
+                    + " countries from " + countryCache.getDirectory());
         }
         return timeZonesOut;
     }
 
-    private static TzLookupFile.Country processCountry(long offsetSampleTimeMillis,
+    private static TzLookupFile.Country processCountry(ZoneTimelineCache zoneTimelines,
+            long offsetSampleTimeMillis,
             long everUseUtcStartTimeMillis, CountryZonesFile.Country countryIn,
             List<String> zoneTabCountryTimeZoneIds,
             Errors processingErrors) {
@@ -239,7 +377,8 @@ public final class TzLookupGenerator {
             }
 
             // Each Country needs a default time zone ID (but we can guess in some cases).
-            String defaultTimeZoneId = determineCountryDefaultZoneId(countryIn, processingErrors);
+            String defaultTimeZoneId = determineCountryDefaultZoneId(
+                    zoneTimelines, countryIn, processingErrors);
             if (defaultTimeZoneId == null) {
                 // No point in continuing.
                 return null;
@@ -258,7 +397,7 @@ public final class TzLookupGenerator {
                 processingErrors.pushScope("validate country zone ids");
                 boolean errors = false;
                 for (String countryTimeZoneId : countryTimeZoneIds) {
-                    if (invalidTimeZoneId(countryTimeZoneId)) {
+                    if (invalidTimeZoneId(zoneTimelines, countryTimeZoneId)) {
                         processingErrors.addError("countryTimeZoneId=" + countryTimeZoneId
                                 + " is not a valid zone ID");
                         errors = true;
@@ -273,7 +412,8 @@ public final class TzLookupGenerator {
             }
 
             // Work out the hint for whether the country uses a zero offset from UTC.
-            boolean everUsesUtc = anyZonesUseUtc(countryTimeZoneIds, everUseUtcStartTimeMillis);
+            boolean everUsesUtc = anyZonesUseUtc(
+                    zoneTimelines, countryTimeZoneIds, everUseUtcStartTimeMillis);
 
             // Validate the country information against the equivalent information in zone.tab.
             processingErrors.pushScope("zone.tab comparison");
@@ -300,7 +440,7 @@ public final class TzLookupGenerator {
 
             // Calculate countryZoneUsage.
             CountryZoneUsage countryZoneUsage =
-                    calculateCountryZoneUsage(countryIn, processingErrors);
+                    calculateCountryZoneUsage(zoneTimelines, countryIn, processingErrors);
             if (countryZoneUsage == null) {
                 // No point in continuing with this country.
                 return null;
@@ -317,8 +457,8 @@ public final class TzLookupGenerator {
                                 + ", shownInPicker=" + timeZoneIn.getShownInPicker());
                 try {
                     // Validate the offset information in countryIn.
-                    validateNonDstOffset(offsetSampleTimeMillis, countryIn, timeZoneIn,
-                            processingErrors);
+                    validateNonDstOffset(zoneTimelines, offsetSampleTimeMillis, countryIn,
+                            timeZoneIn, processingErrors);
 
                     String timeZoneInId = timeZoneIn.getId();
                     boolean shownInPicker = timeZoneIn.getShownInPicker();
@@ -353,13 +493,13 @@ public final class TzLookupGenerator {
     /**
      * Determines the default zone ID for the country.
      */
-    private static String determineCountryDefaultZoneId(
+    private static String determineCountryDefaultZoneId(ZoneTimelineCache zoneTimelines,
             CountryZonesFile.Country countryIn, Errors processingErrorsOut) {
         List<CountryZonesFile.TimeZoneMapping> timeZonesIn = countryIn.getTimeZoneMappingsList();
         String defaultTimeZoneId;
         if (countryIn.hasDefaultTimeZoneId()) {
             defaultTimeZoneId = countryIn.getDefaultTimeZoneId();
-            if (invalidTimeZoneId(defaultTimeZoneId)) {
+            if (invalidTimeZoneId(zoneTimelines, defaultTimeZoneId)) {
                 processingErrorsOut.addError(
                         "Default time zone ID " + defaultTimeZoneId + " is not valid");
                 // No point in continuing.
@@ -380,15 +520,11 @@ public final class TzLookupGenerator {
     /**
      * Returns true if any of the zones use UTC after the time specified.
      */
-    private static boolean anyZonesUseUtc(List<String> timeZoneIds, long startTimeMillis) {
+    private static boolean anyZonesUseUtc(ZoneTimelineCache zoneTimelines,
+            List<String> timeZoneIds, long startTimeMillis) {
         for (String timeZoneId : timeZoneIds) {
-            BasicTimeZone timeZone = (BasicTimeZone) TimeZone.getTimeZone(timeZoneId);
-            TimeZoneRule[] rules = timeZone.getTimeZoneRules(startTimeMillis);
-            for (TimeZoneRule rule : rules) {
-                int utcOffset = rule.getRawOffset() + rule.getDSTSavings();
-                if (utcOffset == 0) {
-                    return true;
-                }
+            if (zoneTimelines.get(timeZoneId).usesTotalOffsetAfter(startTimeMillis, 0)) {
+                return true;
             }
         }
         return false;
@@ -425,12 +561,12 @@ public final class TzLookupGenerator {
         return calendar;
     }
 
-    private static boolean invalidTimeZoneId(String timeZoneId) {
-        TimeZone zone = TimeZone.getTimeZone(timeZoneId);
-        return !(zone instanceof BasicTimeZone) || zone.getID().equals(TimeZone.UNKNOWN_ZONE_ID);
+    private static boolean invalidTimeZoneId(ZoneTimelineCache zoneTimelines, String timeZoneId) {
+        return !zoneTimelines.get(timeZoneId).isValid();
     }
 
-    private static void validateNonDstOffset(long offsetSampleTimeMillis,
+    private static void validateNonDstOffset(ZoneTimelineCache zoneTimelines,
+            long offsetSampleTimeMillis,
             CountryZonesFile.Country country, CountryZonesFile.TimeZoneMapping timeZoneIn,
             Errors errors) {
         String utcOffsetString = timeZoneIn.getUtcOffset();
@@ -449,15 +585,14 @@ public final class TzLookupGenerator {
         }
 
         String timeZoneIdIn = timeZoneIn.getId();
-        if (invalidTimeZoneId(timeZoneIdIn)) {
+        if (invalidTimeZoneId(zoneTimelines, timeZoneIdIn)) {
             errors.addFatal("Time zone ID=" + timeZoneIdIn + " is not valid");
             return;
         }
 
         // Check the offset Android has matches what ICU thinks.
-        TimeZone timeZone = TimeZone.getTimeZone(timeZoneIdIn);
         int[] offsets = new int[2];
-        timeZone.getOffset(offsetSampleTimeMillis, false /* local */, offsets);
+        zoneTimelines.get(timeZoneIdIn).getOffset(offsetSampleTimeMillis, offsets);
         int actualOffsetMillis = offsets[0];
         if (actualOffsetMillis != utcOffsetMillis) {
             errors.addFatal("Offset mismatch: You will want to confirm the ordering for "
@@ -468,12 +603,12 @@ public final class TzLookupGenerator {
         }
     }
 
-    private static CountryZoneUsage calculateCountryZoneUsage(
+    private static CountryZoneUsage calculateCountryZoneUsage(ZoneTimelineCache zoneTimelines,
             CountryZonesFile.Country countryIn, Errors processingErrors) {
         processingErrors.pushScope("Building zone tree");
         try {
             CountryZoneTree countryZoneTree = CountryZoneTree.create(
-                    countryIn, ZONE_USAGE_CALCS_START, ZONE_USAGE_CALCS_END);
+                    countryIn, zoneTimelines, true /* compress */);
             List<String> countryIssues = countryZoneTree.validateNoPriorityClashes();
             if (!countryIssues.isEmpty()) {
                 processingErrors
@@ -20,7 +20,6 @@ import com.android.libcore.timezone.tzlookup.proto.CountryZonesFile.Country;
 import com.android.libcore.timezone.tzlookup.zonetree.ZoneOffsetPeriod.ZonePeriodsKey;
 import com.ibm.icu.text.TimeZoneNames;
 import com.ibm.icu.util.BasicTimeZone;
-import com.ibm.icu.util.TimeZone;
 import com.ibm.icu.util.ULocale;
 
 import java.io.FileWriter;
@@ -154,6 +153,16 @@ public final class CountryZoneTree {
      */
     public static CountryZoneTree create(
             Country country, Instant startInclusive, Instant endExclusive, boolean compress) {
+        return create(
+                country, new ZoneTimelineCache(startInclusive, endExclusive), compress);
+    }
+
+    /**
+     * Creates a tree for the time zones for a country over the range of time of the supplied
+     * cache, taking the zones' offsets from it.
+     */
+    public static CountryZoneTree create(
+            Country country, ZoneTimelineCache zoneTimelines, boolean compress) {
 
         // We use the US English names for detecting time zone name clashes.
         TimeZoneNames timeZoneNames = TimeZoneNames.getInstance(ULocale.US);
@@ -164,9 +173,8 @@ public final class CountryZoneTree {
         List<ZoneInfo> zoneInfos = new ArrayList<>();
         for (CountryZonesFile.TimeZoneMapping timeZoneMapping : timeZoneMappings) {
             int priority = timeZoneMapping.getPriority();
-            BasicTimeZone basicTimeZone = getBasicTimeZone(timeZoneMapping.getId());
-            ZoneInfo zoneInfo = ZoneInfo.create(
-                    timeZoneNames, basicTimeZone, priority, startInclusive, endExclusive);
+            ZoneTimeline timeline = getValidTimeline(zoneTimelines, timeZoneMapping.getId());
+            ZoneInfo zoneInfo = ZoneInfo.create(timeZoneNames, timeline, priority);
             zoneInfos.add(zoneInfo);
         }
 
@@ -175,7 +183,8 @@ public final class CountryZoneTree {
 
         // The algorithm constructs a tree. The root of the tree contains all ZoneInfos, and at each
         // node the ZoneInfos can be split into subsets.
-        return create(country.getIsoCode(), zoneInfos, startInclusive, endExclusive, compress);
+        return create(country.getIsoCode(), zoneInfos, zoneTimelines.getStartInstant(),
+                zoneTimelines.getEndInstant(), compress);
     }
 
     /**
@@ -619,20 +628,15 @@ public final class CountryZoneTree {
     }
 
     /**
-     * Returns an ICU {@link BasicTimeZone} with the specified ID or throws an exception if there
-     * isn't one.
+     * Returns the timeline of the ICU {@link BasicTimeZone} with the specified ID or throws an
+     * exception if there isn't one.
      */
-    private static BasicTimeZone getBasicTimeZone(String zoneId) {
-        TimeZone timeZone = TimeZone.getTimeZone(zoneId);
-        if (isInvalidZone(timeZone)) {
+    private static ZoneTimeline getValidTimeline(ZoneTimelineCache zoneTimelines, String zoneId) {
+        ZoneTimeline timeline = zoneTimelines.get(zoneId);
+        if (!timeline.isValid()) {
             throw new IllegalArgumentException(
-                    "Unknown or unexpected type for zone id: " + timeZone.getID());
+                    "Unknown or unexpected type for zone id: " + timeline.getZoneId());
         }
-        return (BasicTimeZone) timeZone;
-    }
-
-    private static boolean isInvalidZone(TimeZone timeZone) {
-        return !(timeZone instanceof BasicTimeZone)
-                || timeZone.getID().equals(TimeZone.UNKNOWN_ZONE_ID);
+        return timeline;
     }
 }
@@ -17,7 +17,6 @@ package com.android.libcore.timezone.tzlookup.zonetree;
 
 import com.ibm.icu.text.TimeZoneNames;
 import com.ibm.icu.util.BasicTimeZone;
-import com.ibm.icu.util.TimeZone;
 
 import java.time.Instant;
 import java.util.ArrayList;
@@ -42,13 +41,18 @@ final class ZoneInfo {
     /** The time zone ID. */
     private final String zoneId;
 
-    private ZoneInfo(String zoneId, int priority, List<ZoneOffsetPeriod> zoneOffsetPeriods) {
+    /** The canonical time zone ID, used to look up names. */
+    private final String canonicalZoneId;
+
+    private ZoneInfo(String zoneId, String canonicalZoneId, int priority,
+            List<ZoneOffsetPeriod> zoneOffsetPeriods) {
         if (priority < MIN_PRIORITY) {
             throw new IllegalArgumentException("priority must be >=" + MIN_PRIORITY);
         }
         this.zoneOffsetPeriods = zoneOffsetPeriods;
         this.priority = priority;
         this.zoneId = zoneId;
+        this.canonicalZoneId = canonicalZoneId;
     }
 
     /**
@@ -61,18 +65,22 @@ final class ZoneInfo {
      */
     public static ZoneInfo create(TimeZoneNames timeZoneNames, BasicTimeZone timeZone, int priority,
             Instant startInclusive, Instant endExclusive) {
-        List<ZoneOffsetPeriod> zoneOffsetPeriods = new ArrayList<>();
-
-        // Start off the zone key with an artificial entry at startInclusive.
-        Instant start = startInclusive;
-        do {
-            ZoneOffsetPeriod zoneOffsetPeriod =
-                    ZoneOffsetPeriod.create(timeZoneNames, timeZone, start, endExclusive);
-            zoneOffsetPeriods.add(zoneOffsetPeriod);
-            start = zoneOffsetPeriod.getEndInstant();
-        } while (start.isBefore(endExclusive));
+        return create(timeZoneNames,
+                ZoneTimeline.create(timeZone, startInclusive, endExclusive), priority);
+    }
 
-        return new ZoneInfo(timeZone.getID(), priority, zoneOffsetPeriods);
+    /**
+     * Creates a ZoneInfo with a {@link ZoneOffsetPeriod} for each period of the supplied
+     * timeline, which must be valid. The priority must be >= 1.
+     */
+    public static ZoneInfo create(
+            TimeZoneNames timeZoneNames, ZoneTimeline timeline, int priority) {
+        List<ZoneOffsetPeriod> zoneOffsetPeriods = new ArrayList<>();
+        for (int i = 0; i < timeline.getPeriodCount(); i++) {
+            zoneOffsetPeriods.add(ZoneOffsetPeriod.create(timeZoneNames, timeline, i));
+        }
+        return new ZoneInfo(timeline.getZoneId(), timeline.getCanonicalZoneId(), priority,
+                zoneOffsetPeriods);
     }
 
     /**
@@ -83,9 +91,8 @@ final class ZoneInfo {
     public static void splitZoneOffsetPeriodAtTime(
             TimeZoneNames timeZoneNames, ZoneInfo zoneInfo, int index, Instant partitionInstant) {
         ZoneOffsetPeriod oldZoneOffsetPeriod = zoneInfo.zoneOffsetPeriods.get(index);
-        BasicTimeZone timeZone = (BasicTimeZone) TimeZone.getTimeZone(zoneInfo.getZoneId());
-        ZoneOffsetPeriod[] newPeriods = ZoneOffsetPeriod.splitAtTime(
-                oldZoneOffsetPeriod, timeZoneNames, timeZone, partitionInstant);
+        ZoneOffsetPeriod[] newPeriods = ZoneOffsetPeriod.splitAtTime(oldZoneOffsetPeriod,
+                timeZoneNames, zoneInfo.canonicalZoneId, partitionInstant);
         zoneInfo.zoneOffsetPeriods.set(index, newPeriods[0]);
         zoneInfo.zoneOffsetPeriods.add(index + 1, newPeriods[1]);
     }
@@ -81,22 +81,47 @@ final class ZoneOffsetPeriod {
         return new ZoneOffsetPeriod(minTime, end, offsets[0], offsets[1], longName);
     }
 
+    /**
+     * Constructs an instance for the period with the specified index in a {@link ZoneTimeline}.
+     * Only the name is looked up in ICU.
+     */
+    public static ZoneOffsetPeriod create(
+            TimeZoneNames timeZoneNames, ZoneTimeline timeline, int index) {
+        Instant start = timeline.getPeriodStartInstant(index);
+        int dstOffsetMillis = timeline.getDstOffsetMillis(index);
+        String longName = getNameAtTime(timeZoneNames, timeline.getCanonicalZoneId(),
+                dstOffsetMillis, start.toEpochMilli());
+        return new ZoneOffsetPeriod(start, timeline.getPeriodEndInstant(index),
+                timeline.getRawOffsetMillis(index), dstOffsetMillis, longName);
+    }
+
 
     /** Splits a period in two at the specified instant, returning the generated periods. */
     public static ZoneOffsetPeriod[] splitAtTime(
             ZoneOffsetPeriod toSplit, TimeZoneNames timeZoneNames, BasicTimeZone timeZone,
             Instant partitionInstant) {
+        return splitAtTime(toSplit, timeZoneNames, TimeZone.getCanonicalID(timeZone.getID()),
+                partitionInstant);
+    }
+
+    /**
+     * Splits a period of the zone with the specified canonical ID in two at the specified
+     * instant, returning the generated periods.
+     */
+    public static ZoneOffsetPeriod[] splitAtTime(
+            ZoneOffsetPeriod toSplit, TimeZoneNames timeZoneNames, String canonicalZoneId,
+            Instant partitionInstant) {
         if (!partitionInstant.isAfter(toSplit.start)
                 || !partitionInstant.isBefore(toSplit.end)) {
             throw new IllegalArgumentException(partitionInstant + " is not between "
                     + toSplit.start + " and " + toSplit.end);
         }
         // Work out the name at the split so the name is always the name at the beginning of the
-        // zone offset period.
-        String nameAtSplit =
-                getNameAtTime(timeZoneNames, timeZone, partitionInstant.toEpochMilli());
+        // zone offset period. The offsets are the same throughout the period.
         int rawOffsetMillis = toSplit.rawOffsetMillis;
         int dstOffsetMillis = toSplit.dstOffsetMillis;
+        String nameAtSplit = getNameAtTime(timeZoneNames, canonicalZoneId, dstOffsetMillis,
+                partitionInstant.toEpochMilli());
         return new ZoneOffsetPeriod[] {
                 new ZoneOffsetPeriod(toSplit.start, partitionInstant, rawOffsetMillis,
                         dstOffsetMillis, toSplit.name),
@@ -206,7 +231,12 @@ final class ZoneOffsetPeriod {
         int[] offsets = new int[2];
         timeZone.getOffset(startMillis, false /* local */, offsets);
         String canonicalID = TimeZone.getCanonicalID(timeZone.getID());
-        TimeZoneNames.NameType longNameType = offsets[1] == 0
+        return getNameAtTime(timeZoneNames, canonicalID, offsets[1], startMillis);
+    }
+
+    private static String getNameAtTime(TimeZoneNames timeZoneNames, String canonicalID,
+            int dstOffsetMillis, long startMillis) {
+        TimeZoneNames.NameType longNameType = dstOffsetMillis == 0
                 ? TimeZoneNames.NameType.LONG_STANDARD : TimeZoneNames.NameType.LONG_DAYLIGHT;
         return timeZoneNames.getDisplayName(canonicalID, longNameType, startMillis);
     }
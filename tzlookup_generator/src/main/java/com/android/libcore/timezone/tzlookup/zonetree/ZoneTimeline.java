@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.libcore.timezone.tzlookup.zonetree;
+
+import com.ibm.icu.util.BasicTimeZone;
+import com.ibm.icu.util.TimeZone;
+import com.ibm.icu.util.TimeZoneTransition;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The offsets of an ICU time zone over a range of time, worked out with a single scan of the
+ * zone's transitions. The range is divided into periods, each running from one transition (or
+ * the start of the range) to the next (or the end of the range), with the same raw and DST
+ * offsets throughout.
+ *
+ * <p>Instances are immutable and can be shared between threads. See {@link ZoneTimelineCache}.
+ */
+public final class ZoneTimeline {
+
+    /** The ID of the ICU zone, which is {@link TimeZone#UNKNOWN_ZONE_ID} for unknown IDs. */
+    private final String zoneId;
+
+    /** The ICU zone, or {@code null} if it is not a valid {@link BasicTimeZone}. */
+    private final BasicTimeZone timeZone;
+
+    /** The canonical ID of the zone, used to look up its names. */
+    private final String canonicalZoneId;
+
+    /**
+     * The start of each period, in ascending order, followed by the end of the last period.
+     * Empty if the zone is not valid.
+     */
+    private final long[] periodBoundaryMillis;
+    private final int[] rawOffsetMillis;
+    private final int[] dstOffsetMillis;
+
+    private ZoneTimeline(String zoneId, BasicTimeZone timeZone, String canonicalZoneId,
+            long[] periodBoundaryMillis, int[] rawOffsetMillis, int[] dstOffsetMillis) {
+        this.zoneId = zoneId;
+        this.timeZone = timeZone;
+        this.canonicalZoneId = canonicalZoneId;
+        this.periodBoundaryMillis = periodBoundaryMillis;
+        this.rawOffsetMillis = rawOffsetMillis;
+        this.dstOffsetMillis = dstOffsetMillis;
+    }
+
+    /**
+     * Looks up the ICU zone with the specified ID and creates its timeline from startInclusive to
+     * endExclusive. If the ID is not that of a valid {@link BasicTimeZone} the result has no
+     * periods and {@link #isValid()} returns false.
+     */
+    public static ZoneTimeline create(
+            String zoneId, Instant startInclusive, Instant endExclusive) {
+        TimeZone timeZone = TimeZone.getTimeZone(zoneId);
+        if (!(timeZone instanceof BasicTimeZone)
+                || timeZone.getID().equals(TimeZone.UNKNOWN_ZONE_ID)) {
+            return new ZoneTimeline(timeZone.getID(), null /* timeZone */, null,
+                    new long[0], new int[0], new int[0]);
+        }
+        return create((BasicTimeZone) timeZone, startInclusive, endExclusive);
+    }
+
+    /**
+     * Creates the timeline of the specified zone from startInclusive to endExclusive.
+     */
+    public static ZoneTimeline create(
+            BasicTimeZone timeZone, Instant startInclusive, Instant endExclusive) {
+        if (!startInclusive.isBefore(endExclusive)) {
+            throw new IllegalArgumentException(
+                    startInclusive + " is not before " + endExclusive);
+        }
+        long endMillis = endExclusive.toEpochMilli();
+        List<Long> boundaries = new ArrayList<>();
+        List<Integer> rawOffsets = new ArrayList<>();
+        List<Integer> dstOffsets = new ArrayList<>();
+
+        long startMillis = startInclusive.toEpochMilli();
+        int[] offsets = new int[2];
+        timeZone.getOffset(startMillis, false /* local */, offsets);
+        boundaries.add(startMillis);
+        rawOffsets.add(offsets[0]);
+        dstOffsets.add(offsets[1]);
+
+        // A period ends at the first transition after its start, so that a transition at the
+        // very start of the range does not create an empty period.
+        TimeZoneTransition transition =
+                timeZone.getNextTransition(startMillis, false /* inclusive */);
+        while (transition != null && transition.getTime() < endMillis) {
+            boundaries.add(transition.getTime());
+            rawOffsets.add(transition.getTo().getRawOffset());
+            dstOffsets.add(transition.getTo().getDSTSavings());
+            transition = timeZone.getNextTransition(transition.getTime(), false /* inclusive */);
+        }
+        boundaries.add(endMillis);
+
+        return new ZoneTimeline(timeZone.getID(), timeZone,
+                TimeZone.getCanonicalID(timeZone.getID()),
+                boundaries.stream().mapToLong(Long::longValue).toArray(),
+                rawOffsets.stream().mapToInt(Integer::intValue).toArray(),
+                dstOffsets.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /** Returns the ID of the ICU zone. */
+    public String getZoneId() {
+        return zoneId;
+    }
+
+    /**
+     * Returns true if the ID was that of a known {@link BasicTimeZone}. Only valid zones have
+     * periods.
+     */
+    public boolean isValid() {
+        return timeZone != null;
+    }
+
+    /** Returns the canonical ID of the zone, as used for looking up its names. */
+    public String getCanonicalZoneId() {
+        checkValid();
+        return canonicalZoneId;
+    }
+
+    public int getPeriodCount() {
+        return rawOffsetMillis.length;
+    }
+
+    public Instant getPeriodStartInstant(int index) {
+        checkIndex(index);
+        return Instant.ofEpochMilli(periodBoundaryMillis[index]);
+    }
+
+    public Instant getPeriodEndInstant(int index) {
+        checkIndex(index);
+        return Instant.ofEpochMilli(periodBoundaryMillis[index + 1]);
+    }
+
+    public int getRawOffsetMillis(int index) {
+        checkIndex(index);
+        return rawOffsetMillis[index];
+    }
+
+    public int getDstOffsetMillis(int index) {
+        checkIndex(index);
+        return dstOffsetMillis[index];
+    }
+
+    /**
+     * Fills in the raw and DST offsets in effect at the specified time, as
+     * {@link TimeZone#getOffset(long, boolean, int[])} does for UTC times. Times outside the
+     * range of the timeline are passed to ICU.
+     */
+    public void getOffset(long timeMillis, int[] offsets) {
+        checkValid();
+        int index = Arrays.binarySearch(periodBoundaryMillis, timeMillis);
+        if (index < 0) {
+            // The insertion point is after the start of the period containing timeMillis.
+            index = -index - 2;
+        }
+        if (index < 0 || index >= getPeriodCount()) {
+            // Zone objects are not guaranteed to be safe for concurrent use.
+            synchronized (timeZone) {
+                timeZone.getOffset(timeMillis, false /* local */, offsets);
+            }
+            return;
+        }
+        offsets[0] = rawOffsetMillis[index];
+        offsets[1] = dstOffsetMillis[index];
+    }
+
+    /**
+     * Returns true if the total offset from UTC of the zone is the specified offset at any time
+     * from startMillis to the end of the timeline.
+     */
+    public boolean usesTotalOffsetAfter(long startMillis, int totalOffsetMillis) {
+        checkValid();
+        for (int i = 0; i < getPeriodCount(); i++) {
+            if (periodBoundaryMillis[i + 1] > startMillis
+                    && rawOffsetMillis[i] + dstOffsetMillis[i] == totalOffsetMillis) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void checkValid() {
+        if (!isValid()) {
+            throw new IllegalStateException("Not a valid zone: " + zoneId);
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= getPeriodCount()) {
+            throw new IndexOutOfBoundsException(
+                    "index=" + index + ", periodCount=" + getPeriodCount());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ZoneTimeline{" +
+                "zoneId=" + zoneId +
+                ", periodCount=" + getPeriodCount() +
+                '}';
+    }
+}
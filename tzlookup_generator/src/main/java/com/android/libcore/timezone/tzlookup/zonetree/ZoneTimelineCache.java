@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.libcore.timezone.tzlookup.zonetree;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the {@link ZoneTimeline} of each zone that has been asked for, all over the same range
+ * of time, so that each ICU zone is looked up and scanned once however many times it is used.
+ * It is safe for concurrent use.
+ */
+public final class ZoneTimelineCache {
+
+    private final Instant startInclusive;
+    private final Instant endExclusive;
+    private final Map<String, ZoneTimeline> timelines = new ConcurrentHashMap<>();
+
+    public ZoneTimelineCache(Instant startInclusive, Instant endExclusive) {
+        if (!startInclusive.isBefore(endExclusive)) {
+            throw new IllegalArgumentException(
+                    startInclusive + " is not before " + endExclusive);
+        }
+        this.startInclusive = startInclusive;
+        this.endExclusive = endExclusive;
+    }
+
+    /**
+     * Returns the timeline for the specified zone ID, creating it on first use. The result may
+     * not be valid; see {@link ZoneTimeline#isValid()}.
+     */
+    public ZoneTimeline get(String zoneId) {
+        return timelines.computeIfAbsent(
+                zoneId, id -> ZoneTimeline.create(id, startInclusive, endExclusive));
+    }
+
+    public Instant getStartInstant() {
+        return startInclusive;
+    }
+
+    public Instant getEndInstant() {
+        return endExclusive;
+    }
+}
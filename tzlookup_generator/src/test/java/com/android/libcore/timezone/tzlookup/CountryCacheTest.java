@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.libcore.timezone.tzlookup;
+
+import com.android.libcore.timezone.tzlookup.proto.CountryZonesFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CountryCacheTest {
+
+    private static final Instant WINDOW_START = Instant.EPOCH;
+    private static final Instant WINDOW_END = Instant.ofEpochSecond(Integer.MAX_VALUE);
+
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("CountryCacheTest");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestUtils.deleteDir(tempDir);
+    }
+
+    @Test
+    public void putAndGet() throws Exception {
+        CountryCache cache = new CountryCache(tempDir, "2019b", WINDOW_START, WINDOW_END);
+        String key = cache.createKey(createCountryUs(), createZoneTabIdsUs());
+        assertNull(cache.get("us", key));
+
+        TzLookupFile.Country country =
+                new TzLookupFile.Country("us", "America/New_York", false /* everUsesUtc */);
+        country.addTimeZoneIdentifier(new TzLookupFile.TimeZoneMapping(
+                "America/New_York", true /* showInPicker */, null /* notUsedAfterInclusive */));
+        country.addTimeZoneIdentifier(new TzLookupFile.TimeZoneMapping(
+                "America/Detroit", false /* showInPicker */, Instant.ofEpochMilli(167814000000L)));
+        cache.put(key, country);
+
+        TzLookupFile.Country cached = cache.get("us", key);
+        assertEquals("us", cached.getIsoCode());
+        assertEquals("America/New_York", cached.getDefaultTimeZoneId());
+        assertFalse(cached.getEverUsesUtc());
+        List<TzLookupFile.TimeZoneMapping> mappings = cached.getTimeZoneMappings();
+        assertEquals(2, mappings.size());
+        assertEquals("America/New_York", mappings.get(0).getOlsonId());
+        assertTrue(mappings.get(0).getShowInPicker());
+        assertNull(mappings.get(0).getNotUsedAfterInclusive());
+        assertEquals("America/Detroit", mappings.get(1).getOlsonId());
+        assertFalse(mappings.get(1).getShowInPicker());
+        assertEquals(Instant.ofEpochMilli(167814000000L),
+                mappings.get(1).getNotUsedAfterInclusive());
+
+        // An entry for different input must not be returned.
+        String otherKey =
+                cache.createKey(createCountryUs(), Collections.singletonList("America/New_York"));
+        assertNull(cache.get("us", otherKey));
+    }
+
+    @Test
+    public void keyChangesWithInput() throws Exception {
+        CountryCache cache = new CountryCache(tempDir, "2019b", WINDOW_START, WINDOW_END);
+        CountryZonesFile.Country country = createCountryUs();
+        String key = cache.createKey(country, createZoneTabIdsUs());
+        assertEquals(key, cache.createKey(createCountryUs(), createZoneTabIdsUs()));
+
+        CountryZonesFile.Country changedCountry = country.toBuilder()
+                .setDefaultTimeZoneId("America/Chicago")
+                .build();
+        assertNotEquals(key, cache.createKey(changedCountry, createZoneTabIdsUs()));
+        assertNotEquals(key,
+                cache.createKey(country, Collections.singletonList("America/New_York")));
+
+        CountryCache otherVersionCache =
+                new CountryCache(tempDir, "2019c", WINDOW_START, WINDOW_END);
+        assertNotEquals(key, otherVersionCache.createKey(country, createZoneTabIdsUs()));
+
+        CountryCache otherWindowCache =
+                new CountryCache(tempDir, "2019b", WINDOW_START, WINDOW_END.plusSeconds(1));
+        assertNotEquals(key, otherWindowCache.createKey(country, createZoneTabIdsUs()));
+    }
+
+    @Test
+    public void corruptEntryIgnored() throws Exception {
+        CountryCache cache = new CountryCache(tempDir, "2019b", WINDOW_START, WINDOW_END);
+        String key = cache.createKey(createCountryUs(), createZoneTabIdsUs());
+        Files.write(tempDir.resolve("us.txt"),
+                Arrays.asList("key=" + key, "country=us America/New_York", "id=America/Detroit"),
+                StandardCharsets.UTF_8);
+        assertNull(cache.get("us", key));
+    }
+
+    private static CountryZonesFile.Country createCountryUs() {
+        return CountryZonesFile.Country.newBuilder()
+                .setIsoCode("us")
+                .setDefaultTimeZoneId("America/New_York")
+                .addTimeZoneMappings(CountryZonesFile.TimeZoneMapping.newBuilder()
+                        .setUtcOffset("-5:00")
+                        .setId("America/New_York"))
+                .addTimeZoneMappings(CountryZonesFile.TimeZoneMapping.newBuilder()
+                        .setUtcOffset("-5:00")
+                        .setId("America/Detroit"))
+                .build();
+    }
+
+    private static List<String> createZoneTabIdsUs() {
+        return Arrays.asList("America/New_York", "America/Detroit");
+    }
+}
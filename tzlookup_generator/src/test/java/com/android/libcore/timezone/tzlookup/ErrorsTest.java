@@ -114,4 +114,30 @@ public class ErrorsTest {
         TestUtils.assertContains(line4, "Fjords");
     }
 
+    @Test
+    public void child() {
+        Errors errors = new Errors();
+        errors.pushScope("Monty Python");
+        errors.addWarning("John Cleese");
+
+        Errors child = errors.createChild();
+        assertTrue(child.isEmpty());
+        child.pushScope("Holy grail");
+        child.addError("Silly place");
+        child.popScope();
+        child.addWarning("Michael Palin");
+
+        // Nothing is added until the child is merged.
+        assertFalse(errors.hasError());
+        errors.addAll(child);
+        assertTrue(errors.hasError());
+        assertFalse(errors.hasFatal());
+
+        String[] lines = errors.asString().split("\n");
+        TestUtils.assertContains(lines[0], "Monty Python", "John Cleese");
+        TestUtils.assertContains(lines[1], "Monty Python", "Holy grail", "Silly place");
+        TestUtils.assertContains(lines[2], "Monty Python", "Michael Palin");
+        TestUtils.assertAbsent(lines[2], "Holy grail");
+    }
+
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.libcore.timezone.tzlookup;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TzLookupBinaryFileTest {
+
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("TzLookupBinaryFileTest");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestUtils.deleteDir(tempDir);
+    }
+
+    @Test
+    public void writeAndRead() throws Exception {
+        TzLookupFile.TimeZones timeZones = createTimeZones(167814000000L);
+        Path file = write(timeZones);
+
+        TzLookupBinaryFile binaryFile = TzLookupBinaryFile.open(file);
+        assertEquals("2019b", binaryFile.getIanaVersion());
+        assertEquals(3, binaryFile.getCountryCount());
+        for (TzLookupFile.Country country : timeZones.getCountries()) {
+            assertEquals(country, binaryFile.findCountry(country.getIsoCode()));
+        }
+        assertNull(binaryFile.findCountry("aa"));
+        assertNull(binaryFile.findCountry("gg"));
+        assertNull(binaryFile.findCountry("zz"));
+        assertTrue(binaryFile.findDifferences(timeZones).isEmpty());
+    }
+
+    @Test
+    public void negativeNotUsedAfter() throws Exception {
+        TzLookupFile.TimeZones timeZones = createTimeZones(-1L);
+        TzLookupBinaryFile binaryFile = TzLookupBinaryFile.open(write(timeZones));
+        assertTrue(binaryFile.findDifferences(timeZones).isEmpty());
+    }
+
+    @Test
+    public void findDifferences() throws Exception {
+        TzLookupBinaryFile binaryFile = TzLookupBinaryFile.open(write(createTimeZones(1000L)));
+
+        List<String> differences = binaryFile.findDifferences(createTimeZones(2000L));
+        assertEquals(1, differences.size());
+        TestUtils.assertContains(differences.get(0), "isoCode='us'");
+
+        TzLookupFile.TimeZones fewerCountries = new TzLookupFile.TimeZones("2019c");
+        fewerCountries.setCountryZones(new TzLookupFile.CountryZones());
+        differences = binaryFile.findDifferences(fewerCountries);
+        assertEquals(2, differences.size());
+        TestUtils.assertContains(differences.get(0), "2019b", "2019c");
+        TestUtils.assertContains(differences.get(1), "3 countries");
+    }
+
+    @Test
+    public void badFile() throws Exception {
+        Path file = write(createTimeZones(1000L));
+        byte[] bytes = Files.readAllBytes(file);
+
+        // Wrong magic.
+        byte[] badMagic = bytes.clone();
+        badMagic[0] = 'x';
+        assertBad(badMagic);
+
+        // Truncated, so the country records run past the end of the file.
+        byte[] truncated = new byte[bytes.length - 1];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        assertBad(truncated);
+    }
+
+    private void assertBad(byte[] bytes) throws IOException {
+        Path file = Files.createTempFile(tempDir, "bad", ".bin");
+        Files.write(file, bytes);
+        try {
+            TzLookupBinaryFile.open(file);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    private Path write(TzLookupFile.TimeZones timeZones) throws IOException {
+        Path file = Files.createTempFile(tempDir, "tzlookup", ".bin");
+        TzLookupBinaryFile.write(timeZones, file.toString());
+        return file;
+    }
+
+    /** Creates countries that are not in ISO code order, as the index must sort them. */
+    private static TzLookupFile.TimeZones createTimeZones(long detroitNotUsedAfterMillis) {
+        TzLookupFile.CountryZones countryZones = new TzLookupFile.CountryZones();
+        TzLookupFile.Country us =
+                new TzLookupFile.Country("us", "America/New_York", false /* everUsesUtc */);
+        us.addTimeZoneIdentifier(new TzLookupFile.TimeZoneMapping(
+                "America/New_York", true /* showInPicker */, null /* notUsedAfterInclusive */));
+        us.addTimeZoneIdentifier(new TzLookupFile.TimeZoneMapping("America/Detroit",
+                false /* showInPicker */, Instant.ofEpochMilli(detroitNotUsedAfterMillis)));
+        countryZones.addCountry(us);
+        TzLookupFile.Country gb =
+                new TzLookupFile.Country("gb", "Europe/London", true /* everUsesUtc */);
+        gb.addTimeZoneIdentifier(new TzLookupFile.TimeZoneMapping(
+                "Europe/London", true /* showInPicker */, null /* notUsedAfterInclusive */));
+        countryZones.addCountry(gb);
+        TzLookupFile.Country fr =
+                new TzLookupFile.Country("fr", "Europe/Paris", false /* everUsesUtc */);
+        fr.addTimeZoneIdentifier(new TzLookupFile.TimeZoneMapping(
+                "Europe/Paris", true /* showInPicker */, null /* notUsedAfterInclusive */));
+        countryZones.addCountry(fr);
+        TzLookupFile.TimeZones timeZones = new TzLookupFile.TimeZones("2019b");
+        timeZones.setCountryZones(countryZones);
+        return timeZones;
+    }
+}
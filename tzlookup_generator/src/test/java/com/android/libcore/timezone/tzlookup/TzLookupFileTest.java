@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.libcore.timezone.tzlookup;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static org.junit.Assert.assertEquals;
+
+public class TzLookupFileTest {
+
+    private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><!--\n"
+            + "\n"
+            + " **** Autogenerated file - DO NOT EDIT ****\n"
+            + "\n"
+            + "-->";
+
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("TzLookupFileTest");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestUtils.deleteDir(tempDir);
+    }
+
+    @Test
+    public void write() throws Exception {
+        TzLookupFile.CountryZones countryZones = new TzLookupFile.CountryZones();
+        TzLookupFile.Country gb =
+                new TzLookupFile.Country("gb", "Europe/London", true /* everUsesUtc */);
+        gb.addTimeZoneIdentifier(new TzLookupFile.TimeZoneMapping(
+                "Europe/London", true /* showInPicker */, null /* notUsedAfterInclusive */));
+        countryZones.addCountry(gb);
+        TzLookupFile.Country us =
+                new TzLookupFile.Country("us", "America/New_York", false /* everUsesUtc */);
+        us.addTimeZoneIdentifier(new TzLookupFile.TimeZoneMapping(
+                "America/New_York", true /* showInPicker */, null /* notUsedAfterInclusive */));
+        us.addTimeZoneIdentifier(new TzLookupFile.TimeZoneMapping(
+                "America/Detroit", false /* showInPicker */, Instant.ofEpochMilli(167814000000L)));
+        countryZones.addCountry(us);
+        TzLookupFile.TimeZones timeZones = new TzLookupFile.TimeZones("2019b");
+        timeZones.setCountryZones(countryZones);
+
+        String expected = HEADER + "<timezones ianaversion=\"2019b\">\n"
+                + " <countryzones>\n"
+                + "  <country code=\"gb\" default=\"Europe/London\" everutc=\"y\">\n"
+                + "   <id>Europe/London</id>\n"
+                + "  </country>\n"
+                + "  <country code=\"us\" default=\"America/New_York\" everutc=\"n\">\n"
+                + "   <id>America/New_York</id>\n"
+                + "   <id picker=\"n\" notafter=\"167814000000\">America/Detroit</id>\n"
+                + "  </country>\n"
+                + " </countryzones>\n"
+                + "</timezones>\n";
+        assertEquals(expected, write(timeZones));
+    }
+
+    @Test
+    public void write_emptyElementsAndEscaping() throws Exception {
+        TzLookupFile.CountryZones countryZones = new TzLookupFile.CountryZones();
+        countryZones.addCountry(
+                new TzLookupFile.Country("xx", "A&B<C>\"D\"", false /* everUsesUtc */));
+        TzLookupFile.TimeZones timeZones = new TzLookupFile.TimeZones("2019b");
+        timeZones.setCountryZones(countryZones);
+
+        String expected = HEADER + "<timezones ianaversion=\"2019b\">\n"
+                + " <countryzones>\n"
+                + "  <country code=\"xx\" default=\"A&amp;B&lt;C&gt;&quot;D&quot;\""
+                + " everutc=\"n\"/>\n"
+                + " </countryzones>\n"
+                + "</timezones>\n";
+        assertEquals(expected, write(timeZones));
+
+        timeZones.setCountryZones(new TzLookupFile.CountryZones());
+        expected = HEADER + "<timezones ianaversion=\"2019b\">\n"
+                + " <countryzones/>\n"
+                + "</timezones>\n";
+        assertEquals(expected, write(timeZones));
+    }
+
+    @Test
+    public void read() throws Exception {
+        TzLookupFile.CountryZones countryZones = new TzLookupFile.CountryZones();
+        TzLookupFile.Country us =
+                new TzLookupFile.Country("us", "America/New_York", false /* everUsesUtc */);
+        us.addTimeZoneIdentifier(new TzLookupFile.TimeZoneMapping(
+                "America/New_York", true /* showInPicker */, null /* notUsedAfterInclusive */));
+        us.addTimeZoneIdentifier(new TzLookupFile.TimeZoneMapping(
+                "America/Detroit", false /* showInPicker */, Instant.ofEpochMilli(167814000000L)));
+        countryZones.addCountry(us);
+        countryZones.addCountry(
+                new TzLookupFile.Country("xx", "A&B<C>\"D\"", true /* everUsesUtc */));
+        TzLookupFile.TimeZones timeZones = new TzLookupFile.TimeZones("2019b");
+        timeZones.setCountryZones(countryZones);
+
+        Path outputFile = Files.createTempFile(tempDir, "out", null /* suffix */);
+        TzLookupFile.write(timeZones, outputFile.toString());
+        TzLookupFile.TimeZones read = TzLookupFile.read(outputFile.toString());
+        assertEquals("2019b", read.getIanaVersion());
+        assertEquals(timeZones.getCountries(), read.getCountries());
+    }
+
+    private String write(TzLookupFile.TimeZones timeZones) throws Exception {
+        Path outputFile = Files.createTempFile(tempDir, "out", null /* suffix */);
+        TzLookupFile.write(timeZones, outputFile.toString());
+        return new String(Files.readAllBytes(outputFile), StandardCharsets.UTF_8);
+    }
+}
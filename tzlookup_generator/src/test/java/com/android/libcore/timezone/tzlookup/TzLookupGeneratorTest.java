@@ -464,6 +464,88 @@ public class TzLookupGeneratorTest {
         }
     }
 
+    @Test
+    public void parallelMatchesSequential() throws Exception {
+        CountryZonesFile.CountryZones countryZones = createValidCountryZones(
+                createValidCountryGb(), createValidCountryUs(), createValidCountryFr());
+        String countryZonesFile = createCountryZonesFile(countryZones);
+        String zoneTabFile = createZoneTabFile(createValidZoneTabEntriesGb(),
+                createValidZoneTabEntriesUs(), createValidZoneTabEntriesFr());
+
+        String sequentialOutputFile =
+                Files.createTempFile(tempDir, "out", null /* suffix */).toString();
+        assertTrue(new TzLookupGenerator(countryZonesFile, zoneTabFile, sequentialOutputFile,
+                1 /* threads */).execute());
+        String parallelOutputFile =
+                Files.createTempFile(tempDir, "out", null /* suffix */).toString();
+        assertTrue(new TzLookupGenerator(countryZonesFile, zoneTabFile, parallelOutputFile,
+                4 /* threads */).execute());
+
+        // Countries are written in input order whatever order they were processed in.
+        String parallelXml = readFileToString(Paths.get(parallelOutputFile));
+        assertEquals(readFileToString(Paths.get(sequentialOutputFile)), parallelXml);
+        assertTrue(parallelXml.indexOf("code=\"gb\"") < parallelXml.indexOf("code=\"us\""));
+        assertTrue(parallelXml.indexOf("code=\"us\"") < parallelXml.indexOf("code=\"fr\""));
+    }
+
+    @Test
+    public void cacheMatchesUncached() throws Exception {
+        String zoneTabFile = createZoneTabFile(createValidZoneTabEntriesGb(),
+                createValidZoneTabEntriesUs(), createValidZoneTabEntriesFr());
+        String countryZonesFile = createCountryZonesFile(createValidCountryZones(
+                createValidCountryGb(), createValidCountryUs(), createValidCountryFr()));
+        String cacheDir = tempDir.resolve("cache").toString();
+
+        String uncachedOutputFile =
+                Files.createTempFile(tempDir, "out", null /* suffix */).toString();
+        assertTrue(new TzLookupGenerator(countryZonesFile, zoneTabFile, uncachedOutputFile)
+                .execute());
+        String expectedXml = readFileToString(Paths.get(uncachedOutputFile));
+
+        // The first run fills the cache and the second takes every country from it.
+        for (int i = 0; i < 2; i++) {
+            String cachedOutputFile =
+                    Files.createTempFile(tempDir, "out", null /* suffix */).toString();
+            assertTrue(new TzLookupGenerator(countryZonesFile, zoneTabFile, cachedOutputFile,
+                    1 /* threads */, cacheDir).execute());
+            assertEquals(expectedXml, readFileToString(Paths.get(cachedOutputFile)));
+        }
+
+        // A changed country is recomputed, the others are unchanged.
+        Country frWithoutPicker = createValidCountryFr().toBuilder()
+                .setTimeZoneMappings(0, createValidCountryFr().getTimeZoneMappings(0).toBuilder()
+                        .setShownInPicker(false))
+                .build();
+        String changedCountryZonesFile = createCountryZonesFile(createValidCountryZones(
+                createValidCountryGb(), createValidCountryUs(), frWithoutPicker));
+        String cachedOutputFile =
+                Files.createTempFile(tempDir, "out", null /* suffix */).toString();
+        assertTrue(new TzLookupGenerator(changedCountryZonesFile, zoneTabFile, cachedOutputFile,
+                1 /* threads */, cacheDir).execute());
+        String changedXml = readFileToString(Paths.get(cachedOutputFile));
+        assertContains(changedXml, "<id picker=\"n\">Europe/Paris</id>");
+        assertEquals(expectedXml.replace("<id>Europe/Paris</id>",
+                "<id picker=\"n\">Europe/Paris</id>"), changedXml);
+    }
+
+    @Test
+    public void binaryOutput() throws Exception {
+        String countryZonesFile = createCountryZonesFile(createValidCountryZones(
+                createValidCountryGb(), createValidCountryUs(), createValidCountryFr()));
+        String zoneTabFile = createZoneTabFile(createValidZoneTabEntriesGb(),
+                createValidZoneTabEntriesUs(), createValidZoneTabEntriesFr());
+        String outputFile = Files.createTempFile(tempDir, "out", null /* suffix */).toString();
+        String binaryOutputFile = tempDir.resolve("tzlookup.bin").toString();
+        assertTrue(new TzLookupGenerator(countryZonesFile, zoneTabFile, outputFile,
+                1 /* threads */, null /* cacheDir */, binaryOutputFile).execute());
+
+        TzLookupFile.TimeZones xmlTimeZones = TzLookupFile.read(outputFile);
+        TzLookupBinaryFile binaryFile = TzLookupBinaryFile.open(Paths.get(binaryOutputFile));
+        assertEquals(3, binaryFile.getCountryCount());
+        assertTrue(binaryFile.findDifferences(xmlTimeZones).isEmpty());
+        assertEquals(xmlTimeZones.getCountries().get(1), binaryFile.findCountry("us"));
+    }
+
     private String generateTzLookupXml(CountryZonesFile.Country country,
             List<ZoneTabFile.CountryEntry> zoneTabEntries) throws Exception {
 
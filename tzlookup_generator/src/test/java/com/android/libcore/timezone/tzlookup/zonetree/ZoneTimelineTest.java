@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.libcore.timezone.tzlookup.zonetree;
+
+import com.ibm.icu.text.TimeZoneNames;
+import com.ibm.icu.util.BasicTimeZone;
+import com.ibm.icu.util.TimeZone;
+import com.ibm.icu.util.ULocale;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ZoneTimelineTest {
+
+    private static final Instant START = Instant.ofEpochSecond(152092800L); /* 1974-10-27 */
+    private static final Instant END = Instant.ofEpochSecond(631152000L); /* 1990-01-01 */
+
+    @Test
+    public void periodsMatchZoneOffsetPeriods() {
+        TimeZoneNames timeZoneNames = TimeZoneNames.getInstance(ULocale.ENGLISH);
+        BasicTimeZone denverTz = (BasicTimeZone) TimeZone.getTimeZone("America/Denver");
+        ZoneTimeline timeline = ZoneTimeline.create(denverTz, START, END);
+        assertTrue(timeline.isValid());
+
+        // The timeline periods must be the same as the ones found by walking the zone.
+        Instant start = START;
+        int index = 0;
+        do {
+            ZoneOffsetPeriod expected =
+                    ZoneOffsetPeriod.create(timeZoneNames, denverTz, start, END);
+            assertEquals(expected, ZoneOffsetPeriod.create(timeZoneNames, timeline, index));
+            start = expected.getEndInstant();
+            index++;
+        } while (start.isBefore(END));
+        assertEquals(index, timeline.getPeriodCount());
+        assertEquals(END, timeline.getPeriodEndInstant(index - 1));
+    }
+
+    @Test
+    public void getOffset() {
+        BasicTimeZone denverTz = (BasicTimeZone) TimeZone.getTimeZone("America/Denver");
+        ZoneTimeline timeline = ZoneTimeline.create("America/Denver", START, END);
+
+        // Sample every 11 days, plus times outside the timeline.
+        Instant sampleEnd = END.plus(400, ChronoUnit.DAYS);
+        for (Instant sample = START.minus(400, ChronoUnit.DAYS); sample.isBefore(sampleEnd);
+                sample = sample.plus(11, ChronoUnit.DAYS)) {
+            int[] expected = new int[2];
+            denverTz.getOffset(sample.toEpochMilli(), false /* local */, expected);
+            int[] actual = new int[2];
+            timeline.getOffset(sample.toEpochMilli(), actual);
+            assertArrayEquals(sample.toString(), expected, actual);
+        }
+    }
+
+    @Test
+    public void invalidZone() {
+        ZoneTimeline timeline = ZoneTimeline.create("Moon/Tranquility_Base", START, END);
+        assertFalse(timeline.isValid());
+        assertEquals(0, timeline.getPeriodCount());
+    }
+
+    @Test
+    public void usesTotalOffsetAfter() {
+        ZoneTimeline london = ZoneTimeline.create("Europe/London", START, END);
+        ZoneTimeline paris = ZoneTimeline.create("Europe/Paris", START, END);
+        long startMillis = START.toEpochMilli();
+        assertTrue(london.usesTotalOffsetAfter(startMillis, 0));
+        assertFalse(paris.usesTotalOffsetAfter(startMillis, 0));
+        assertTrue(paris.usesTotalOffsetAfter(startMillis, 7200000));
+
+        // London has used +01:00 in the summer since 1972, but not from the last autumn change
+        // before the end.
+        long lastChangeMillis = london.getPeriodStartInstant(london.getPeriodCount() - 1)
+                .toEpochMilli();
+        assertFalse(london.usesTotalOffsetAfter(lastChangeMillis, 3600000));
+    }
+
+    @Test
+    public void cacheReusesTimelines() {
+        ZoneTimelineCache cache = new ZoneTimelineCache(START, END);
+        ZoneTimeline timeline = cache.get("Europe/London");
+        assertSame(timeline, cache.get("Europe/London"));
+        assertEquals(START, timeline.getPeriodStartInstant(0));
+        assertEquals(END, timeline.getPeriodEndInstant(timeline.getPeriodCount() - 1));
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Builds the checksums section, which lets a reader check the integrity of a tzdata file in one
+// pass without parsing any zones.
+//
+// The section has the form:
+//
+// int index_crc -- the checksum of the index, or of the name dictionary and then the alias
+//     sections for a file with a compact index
+// int zonetab_crc -- the checksum of the zone.tab section
+// int[n] payload_crcs -- the checksum of the payload of each index slot
+//
+// where n is the number of index entries. Checksums are CRC-32 (as used by zlib) and cover the
+// uncompressed bytes, so a block-compressed variant has the same section as the file it was made
+// from.
+class Checksums {
+  static int checksum(ByteBuffer buffer) {
+    CRC32 crc = new CRC32();
+    crc.update(buffer.duplicate());
+    return (int) crc.getValue();
+  }
+
+  // Returns the section for 'zoneTab' and the index, which is the concatenation of 'index',
+  // given the checksum of the payload of each index slot.
+  static ByteBuffer build(List<ByteBuffer> index, byte[] zoneTab, int[] payloadChecksums) {
+    CRC32 indexCrc = new CRC32();
+    for (ByteBuffer buffer : index) {
+      indexCrc.update(buffer.duplicate());
+    }
+    ByteBuffer section = ByteBuffer.allocate(4 + 4 + 4 * payloadChecksums.length);
+    section.putInt((int) indexCrc.getValue());
+    section.putInt(checksum(ByteBuffer.wrap(zoneTab)));
+    for (int payloadChecksum : payloadChecksums) {
+      section.putInt(payloadChecksum);
+    }
+    section.flip();
+    return section;
+  }
+}
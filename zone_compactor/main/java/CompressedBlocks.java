@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Compresses the data section of a tzdata file in independent blocks, for the block-compressed
+// variant of the file.
+//
+// Each block holds whole zone payloads, so a zone can be read by inflating the one block that
+// contains it. The index of the variant is the same as that of the uncompressed file: its offsets
+// and lengths are positions in the uncompressed data section. The blocks are stored back to back
+// in place of the data section, and the 'zblk' section maps between the two:
+//
+// int block_count
+// block_count * {
+//   int uncompressed_offset -- in the uncompressed data section, ascending
+//   int uncompressed_length
+//   int compressed_offset -- from data_offset
+//   int compressed_length
+// }
+//
+// Each block is a zlib stream (RFC 1950).
+class CompressedBlocks {
+  final List<byte[]> blocks = new ArrayList<byte[]>();
+  final ByteBuffer section;
+  final int compressedLength;
+
+  private CompressedBlocks(List<int[]> ranges, List<byte[]> blocks) {
+    this.blocks.addAll(blocks);
+    section = ByteBuffer.allocate(4 + 16 * ranges.size());
+    section.putInt(ranges.size());
+    int compressedOffset = 0;
+    for (int i = 0; i < ranges.size(); ++i) {
+      section.putInt(ranges.get(i)[0]);
+      section.putInt(ranges.get(i)[1]);
+      section.putInt(compressedOffset);
+      section.putInt(blocks.get(i).length);
+      compressedOffset += blocks.get(i).length;
+    }
+    section.flip();
+    compressedLength = compressedOffset;
+  }
+
+  // Compresses 'data', the uncompressed data section. 'payloadEnds' are the offsets in 'data' at
+  // which payloads end, in ascending order; a block is closed at the first payload end at or
+  // after 'blockSize' bytes from its start.
+  static CompressedBlocks build(byte[] data, List<Integer> payloadEnds, int blockSize) {
+    List<int[]> ranges = new ArrayList<int[]>();
+    List<byte[]> blocks = new ArrayList<byte[]>();
+    int start = 0;
+    for (int i = 0; i < payloadEnds.size(); ++i) {
+      int end = payloadEnds.get(i);
+      if (end - start >= blockSize || i == payloadEnds.size() - 1) {
+        ranges.add(new int[] { start, end - start });
+        blocks.add(deflate(data, start, end - start));
+        start = end;
+      }
+    }
+    return new CompressedBlocks(ranges, blocks);
+  }
+
+  private static byte[] deflate(byte[] data, int offset, int length) {
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    try {
+      deflater.setInput(data, offset, length);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+      byte[] buf = new byte[8192];
+      while (!deflater.finished()) {
+        int nbytes = deflater.deflate(buf);
+        out.write(buf, 0, nbytes);
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  // Inflates 'block', which is expected to inflate to exactly 'length' bytes.
+  static byte[] inflate(byte[] block, int length) throws DataFormatException {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(block);
+      byte[] result = new byte[length];
+      int inflated = 0;
+      while (inflated < length && !inflater.finished()) {
+        int nbytes = inflater.inflate(result, inflated, length - inflated);
+        if (nbytes == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        inflated += nbytes;
+      }
+      if (inflated != length || !inflater.finished()) {
+        throw new DataFormatException("block did not inflate to " + length + " bytes");
+      }
+      return result;
+    } finally {
+      inflater.end();
+    }
+  }
+}
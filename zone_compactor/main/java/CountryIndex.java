@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+// Builds the country section, a binary form of zone.tab that maps each country code to the index
+// slots of its zones, so that readers can find the zones for a country without parsing text.
+//
+// The section has the form:
+//
+// int country_count
+// country_count * { byte[2] code; short zone_count; int first } -- sorted by code
+// int[] zone_slots -- the index slots of the zones of each country, in zone.tab order; the zones
+//     of a country are zone_slots[first] to zone_slots[first + zone_count - 1]
+//
+// The zone.tab section is still written as text for existing readers.
+class CountryIndex {
+  // Returns the section for 'slotsByCountry', which maps each two-letter country code to the
+  // index slots of its zones.
+  static ByteBuffer build(SortedMap<String,List<Integer>> slotsByCountry) {
+    int slotCount = 0;
+    for (List<Integer> slots : slotsByCountry.values()) {
+      slotCount += slots.size();
+    }
+    ByteBuffer section = ByteBuffer.allocate(4 + 8 * slotsByCountry.size() + 4 * slotCount);
+    section.putInt(slotsByCountry.size());
+    int first = 0;
+    for (Map.Entry<String,List<Integer>> entry : slotsByCountry.entrySet()) {
+      String code = entry.getKey();
+      int zoneCount = entry.getValue().size();
+      if (code.length() != 2 || code.charAt(0) > '~' || code.charAt(1) > '~') {
+        throw new RuntimeException("bad country code in zone.tab: " + code);
+      }
+      if (zoneCount > Short.MAX_VALUE) {
+        throw new RuntimeException("too many zones for country " + code + ": " + zoneCount);
+      }
+      section.put((byte) code.charAt(0));
+      section.put((byte) code.charAt(1));
+      section.putShort((short) zoneCount);
+      section.putInt(first);
+      first += zoneCount;
+    }
+    for (List<Integer> slots : slotsByCountry.values()) {
+      for (int slot : slots) {
+        section.putInt(slot);
+      }
+    }
+    section.flip();
+    return section;
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+// Writes a JSON index of the zones for tooling, so that tools need not parse the tzdata. It has
+// the form:
+//
+// {
+//   "version": "tzdata2019b",
+//   "zones": [
+//     { "name": "Africa/Abidjan", "position": 27480, "length": 156, "crc32": "a2c3b6e0" },
+//     { "name": "Africa/Accra", "link": "Africa/Abidjan", "position": 27480, ... },
+//     ...
+//   ]
+// }
+//
+// with one entry for every zone name, links included, sorted by name. "link" is the zone whose
+// zic output is stored for the name, if that is not the name itself. "position" is where that
+// output is in the tzdata, and "crc32" is the CRC-32 of it.
+class JsonIndexSink implements ZoneCompactor.Sink {
+  private final Path file;
+
+  // The position, length and CRC-32 of the zic output stored for each zone, by zone name.
+  private final Map<String,long[]> payloads = new ConcurrentHashMap<String,long[]>();
+
+  JsonIndexSink(Path file) {
+    this.file = file;
+  }
+
+  public void addZone(String zoneName, long position, ByteBuffer contents) {
+    CRC32 crc = new CRC32();
+    long length = contents.remaining();
+    crc.update(contents);
+    payloads.put(zoneName, new long[] { position, length, crc.getValue() });
+  }
+
+  public void finish(String version, SortedMap<String,String> zoneNames, byte[] zoneTab)
+      throws IOException {
+    StringBuilder json = new StringBuilder();
+    json.append("{\n  \"version\": ").append(quote(version)).append(",\n  \"zones\": [");
+    String separator = "\n";
+    for (Map.Entry<String,String> entry : zoneNames.entrySet()) {
+      long[] payload = payloads.get(entry.getValue());
+      if (payload == null) {
+        throw new RuntimeException("no zic output for zone: " + entry.getValue());
+      }
+      json.append(separator).append("    { \"name\": ").append(quote(entry.getKey()));
+      if (!entry.getKey().equals(entry.getValue())) {
+        json.append(", \"link\": ").append(quote(entry.getValue()));
+      }
+      json.append(", \"position\": ").append(payload[0]);
+      json.append(", \"length\": ").append(payload[1]);
+      json.append(", \"crc32\": \"").append(String.format("%08x", payload[2])).append("\" }");
+      separator = ",\n";
+    }
+    json.append("\n  ]\n}\n");
+    Files.write(file, json.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String quote(String s) {
+    StringBuilder quoted = new StringBuilder("\"");
+    for (int i = 0; i < s.length(); ++i) {
+      char ch = s.charAt(i);
+      if (ch == '"' || ch == '\\') {
+        quoted.append('\\').append(ch);
+      } else if (ch < ' ') {
+        quoted.append(String.format("\\u%04x", (int) ch));
+      } else {
+        quoted.append(ch);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+// Builds name dictionary sections: sorted names, each with a fixed number of int values.
+//
+// The "zdic" section is a compact replacement for the fixed-size index entries. Its values are
+// the offset and length of the payload of each name, as in the index. A file with this section
+// has an empty index; index slot i is the i-th name in the dictionary.
+//
+// The "zals" section holds the aliases declared by Link lines. Its one value is the index slot
+// of the zone that the alias is for. Aliases in this section are not in the index.
+//
+// A section has the form:
+//
+// int n -- the number of names
+// int restart_interval -- k
+// n * { int[] values }
+// int[(n + k - 1) / k] restart_offsets -- where the entry for name i * k starts, from the start
+//     of the section
+// n * { byte shared; byte suffix_length; byte[suffix_length] suffix }
+//
+// The names are sorted and front coded: each is the first 'shared' characters of the previous
+// name followed by 'suffix'. 'shared' is 0 for every k-th name, so those names can be binary
+// searched, and any name can be rebuilt from the restart before it. Names are ASCII and at most
+// 255 characters long.
+class NameDictionary {
+  static final int RESTART_INTERVAL = 16;
+
+  static final int MAX_NAME_LENGTH = 255;
+
+  // Returns the section for 'names', which are sorted. 'columns' holds the values: columns[j][i]
+  // is value j of name i.
+  static ByteBuffer build(List<String> names, int[]... columns) {
+    int n = names.size();
+    int restartCount = (n + RESTART_INTERVAL - 1) / RESTART_INTERVAL;
+    int[] shared = new int[n];
+    int entriesLength = 0;
+    for (int i = 0; i < n; ++i) {
+      String name = names.get(i);
+      if (name.length() > MAX_NAME_LENGTH) {
+        throw new RuntimeException("zone name too long: " + name);
+      }
+      if (i % RESTART_INTERVAL != 0) {
+        String previous = names.get(i - 1);
+        int limit = Math.min(previous.length(), name.length());
+        while (shared[i] < limit && previous.charAt(shared[i]) == name.charAt(shared[i])) {
+          ++shared[i];
+        }
+      }
+      entriesLength += 2 + name.length() - shared[i];
+    }
+
+    int restartsOffset = 4 + 4 + 4 * columns.length * n;
+    int entriesOffset = restartsOffset + 4 * restartCount;
+    ByteBuffer section = ByteBuffer.allocate(entriesOffset + entriesLength);
+    section.putInt(n);
+    section.putInt(RESTART_INTERVAL);
+    for (int i = 0; i < n; ++i) {
+      for (int[] column : columns) {
+        section.putInt(column[i]);
+      }
+    }
+    section.position(entriesOffset);
+    for (int i = 0; i < n; ++i) {
+      if (i % RESTART_INTERVAL == 0) {
+        section.putInt(restartsOffset + 4 * (i / RESTART_INTERVAL), section.position());
+      }
+      String name = names.get(i);
+      section.put((byte) shared[i]);
+      section.put((byte) (name.length() - shared[i]));
+      for (int j = shared[i]; j < name.length(); ++j) {
+        char ch = name.charAt(j);
+        if (ch > '~') {
+          throw new RuntimeException("non-ASCII zone name: " + name);
+        }
+        section.put((byte) ch);
+      }
+    }
+    section.flip();
+    return section;
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+// Builds a minimal perfect hash from zone names to their slots in the tzdata index, using the
+// "hash and displace" scheme.
+//
+// The section has the form:
+//
+// int n -- the number of zone names
+// int[n] displacements
+// int[n] slots -- the index slot for each hash value
+//
+// To look up a name: let d = displacements[hash(0, name) % n]. If d < 0 the hash value is
+// -d - 1, otherwise it is hash(d, name) % n. The name is in the index if and only if the name at
+// index slot slots[hash value] is equal to it.
+//
+// hash(d, name) is 32-bit FNV-1a over the ASCII bytes of the name, starting from d instead of the
+// usual offset basis when d is not 0, and the result is treated as unsigned.
+class PerfectHash {
+  private static final int FNV_OFFSET_BASIS = 0x811c9dc5;
+  private static final int FNV_PRIME = 0x01000193;
+
+  static int hash(int d, String name) {
+    int h = (d == 0) ? FNV_OFFSET_BASIS : d;
+    for (int i = 0; i < name.length(); ++i) {
+      h ^= name.charAt(i) & 0xff;
+      h *= FNV_PRIME;
+    }
+    return h;
+  }
+
+  private static int mod(int h, int n) {
+    return (int) ((h & 0xffffffffL) % n);
+  }
+
+  // Returns the section for 'names', which are in index order.
+  static ByteBuffer build(List<String> names) {
+    int n = names.size();
+
+    // Group the names into buckets by their first-level hash.
+    List<List<Integer>> buckets = new ArrayList<List<Integer>>(n);
+    for (int i = 0; i < n; ++i) {
+      buckets.add(new ArrayList<Integer>());
+    }
+    for (int i = 0; i < n; ++i) {
+      buckets.get(mod(hash(0, names.get(i)), n)).add(i);
+    }
+    Integer[] bucketOrder = new Integer[n];
+    for (int i = 0; i < n; ++i) {
+      bucketOrder[i] = i;
+    }
+    final List<List<Integer>> finalBuckets = buckets;
+    Arrays.sort(bucketOrder, new Comparator<Integer>() {
+      public int compare(Integer lhs, Integer rhs) {
+        // Largest buckets first; ties broken by bucket number so the output is stable.
+        int bySize = finalBuckets.get(rhs).size() - finalBuckets.get(lhs).size();
+        return bySize != 0 ? bySize : lhs - rhs;
+      }
+    });
+
+    int[] displacements = new int[n];
+    int[] slots = new int[n];
+    boolean[] used = new boolean[n];
+
+    // Find a displacement that puts every name in each multi-name bucket into a free slot.
+    int b = 0;
+    for (; b < n; ++b) {
+      List<Integer> bucket = buckets.get(bucketOrder[b]);
+      if (bucket.size() <= 1) {
+        break;
+      }
+      int d = 1;
+      List<Integer> bucketSlots = new ArrayList<Integer>();
+      while (true) {
+        bucketSlots.clear();
+        for (int name : bucket) {
+          int slot = mod(hash(d, names.get(name)), n);
+          if (used[slot] || bucketSlots.contains(slot)) {
+            break;
+          }
+          bucketSlots.add(slot);
+        }
+        if (bucketSlots.size() == bucket.size()) {
+          break;
+        }
+        ++d;
+        if (d < 0) {
+          throw new RuntimeException("unable to build a perfect hash");
+        }
+      }
+      displacements[bucketOrder[b]] = d;
+      for (int i = 0; i < bucket.size(); ++i) {
+        used[bucketSlots.get(i)] = true;
+        slots[bucketSlots.get(i)] = bucket.get(i);
+      }
+    }
+
+    // Single-name buckets point straight at one of the remaining free slots.
+    int freeSlot = 0;
+    for (; b < n; ++b) {
+      List<Integer> bucket = buckets.get(bucketOrder[b]);
+      if (bucket.isEmpty()) {
+        break;
+      }
+      while (used[freeSlot]) {
+        ++freeSlot;
+      }
+      used[freeSlot] = true;
+      displacements[bucketOrder[b]] = -freeSlot - 1;
+      slots[freeSlot] = bucket.get(0);
+    }
+
+    ByteBuffer section = ByteBuffer.allocate(4 + 8 * n);
+    section.putInt(n);
+    for (int d : displacements) {
+      section.putInt(d);
+    }
+    for (int slot : slots) {
+      section.putInt(slot);
+    }
+    section.flip();
+    return section;
+  }
+}
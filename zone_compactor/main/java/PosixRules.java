@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+// Builds the rules section, which holds the POSIX TZ string from the footer of each zone's zic
+// output, so that readers can work out offsets after the last transition without finding and
+// parsing the footer.
+//
+// The section has the form:
+//
+// int slot_count -- the number of index slots
+// int rule_count
+// int[slot_count] rule_ids -- the rule for each index slot, or -1 if its zic output has no footer
+//     or an empty one
+// rule_count * { int offset; int length } -- of each rule string, from the start of the section
+// the rule strings, in ASCII
+//
+// Zones with the same rule share one rule string: there are far fewer distinct rules than zones.
+class PosixRules {
+  // Returns the section for 'footers', the footer for each index slot, which may be null.
+  static ByteBuffer build(List<String> footers) {
+    Map<String,Integer> ruleIds = new LinkedHashMap<String,Integer>();
+    int[] slotRuleIds = new int[footers.size()];
+    int stringsLength = 0;
+    for (int i = 0; i < slotRuleIds.length; ++i) {
+      String footer = footers.get(i);
+      if (footer == null || footer.isEmpty()) {
+        slotRuleIds[i] = -1;
+        continue;
+      }
+      Integer ruleId = ruleIds.get(footer);
+      if (ruleId == null) {
+        ruleId = ruleIds.size();
+        ruleIds.put(footer, ruleId);
+        stringsLength += footer.length();
+      }
+      slotRuleIds[i] = ruleId;
+    }
+
+    int stringsOffset = 4 + 4 + 4 * slotRuleIds.length + 8 * ruleIds.size();
+    ByteBuffer section = ByteBuffer.allocate(stringsOffset + stringsLength);
+    section.putInt(slotRuleIds.length);
+    section.putInt(ruleIds.size());
+    for (int ruleId : slotRuleIds) {
+      section.putInt(ruleId);
+    }
+    int offset = stringsOffset;
+    for (String rule : ruleIds.keySet()) {
+      section.putInt(offset);
+      section.putInt(rule.length());
+      offset += rule.length();
+    }
+    for (String rule : ruleIds.keySet()) {
+      for (int i = 0; i < rule.length(); ++i) {
+        section.put((byte) rule.charAt(i));
+      }
+    }
+    section.flip();
+    return section;
+  }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.time.LocalDate;
+
+// A POSIX TZ string from the footer of zic output, such as "PST8PDT,M3.2.0,M11.1.0", which
+// describes local time after the last transition in the file.
+//
+// The form is std offset [dst [offset] ,start[/time],end[/time]], with the extensions of
+// RFC 8536: names may be quoted in angle brackets, and rule times may be negative or up to 167
+// hours. POSIX offsets are positive west of Greenwich; the offsets here are positive east, like
+// the offsets of the local time types in TzifFile.
+class PosixTz {
+  private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
+  // The total offset from UTC in seconds of standard time, and of daylight saving time if any.
+  final int stdOffset;
+  final int dstOffset;
+  final boolean hasDst;
+
+  // The rules for when daylight saving time starts and ends, if any. Each is the kind of date
+  // ('J' for a 1-based day of the year that never counts February 29, 'N' for a 0-based day of
+  // the year, 'M' for a day of a week of a month), its fields, and the local time of the change
+  // in seconds.
+  private final Rule start;
+  private final Rule end;
+
+  private static class Rule {
+    char kind;
+    int day;
+    int month;
+    int week;
+    int time = 2 * 60 * 60;
+
+    // Returns the day that the rule falls on in 'year', in days since the epoch.
+    long epochDay(int year) {
+      LocalDate date;
+      if (kind == 'J') {
+        date = LocalDate.ofYearDay(year, day).plusDays(
+            LocalDate.of(year, 1, 1).isLeapYear() && day >= 60 ? 1 : 0);
+      } else if (kind == 'N') {
+        date = LocalDate.ofYearDay(year, day + 1);
+      } else {
+        LocalDate first = LocalDate.of(year, month, 1);
+        // Day 0 is Sunday; DayOfWeek runs from Monday (1) to Sunday (7).
+        int firstDay = first.getDayOfWeek().getValue() % 7;
+        int dayOfMonth = 1 + (day - firstDay + 7) % 7 + 7 * (week - 1);
+        while (dayOfMonth > first.lengthOfMonth()) {
+          dayOfMonth -= 7;
+        }
+        date = first.withDayOfMonth(dayOfMonth);
+      }
+      return date.toEpochDay();
+    }
+  }
+
+  private PosixTz(int stdOffset, int dstOffset, boolean hasDst, Rule start, Rule end) {
+    this.stdOffset = stdOffset;
+    this.dstOffset = dstOffset;
+    this.hasDst = hasDst;
+    this.start = start;
+    this.end = end;
+  }
+
+  // Returns the transitions in 'year' as pairs of { time in seconds since the epoch, total
+  // offset from then on }, in ascending order of time. A zone without daylight saving time has
+  // none.
+  long[][] transitions(int year) {
+    if (!hasDst) {
+      return new long[0][];
+    }
+    // The start is given in standard time and the end in daylight saving time.
+    long dstStart = start.epochDay(year) * SECONDS_PER_DAY + start.time - stdOffset;
+    long dstEnd = end.epochDay(year) * SECONDS_PER_DAY + end.time - dstOffset;
+    long[][] transitions = {
+      { dstStart, dstOffset },
+      { dstEnd, stdOffset },
+    };
+    if (dstEnd < dstStart) {
+      // Southern hemisphere: the year starts in daylight saving time.
+      long[] first = transitions[1];
+      transitions[1] = transitions[0];
+      transitions[0] = first;
+    }
+    return transitions;
+  }
+
+  // Parses 'tz', throwing if it is not a POSIX TZ string that zic could have written.
+  static PosixTz parse(String tz, String name) {
+    Parser p = new Parser(tz, name);
+    p.skipName();
+    int stdOffset = -p.time(false);
+    if (p.atEnd()) {
+      return new PosixTz(stdOffset, stdOffset, false, null, null);
+    }
+    p.skipName();
+    int dstOffset = stdOffset + 60 * 60;
+    if (!p.atEnd() && p.peek() != ',') {
+      dstOffset = -p.time(false);
+    }
+    if (p.atEnd()) {
+      throw p.error("no daylight saving time rule");
+    }
+    p.expect(',');
+    Rule start = p.rule();
+    p.expect(',');
+    Rule end = p.rule();
+    if (!p.atEnd()) {
+      throw p.error("trailing characters");
+    }
+    return new PosixTz(stdOffset, dstOffset, true, start, end);
+  }
+
+  private static class Parser {
+    private final String tz;
+    private final String name;
+    private int pos;
+
+    Parser(String tz, String name) {
+      this.tz = tz;
+      this.name = name;
+    }
+
+    boolean atEnd() {
+      return pos == tz.length();
+    }
+
+    char peek() {
+      if (atEnd()) {
+        throw error("unexpected end");
+      }
+      return tz.charAt(pos);
+    }
+
+    void expect(char ch) {
+      if (peek() != ch) {
+        throw error("expected '" + ch + "'");
+      }
+      ++pos;
+    }
+
+    // Skips a zone abbreviation, either alphabetic or quoted in angle brackets.
+    void skipName() {
+      int begin = pos;
+      if (peek() == '<') {
+        pos = tz.indexOf('>', pos);
+        if (pos < 0) {
+          throw error("unterminated name");
+        }
+        ++pos;
+        return;
+      }
+      while (!atEnd() && Character.isLetter(tz.charAt(pos))) {
+        ++pos;
+      }
+      if (pos - begin < 3) {
+        throw error("bad name");
+      }
+    }
+
+    int number() {
+      int begin = pos;
+      int value = 0;
+      while (!atEnd() && Character.isDigit(tz.charAt(pos))) {
+        value = value * 10 + (tz.charAt(pos++) - '0');
+      }
+      if (pos == begin) {
+        throw error("expected a number");
+      }
+      return value;
+    }
+
+    // Parses [+-]hh[:mm[:ss]] into seconds. Offsets may be signed; so may rule times, which may
+    // also be more than 24 hours.
+    int time(boolean ruleTime) {
+      int sign = 1;
+      if (peek() == '+' || peek() == '-') {
+        sign = peek() == '-' ? -1 : 1;
+        ++pos;
+      }
+      int hours = number();
+      if (hours > (ruleTime ? 167 : 24)) {
+        throw error("hours out of range");
+      }
+      int seconds = hours * 60 * 60;
+      if (!atEnd() && peek() == ':') {
+        ++pos;
+        seconds += number() * 60;
+        if (!atEnd() && peek() == ':') {
+          ++pos;
+          seconds += number();
+        }
+      }
+      return sign * seconds;
+    }
+
+    Rule rule() {
+      Rule rule = new Rule();
+      if (peek() == 'J') {
+        ++pos;
+        rule.kind = 'J';
+        rule.day = number();
+        if (rule.day < 1 || rule.day > 365) {
+          throw error("bad Julian day");
+        }
+      } else if (peek() == 'M') {
+        ++pos;
+        rule.kind = 'M';
+        rule.month = number();
+        expect('.');
+        rule.week = number();
+        expect('.');
+        rule.day = number();
+        if (rule.month < 1 || rule.month > 12 || rule.week < 1 || rule.week > 5
+            || rule.day > 6) {
+          throw error("bad month rule");
+        }
+      } else {
+        rule.kind = 'N';
+        rule.day = number();
+        if (rule.day > 365) {
+          throw error("bad day of year");
+        }
+      }
+      if (!atEnd() && peek() == '/') {
+        ++pos;
+        rule.time = time(true);
+      }
+      return rule;
+    }
+
+    RuntimeException error(String message) {
+      return new RuntimeException(
+          "bad POSIX TZ string \"" + tz + "\" (" + message + " at " + pos + ") in " + name);
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+// Builds the section of pre-decoded transitions, so that readers can use the transitions of a
+// zone without parsing its zic output.
+//
+// The section has the form:
+//
+// int count -- the number of index slots
+// int[count] table_offsets -- from the start of the section; zones that share data share a table
+// the tables, each starting on an 8-byte boundary:
+//   int transition_count
+//   int initial_offset -- total offset from UTC in seconds before the first transition
+//   int initial_is_dst -- 1 if daylight saving time applies before the first transition, else 0
+//   int reserved -- 0
+//   long[transition_count] transition_times -- seconds since the epoch, ascending
+//   int[transition_count] offsets -- total offset from UTC in seconds from each transition
+//   byte[transition_count] is_dst -- 1 if daylight saving time applies from each transition
+//
+// The section itself starts on an 8-byte boundary, so every array is naturally aligned in a
+// mapping of the file.
+class TransitionTables {
+  private static final int TABLE_HEADER_SIZE = 4 + 4 + 4 + 4;
+
+  // Returns the table for 'tzif', without the padding that may follow it.
+  static ByteBuffer buildTable(TzifFile tzif) {
+    int n = tzif.transitionTimes.length;
+    ByteBuffer table = ByteBuffer.allocate(TABLE_HEADER_SIZE + n * (8 + 4 + 1));
+    table.putInt(n);
+    // Local time before the first transition is described by type 0.
+    table.putInt(tzif.typeOffsets.length == 0 ? 0 : tzif.typeOffsets[0]);
+    table.putInt(tzif.typeIsDst.length != 0 && tzif.typeIsDst[0] ? 1 : 0);
+    table.putInt(0);
+    for (long time : tzif.transitionTimes) {
+      table.putLong(time);
+    }
+    for (int type : tzif.transitionTypes) {
+      table.putInt(tzif.typeOffsets[type]);
+    }
+    for (int type : tzif.transitionTypes) {
+      table.put((byte) (tzif.typeIsDst[type] ? 1 : 0));
+    }
+    table.flip();
+    return table;
+  }
+
+  // Returns the section for the index slots in 'tables'. Slots whose tables are the same object
+  // share a copy in the section.
+  static ByteBuffer build(List<ByteBuffer> tables) {
+    Map<ByteBuffer,Integer> tableOffsets = new IdentityHashMap<ByteBuffer,Integer>();
+    int length = align(4 + 4 * tables.size());
+    for (ByteBuffer table : tables) {
+      if (!tableOffsets.containsKey(table)) {
+        tableOffsets.put(table, length);
+        length = align(length + table.remaining());
+      }
+    }
+
+    ByteBuffer section = ByteBuffer.allocate(length);
+    section.putInt(tables.size());
+    for (ByteBuffer table : tables) {
+      section.putInt(tableOffsets.get(table));
+    }
+    for (Map.Entry<ByteBuffer,Integer> entry : tableOffsets.entrySet()) {
+      section.position(entry.getValue());
+      section.put(entry.getKey().duplicate());
+    }
+    section.position(0);
+    return section;
+  }
+
+  private static int align(int offset) {
+    return (offset + 7) & ~7;
+  }
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+// usage: java TzDataDelta diff <old tzdata> <new tzdata> <delta file>
+//        java TzDataDelta apply <old tzdata> <delta file> <new tzdata>
+//
+// Computes the difference between two tzdata files written by ZoneCompactor, and rebuilds the
+// new file from the old one and the difference. Consecutive releases change few zones, so the
+// delta is a small fraction of the size of the file.
+//
+// The diff is zone-aware: each zone payload of the new file that is byte-identical to a payload
+// of the old file is copied from wherever it is in the old file, whatever its name or position.
+// Everything else (the header, sections, index, changed payloads and zone.tab) is matched
+// against the old file in blocks, which finds the unchanged runs of moved index entries and
+// section tables, and the remainder is stored literally. Files of any variant can be diffed;
+// payloads are only recognized in files with index entries or a name dictionary.
+//
+// The delta file has the form:
+//
+// byte[4] "tzdl"
+// int format_version -- 1
+// byte[32] old_sha256 -- of the whole old file, which apply checks before it starts
+// byte[32] new_sha256 -- of the whole new file, which apply checks before it writes anything
+// int new_length
+// the operations, compressed with deflate:
+//   { byte 'C'; int old_offset; int length } -- copy bytes from the old file
+//   { byte 'L'; int length; byte[length] bytes } -- literal bytes
+//   byte 'E' -- the end
+//
+// The operations write the new file from start to end.
+public class TzDataDelta {
+  private static final byte[] MAGIC = { 't', 'z', 'd', 'l' };
+
+  private static final int FORMAT_VERSION = 1;
+
+  private static final int HEADER_SIZE = 12 + 4 + 4 + 4;
+
+  private static final int INDEX_ENTRY_SIZE = 40 + 4 + 4 + 4;
+
+  // The shortest run that is worth a copy operation instead of literal bytes.
+  private static final int BLOCK_SIZE = 32;
+
+  // Multiplier of the rolling hash of BLOCK_SIZE bytes.
+  private static final int HASH_BASE = 257;
+
+  private final byte[] oldBytes;
+  private final byte[] newBytes;
+
+  // Where each block of the old file starts, by the hash of its bytes.
+  private final Map<Integer,Integer> oldBlocks = new HashMap<Integer,Integer>();
+
+  private final DataOutputStream ops;
+  private final ByteArrayOutputStream literal = new ByteArrayOutputStream();
+  private int copyOffset = -1;
+  private int copyLength;
+
+  // Statistics.
+  private int copiedPayloads;
+  private int literalBytes;
+
+  private TzDataDelta(byte[] oldBytes, byte[] newBytes, OutputStream out) {
+    this.oldBytes = oldBytes;
+    this.newBytes = newBytes;
+    this.ops = new DataOutputStream(out);
+  }
+
+  // Returns the delta that turns 'oldBytes' into 'newBytes'.
+  public static byte[] diff(byte[] oldBytes, byte[] newBytes) throws Exception {
+    ByteArrayOutputStream delta = new ByteArrayOutputStream();
+    DataOutputStream header = new DataOutputStream(delta);
+    header.write(MAGIC);
+    header.writeInt(FORMAT_VERSION);
+    header.write(sha256(oldBytes));
+    header.write(sha256(newBytes));
+    header.writeInt(newBytes.length);
+
+    DeflaterOutputStream out =
+        new DeflaterOutputStream(delta, new Deflater(Deflater.BEST_COMPRESSION));
+    TzDataDelta diff = new TzDataDelta(oldBytes, newBytes, out);
+    diff.writeOps();
+    out.finish();
+    System.out.println("Delta is " + delta.size() + " bytes for " + newBytes.length
+        + " bytes: " + diff.copiedPayloads + " payloads copied, " + diff.literalBytes
+        + " literal bytes");
+    return delta.toByteArray();
+  }
+
+  private void writeOps() throws IOException {
+    // Index the payloads and blocks of the old file.
+    Map<ByteBuffer,Integer> oldPayloads = new HashMap<ByteBuffer,Integer>();
+    for (int[] payload : payloads(oldBytes)) {
+      ByteBuffer key = ByteBuffer.wrap(oldBytes, payload[0], payload[1]).slice();
+      if (!oldPayloads.containsKey(key)) {
+        oldPayloads.put(key, payload[0]);
+      }
+    }
+    for (int i = 0; i + BLOCK_SIZE <= oldBytes.length; i += BLOCK_SIZE) {
+      Integer hash = hash(oldBytes, i);
+      if (!oldBlocks.containsKey(hash)) {
+        oldBlocks.put(hash, i);
+      }
+    }
+
+    int position = 0;
+    for (int[] payload : payloads(newBytes)) {
+      matchBlocks(position, payload[0]);
+      Integer oldOffset = oldPayloads.get(ByteBuffer.wrap(newBytes, payload[0], payload[1]));
+      if (oldOffset != null) {
+        copy(oldOffset, payload[1]);
+        ++copiedPayloads;
+      } else {
+        matchBlocks(payload[0], payload[0] + payload[1]);
+      }
+      position = payload[0] + payload[1];
+    }
+    matchBlocks(position, newBytes.length);
+    flush();
+    ops.writeByte('E');
+    ops.flush();
+  }
+
+  // Writes [start, end) of the new file as copies of runs that are also in the old file, and
+  // literal bytes in between.
+  private void matchBlocks(int start, int end) throws IOException {
+    int literalStart = start;
+    int i = start;
+    int hash = i + BLOCK_SIZE <= end ? hash(newBytes, i) : 0;
+    int outFactor = 1;
+    for (int j = 0; j < BLOCK_SIZE - 1; ++j) {
+      outFactor *= HASH_BASE;
+    }
+    while (i + BLOCK_SIZE <= end) {
+      Integer candidate = oldBlocks.get(hash);
+      if (candidate != null && regionMatches(candidate, i, BLOCK_SIZE)) {
+        int oldOffset = candidate;
+        int length = BLOCK_SIZE;
+        while (i + length < end && oldOffset + length < oldBytes.length
+            && newBytes[i + length] == oldBytes[oldOffset + length]) {
+          ++length;
+        }
+        while (i > literalStart && oldOffset > 0 && newBytes[i - 1] == oldBytes[oldOffset - 1]) {
+          --i;
+          --oldOffset;
+          ++length;
+        }
+        literal(literalStart, i);
+        copy(oldOffset, length);
+        i += length;
+        literalStart = i;
+        if (i + BLOCK_SIZE <= end) {
+          hash = hash(newBytes, i);
+        }
+        continue;
+      }
+      if (i + BLOCK_SIZE < end) {
+        hash = (hash - (newBytes[i] & 0xff) * outFactor) * HASH_BASE
+            + (newBytes[i + BLOCK_SIZE] & 0xff);
+      }
+      ++i;
+    }
+    literal(literalStart, end);
+  }
+
+  private boolean regionMatches(int oldOffset, int newOffset, int length) {
+    for (int i = 0; i < length; ++i) {
+      if (oldBytes[oldOffset + i] != newBytes[newOffset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void copy(int oldOffset, int length) throws IOException {
+    if (literal.size() == 0 && copyOffset >= 0 && copyOffset + copyLength == oldOffset) {
+      copyLength += length;
+      return;
+    }
+    flush();
+    copyOffset = oldOffset;
+    copyLength = length;
+  }
+
+  private void literal(int start, int end) throws IOException {
+    if (start == end) {
+      return;
+    }
+    if (copyOffset >= 0) {
+      flush();
+    }
+    literal.write(newBytes, start, end - start);
+  }
+
+  // Writes the pending operation, if any.
+  private void flush() throws IOException {
+    if (copyOffset >= 0) {
+      ops.writeByte('C');
+      ops.writeInt(copyOffset);
+      ops.writeInt(copyLength);
+      copyOffset = -1;
+    }
+    if (literal.size() != 0) {
+      ops.writeByte('L');
+      ops.writeInt(literal.size());
+      literal.writeTo(ops);
+      literalBytes += literal.size();
+      literal.reset();
+    }
+  }
+
+  private static int hash(byte[] bytes, int offset) {
+    int hash = 0;
+    for (int i = 0; i < BLOCK_SIZE; ++i) {
+      hash = hash * HASH_BASE + (bytes[offset + i] & 0xff);
+    }
+    return hash;
+  }
+
+  // Returns the zone payloads of the tzdata file in 'bytes' as { offset from the start of the
+  // file, length } pairs, sorted by offset, without duplicates. A block-compressed file has none
+  // that can be recognized.
+  private static List<int[]> payloads(byte[] bytes) {
+    ByteBuffer buf = ByteBuffer.wrap(bytes);
+    if (bytes.length < HEADER_SIZE) {
+      throw new RuntimeException("not a tzdata file: too short");
+    }
+    String version = new String(bytes, 0, 12, StandardCharsets.US_ASCII);
+    boolean compressed = version.startsWith("tzblk");
+    if (!version.startsWith("tzdata") && !version.startsWith("tzidx") && !compressed) {
+      throw new RuntimeException("not a tzdata file");
+    }
+    int indexOffset = buf.getInt(12);
+    int dataOffset = buf.getInt(16);
+    int zoneTabOffset = buf.getInt(20);
+    if (indexOffset < HEADER_SIZE || dataOffset < indexOffset || zoneTabOffset < dataOffset
+        || zoneTabOffset > bytes.length) {
+      throw new RuntimeException("bad tzdata header offsets");
+    }
+    List<int[]> payloads = new ArrayList<int[]>();
+    if (compressed) {
+      return payloads;
+    }
+
+    int count = (dataOffset - indexOffset) / INDEX_ENTRY_SIZE;
+    ByteBuffer values = buf;
+    int valuesOffset = indexOffset + 40;
+    int stride = INDEX_ENTRY_SIZE;
+    ByteBuffer dictionary = count == 0 ? section(buf, indexOffset, "zdic") : null;
+    if (dictionary != null) {
+      count = dictionary.getInt(0);
+      values = dictionary;
+      valuesOffset = 8;
+      stride = 8;
+    }
+    Set<Integer> seen = new HashSet<Integer>();
+    for (int i = 0; i < count; ++i) {
+      int offset = values.getInt(valuesOffset + i * stride);
+      int length = values.getInt(valuesOffset + i * stride + 4);
+      if (offset < 0 || length < 0 || offset > zoneTabOffset - dataOffset - length) {
+        throw new RuntimeException("bad payload for index slot " + i);
+      }
+      if (length != 0 && seen.add(offset)) {
+        payloads.add(new int[] { dataOffset + offset, length });
+      }
+    }
+    Collections.sort(payloads, new Comparator<int[]>() {
+      public int compare(int[] a, int[] b) {
+        return Integer.compare(a[0], b[0]);
+      }
+    });
+    // Payloads that overlap an earlier one are left to the block matching.
+    int end = 0;
+    for (Iterator<int[]> it = payloads.iterator(); it.hasNext(); ) {
+      int[] payload = it.next();
+      if (payload[0] < end) {
+        it.remove();
+      } else {
+        end = payload[0] + payload[1];
+      }
+    }
+    return payloads;
+  }
+
+  // Returns the section with 'tag' from the header extension, or null if there is not one.
+  private static ByteBuffer section(ByteBuffer buf, int indexOffset, String tag) {
+    if (indexOffset < HEADER_SIZE + 8 || !new String(buf.array(), HEADER_SIZE, 4,
+        StandardCharsets.US_ASCII).equals("tzex")) {
+      return null;
+    }
+    int sectionCount = buf.getInt(HEADER_SIZE + 4);
+    for (int i = 0; i < sectionCount && HEADER_SIZE + 8 + 12 * (i + 1) <= indexOffset; ++i) {
+      int entry = HEADER_SIZE + 8 + 12 * i;
+      if (new String(buf.array(), entry, 4, StandardCharsets.US_ASCII).equals(tag)) {
+        int offset = buf.getInt(entry + 4);
+        int length = buf.getInt(entry + 8);
+        if (offset < HEADER_SIZE || length < 8 || offset > buf.capacity() - length) {
+          throw new RuntimeException("bad " + tag + " section");
+        }
+        ByteBuffer section = ByteBuffer.wrap(buf.array(), offset, length).slice();
+        if (section.getInt(0) < 0 || section.getInt(0) > (length - 8) / 8) {
+          throw new RuntimeException("bad " + tag + " section");
+        }
+        return section;
+      }
+    }
+    return null;
+  }
+
+  // Returns the file that 'delta' turns 'oldBytes' into, which is checked against the digest
+  // in the delta.
+  public static byte[] apply(byte[] oldBytes, byte[] delta) throws Exception {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+    byte[] magic = new byte[MAGIC.length];
+    in.readFully(magic);
+    if (!Arrays.equals(magic, MAGIC) || in.readInt() != FORMAT_VERSION) {
+      throw new RuntimeException("not a tzdata delta");
+    }
+    byte[] oldDigest = new byte[32];
+    byte[] newDigest = new byte[32];
+    in.readFully(oldDigest);
+    in.readFully(newDigest);
+    if (!Arrays.equals(oldDigest, sha256(oldBytes))) {
+      throw new RuntimeException("delta is for a different tzdata file");
+    }
+    int newLength = in.readInt();
+    if (newLength < 0) {
+      throw new RuntimeException("bad new length: " + newLength);
+    }
+
+    // The new file is not allocated up front, as new_length may be corrupt.
+    ByteArrayOutputStream newBytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int position = 0;
+    DataInputStream ops = new DataInputStream(new InflaterInputStream(in));
+    for (int op = ops.readByte(); op != 'E'; op = ops.readByte()) {
+      if (op == 'C') {
+        int oldOffset = ops.readInt();
+        int length = ops.readInt();
+        if (oldOffset < 0 || length < 0 || oldOffset > oldBytes.length - length
+            || length > newLength - position) {
+          throw new RuntimeException("bad copy: " + oldOffset + ", " + length);
+        }
+        newBytes.write(oldBytes, oldOffset, length);
+        position += length;
+      } else if (op == 'L') {
+        int length = ops.readInt();
+        if (length < 0 || length > newLength - position) {
+          throw new RuntimeException("bad literal length: " + length);
+        }
+        for (int remaining = length; remaining > 0; ) {
+          int count = Math.min(remaining, buffer.length);
+          ops.readFully(buffer, 0, count);
+          newBytes.write(buffer, 0, count);
+          remaining -= count;
+        }
+        position += length;
+      } else {
+        throw new RuntimeException("bad delta operation: " + op);
+      }
+    }
+    // Reading to the end of the deflate stream checks its checksum, so that a delta that has
+    // been cut short or corrupted after the last operation is rejected too.
+    if (ops.read() != -1) {
+      throw new RuntimeException("data after the end of the delta operations");
+    }
+    byte[] result = newBytes.toByteArray();
+    if (position != newLength || !Arrays.equals(newDigest, sha256(result))) {
+      throw new RuntimeException("delta did not rebuild the new tzdata file");
+    }
+    return result;
+  }
+
+  private static byte[] sha256(byte[] bytes) throws Exception {
+    return MessageDigest.getInstance("SHA-256").digest(bytes);
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 4 || !(args[0].equals("diff") || args[0].equals("apply"))) {
+      System.err.println("usage: java TzDataDelta diff <old tzdata> <new tzdata> <delta file>");
+      System.err.println("       java TzDataDelta apply <old tzdata> <delta file> <new tzdata>");
+      System.exit(0);
+    }
+    byte[] oldBytes = Files.readAllBytes(Paths.get(args[1]));
+    byte[] input = Files.readAllBytes(Paths.get(args[2]));
+    byte[] output = args[0].equals("diff") ? diff(oldBytes, input) : apply(oldBytes, input);
+    Files.write(Paths.get(args[3]), output);
+  }
+}
@@ -0,0 +1,410 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// The decoded contents of a file written by zic (see tzfile(5) / RFC 8536).
+//
+// For version 2 and later files the 64-bit data block that follows the version 1 block is used and
+// the footer is kept; for version 1 files the 32-bit data block is used and there is no footer.
+// toBytes() writes the contents back out in the same version, regenerating the version 1 block
+// from the 64-bit data the way zic does.
+class TzifFile {
+  // The version byte from the header: 0 for version 1, or '2', '3', ...
+  final int version;
+
+  // Transition times in seconds since the epoch, in ascending order.
+  final long[] transitionTimes;
+
+  // For each transition, the index of the local time type that applies from it onwards.
+  final int[] transitionTypes;
+
+  // For each local time type, its total offset from UTC in seconds.
+  final int[] typeOffsets;
+
+  // For each local time type, whether it is daylight saving time.
+  final boolean[] typeIsDst;
+
+  // For each local time type, the index of its abbreviation in 'abbreviations'.
+  final int[] typeAbbreviationIndexes;
+
+  // NUL-terminated time zone abbreviations.
+  final byte[] abbreviations;
+
+  // Leap second records: when each correction occurs and the total correction from then on.
+  final long[] leapTimes;
+  final int[] leapCorrections;
+
+  // Standard/wall and UT/local indicators, one per type or none at all.
+  final boolean[] isStd;
+  final boolean[] isUt;
+
+  // The POSIX TZ string from the footer, possibly empty, or null for a version 1 file.
+  final String footer;
+
+  private TzifFile(int version, long[] transitionTimes, int[] transitionTypes,
+      int[] typeOffsets, boolean[] typeIsDst, int[] typeAbbreviationIndexes,
+      byte[] abbreviations, long[] leapTimes, int[] leapCorrections, boolean[] isStd,
+      boolean[] isUt, String footer) {
+    this.version = version;
+    this.transitionTimes = transitionTimes;
+    this.transitionTypes = transitionTypes;
+    this.typeOffsets = typeOffsets;
+    this.typeIsDst = typeIsDst;
+    this.typeAbbreviationIndexes = typeAbbreviationIndexes;
+    this.abbreviations = abbreviations;
+    this.leapTimes = leapTimes;
+    this.leapCorrections = leapCorrections;
+    this.isStd = isStd;
+    this.isUt = isUt;
+    this.footer = footer;
+  }
+
+  // Returns a copy with only the transitions needed to describe local time at every instant in
+  // [start, end): the last transition at or before 'start', the ones inside the window, and the
+  // first one at or after 'end'. Keeping that last one means readers never apply the footer,
+  // which only describes the rules in force at the end of the data, inside the window.
+  TzifFile trim(long start, long end) {
+    int n = transitionTimes.length;
+    int from = 0;
+    while (from + 1 < n && transitionTimes[from + 1] <= start) {
+      ++from;
+    }
+    int to = from;
+    while (to < n && transitionTimes[to] < end) {
+      ++to;
+    }
+    to = Math.min(to + 1, n);
+    return new TzifFile(version, Arrays.copyOfRange(transitionTimes, from, to),
+        Arrays.copyOfRange(transitionTypes, from, to), typeOffsets, typeIsDst,
+        typeAbbreviationIndexes, abbreviations, leapTimes, leapCorrections, isStd, isUt, footer);
+  }
+
+  // Returns the index of the local time type in effect at 'time', going by the transitions alone.
+  // Before the first transition, that is type 0.
+  int typeAt(long time) {
+    int i = Arrays.binarySearch(transitionTimes, time);
+    if (i < 0) {
+      i = -i - 2;
+    }
+    return i < 0 ? 0 : transitionTypes[i];
+  }
+
+  // Throws if 'other' does not describe the same local time as this file at every instant in
+  // [start, end), going by the transitions alone. Local time types are compared by offset, DST
+  // flag and abbreviation, so the files may number them differently. Local time can only change
+  // at a transition of one file or the other, so it is compared at both ends of the window and
+  // on both sides of every transition in it.
+  void checkEquivalent(TzifFile other, long start, long end, String name) {
+    checkSameTypeAt(other, start, name);
+    checkSameTypeAt(other, end - 1, name);
+    checkSameTypeAtTransitions(other, transitionTimes, start, end, name);
+    checkSameTypeAtTransitions(other, other.transitionTimes, start, end, name);
+  }
+
+  // Throws if the version 1 blocks of the zic output in 'bytes' and 'otherBytes' do not describe
+  // the same local time at every instant in [start, end) that a version 1 block can hold.
+  static void checkVersion1BlocksEquivalent(byte[] bytes, byte[] otherBytes, long start,
+      long end, String name) {
+    start = Math.max(start, Integer.MIN_VALUE);
+    end = Math.min(end, Integer.MAX_VALUE + 1L);
+    if (start < end) {
+      parseVersion1Block(bytes, name).checkEquivalent(
+          parseVersion1Block(otherBytes, name), start, end, name);
+    }
+  }
+
+  private void checkSameTypeAtTransitions(TzifFile other, long[] times, long start, long end,
+      String name) {
+    for (long time : times) {
+      if (time > start && time < end) {
+        checkSameTypeAt(other, time, name);
+        checkSameTypeAt(other, time - 1, name);
+      }
+    }
+  }
+
+  private void checkSameTypeAt(TzifFile other, long time, String name) {
+    int type = typeAt(time);
+    int otherType = other.typeAt(time);
+    if (typeOffsets[type] != other.typeOffsets[otherType]
+        || typeIsDst[type] != other.typeIsDst[otherType]
+        || !abbreviation(type).equals(other.abbreviation(otherType))) {
+      throw new RuntimeException("trimmed zone differs at " + time + ": " + name);
+    }
+  }
+
+  // Returns the abbreviation of local time type 'type'. Files may order their abbreviations
+  // differently, so types are compared by abbreviation rather than by index.
+  String abbreviation(int type) {
+    int start = typeAbbreviationIndexes[type];
+    int end = start;
+    while (end < abbreviations.length && abbreviations[end] != 0) {
+      ++end;
+    }
+    return new String(abbreviations, start, end - start, StandardCharsets.US_ASCII);
+  }
+
+  // Returns the contents in the TZif format.
+  byte[] toBytes() {
+    int length = 0;
+    if (version == 0) {
+      length += blockLengthWithHeader(4);
+    } else {
+      length += blockLengthWithHeader(4) + blockLengthWithHeader(8) + footer.length() + 2;
+    }
+    ByteBuffer buf = ByteBuffer.allocate(length);
+    writeBlock(buf, 4);
+    if (version != 0) {
+      writeBlock(buf, 8);
+      buf.put((byte) '\n');
+      for (int i = 0; i < footer.length(); ++i) {
+        buf.put((byte) footer.charAt(i));
+      }
+      buf.put((byte) '\n');
+    }
+    if (buf.hasRemaining()) {
+      throw new IllegalStateException("TZif length miscalculated");
+    }
+    return buf.array();
+  }
+
+  // The leap second records in a block with 'timeSize' byte times are those whose times fit.
+  private static boolean fits(long time, int timeSize) {
+    return timeSize == 8 || (time >= Integer.MIN_VALUE && time <= Integer.MAX_VALUE);
+  }
+
+  // Returns the index of the first transition in the block with 'timeSize' byte times. Like zic,
+  // the version 1 block starts with the last transition before the earliest time it can hold,
+  // if there is one and no transition is exactly at that time, and writes it at that time.
+  // Dropping it would put type 0 in force until the first transition that fits.
+  private int firstTransitionInBlock(int timeSize) {
+    if (timeSize == 8) {
+      return 0;
+    }
+    int first = 0;
+    while (first < transitionTimes.length && transitionTimes[first] < Integer.MIN_VALUE) {
+      ++first;
+    }
+    if (first > 0
+        && (first == transitionTimes.length || transitionTimes[first] != Integer.MIN_VALUE)) {
+      --first;
+    }
+    return first;
+  }
+
+  // Returns the index after the last transition in the block with 'timeSize' byte times.
+  // Transitions after the latest time the version 1 block can hold are left out.
+  private int endTransitionInBlock(int timeSize) {
+    int end = transitionTimes.length;
+    while (timeSize == 4 && end > 0 && transitionTimes[end - 1] > Integer.MAX_VALUE) {
+      --end;
+    }
+    return end;
+  }
+
+  private static int countFitting(long[] times, int timeSize) {
+    int count = 0;
+    for (long time : times) {
+      if (fits(time, timeSize)) {
+        ++count;
+      }
+    }
+    return count;
+  }
+
+  private int blockLengthWithHeader(int timeSize) {
+    int[] counts = {
+        isUt.length, isStd.length, countFitting(leapTimes, timeSize),
+        endTransitionInBlock(timeSize) - firstTransitionInBlock(timeSize), typeOffsets.length,
+        abbreviations.length };
+    return 20 + 4 * counts.length + blockLength(counts, timeSize);
+  }
+
+  private void writeBlock(ByteBuffer buf, int timeSize) {
+    buf.put(new byte[] { 'T', 'Z', 'i', 'f', (byte) version });
+    buf.put(new byte[15]);
+    buf.putInt(isUt.length);
+    buf.putInt(isStd.length);
+    int first = firstTransitionInBlock(timeSize);
+    int end = endTransitionInBlock(timeSize);
+    buf.putInt(countFitting(leapTimes, timeSize));
+    buf.putInt(end - first);
+    buf.putInt(typeOffsets.length);
+    buf.putInt(abbreviations.length);
+    for (int i = first; i < end; ++i) {
+      long time = transitionTimes[i];
+      putTime(buf, timeSize == 4 ? Math.max(time, Integer.MIN_VALUE) : time, timeSize);
+    }
+    for (int i = first; i < end; ++i) {
+      buf.put((byte) transitionTypes[i]);
+    }
+    for (int i = 0; i < typeOffsets.length; ++i) {
+      buf.putInt(typeOffsets[i]);
+      buf.put((byte) (typeIsDst[i] ? 1 : 0));
+      buf.put((byte) typeAbbreviationIndexes[i]);
+    }
+    buf.put(abbreviations);
+    for (int i = 0; i < leapTimes.length; ++i) {
+      if (fits(leapTimes[i], timeSize)) {
+        putTime(buf, leapTimes[i], timeSize);
+        buf.putInt(leapCorrections[i]);
+      }
+    }
+    for (boolean b : isStd) {
+      buf.put((byte) (b ? 1 : 0));
+    }
+    for (boolean b : isUt) {
+      buf.put((byte) (b ? 1 : 0));
+    }
+  }
+
+  private static void putTime(ByteBuffer buf, long time, int timeSize) {
+    if (timeSize == 4) {
+      buf.putInt((int) time);
+    } else {
+      buf.putLong(time);
+    }
+  }
+
+  // Returns the contents of the version 1 block of 'bytes' alone, which is what readers that do
+  // not understand later versions see. The result is a version 1 file.
+  static TzifFile parseVersion1Block(byte[] bytes, String name) {
+    ByteBuffer buf = ByteBuffer.wrap(bytes);
+    try {
+      readHeaderVersion(buf, name);
+      return readBlock(buf, 0, 4, name);
+    } catch (BufferUnderflowException e) {
+      throw new RuntimeException("truncated zic output file: " + name);
+    }
+  }
+
+  static TzifFile parse(byte[] bytes, String name) {
+    ByteBuffer buf = ByteBuffer.wrap(bytes);
+    try {
+      int version = readHeaderVersion(buf, name);
+      if (version == 0) {
+        return readBlock(buf, version, 4, name);
+      }
+      // Skip the version 1 block and use the 64-bit one that follows it.
+      int[] counts = readCounts(buf);
+      buf.position(buf.position() + blockLength(counts, 4));
+      readHeaderVersion(buf, name);
+      return readBlock(buf, version, 8, name);
+    } catch (BufferUnderflowException e) {
+      throw new RuntimeException("truncated zic output file: " + name);
+    }
+  }
+
+  private static int readHeaderVersion(ByteBuffer buf, String name) {
+    if (buf.get() != 'T' || buf.get() != 'Z' || buf.get() != 'i' || buf.get() != 'f') {
+      throw new RuntimeException("not a zic output file: " + name);
+    }
+    int version = buf.get() & 0xff;
+    buf.position(buf.position() + 15);
+    return version;
+  }
+
+  // Reads tzh_ttisutcnt, tzh_ttisstdcnt, tzh_leapcnt, tzh_timecnt, tzh_typecnt and tzh_charcnt,
+  // leaving 'buf' positioned at the start of the data block.
+  private static int[] readCounts(ByteBuffer buf) {
+    int[] counts = new int[6];
+    for (int i = 0; i < counts.length; ++i) {
+      counts[i] = buf.getInt();
+    }
+    return counts;
+  }
+
+  private static int blockLength(int[] counts, int timeSize) {
+    int isutcnt = counts[0];
+    int isstdcnt = counts[1];
+    int leapcnt = counts[2];
+    int timecnt = counts[3];
+    int typecnt = counts[4];
+    int charcnt = counts[5];
+    return timecnt * timeSize + timecnt + typecnt * 6 + charcnt + leapcnt * (timeSize + 4)
+        + isstdcnt + isutcnt;
+  }
+
+  private static TzifFile readBlock(ByteBuffer buf, int version, int timeSize, String name) {
+    int[] counts = readCounts(buf);
+    int isutcnt = counts[0];
+    int isstdcnt = counts[1];
+    int leapcnt = counts[2];
+    int timecnt = counts[3];
+    int typecnt = counts[4];
+    int charcnt = counts[5];
+    for (int count : counts) {
+      if (count < 0) {
+        throw new RuntimeException("bad header in zic output file: " + name);
+      }
+    }
+
+    long[] transitionTimes = new long[timecnt];
+    for (int i = 0; i < timecnt; ++i) {
+      transitionTimes[i] = timeSize == 4 ? buf.getInt() : buf.getLong();
+    }
+    int[] transitionTypes = new int[timecnt];
+    for (int i = 0; i < timecnt; ++i) {
+      transitionTypes[i] = buf.get() & 0xff;
+      if (transitionTypes[i] >= typecnt) {
+        throw new RuntimeException("bad transition type in zic output file: " + name);
+      }
+    }
+    int[] typeOffsets = new int[typecnt];
+    boolean[] typeIsDst = new boolean[typecnt];
+    int[] typeAbbreviationIndexes = new int[typecnt];
+    for (int i = 0; i < typecnt; ++i) {
+      typeOffsets[i] = buf.getInt();
+      typeIsDst[i] = buf.get() != 0;
+      typeAbbreviationIndexes[i] = buf.get() & 0xff;
+    }
+    byte[] abbreviations = new byte[charcnt];
+    buf.get(abbreviations);
+    long[] leapTimes = new long[leapcnt];
+    int[] leapCorrections = new int[leapcnt];
+    for (int i = 0; i < leapcnt; ++i) {
+      leapTimes[i] = timeSize == 4 ? buf.getInt() : buf.getLong();
+      leapCorrections[i] = buf.getInt();
+    }
+    boolean[] isStd = new boolean[isstdcnt];
+    for (int i = 0; i < isstdcnt; ++i) {
+      isStd[i] = buf.get() != 0;
+    }
+    boolean[] isUt = new boolean[isutcnt];
+    for (int i = 0; i < isutcnt; ++i) {
+      isUt[i] = buf.get() != 0;
+    }
+
+    String footer = null;
+    if (version != 0) {
+      if (buf.get() != '\n') {
+        throw new RuntimeException("bad footer in zic output file: " + name);
+      }
+      StringBuilder sb = new StringBuilder();
+      byte b;
+      while ((b = buf.get()) != '\n') {
+        sb.append((char) (b & 0xff));
+      }
+      footer = sb.toString();
+    }
+    return new TzifFile(version, transitionTimes, transitionTypes, typeOffsets, typeIsDst,
+        typeAbbreviationIndexes, abbreviations, leapTimes, leapCorrections, isStd, isUt, footer);
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.*;
+
+// Builds the year buckets section, which lets readers find the offset from UTC of a zone at an
+// instant in a range of years by indexing the year's bucket and comparing against the one or two
+// transitions in it, instead of binary searching all of the zone's transitions. The transitions
+// come from the zic output and, after its last transition, from the POSIX TZ string in its
+// footer, so the range may extend past the end of the explicit data. Only transitions that change
+// the offset are kept.
+//
+// The section has the form:
+//
+// int first_year
+// int year_count
+// int count -- the number of index slots
+// int reserved -- 0
+// long[year_count + 1] year_starts -- the start of each year in UTC, and the end of the range, in
+//     seconds since the epoch
+// int[count] table_offsets -- from the start of the section; zones with the same table share it
+// the tables, each starting on an 8-byte boundary:
+//   int transition_count
+//   int initial_offset -- total offset from UTC in seconds at the start of the range
+//   int[year_count + 1] bucket_starts -- the first transition in each year; the last is
+//       transition_count
+//   padding to an 8-byte boundary
+//   long[transition_count] transition_times -- seconds since the epoch, ascending
+//   int[transition_count] offsets -- total offset from UTC in seconds from each transition
+//
+// The transitions in year first_year + y are bucket_starts[y] to bucket_starts[y + 1] - 1. The
+// offset in force at the start of that year is that of the transition before bucket_starts[y],
+// or initial_offset if there is none.
+class YearBuckets {
+  private static final int HEADER_SIZE = 4 + 4 + 4 + 4;
+
+  // Returns the table for 'tzif' for the years from 'firstYear' to 'lastYear' inclusive.
+  static ByteBuffer buildTable(TzifFile tzif, int firstYear, int lastYear, String name) {
+    long[] yearStarts = yearStarts(firstYear, lastYear);
+    long rangeStart = yearStarts[0];
+    long rangeEnd = yearStarts[yearStarts.length - 1];
+
+    // All transitions up to the end of the range, as { time, offset } pairs: the explicit ones,
+    // then the ones from the footer after the last explicit one.
+    List<long[]> transitions = new ArrayList<long[]>();
+    int n = tzif.transitionTimes.length;
+    for (int i = 0; i < n; ++i) {
+      transitions.add(new long[] {
+          tzif.transitionTimes[i], tzif.typeOffsets[tzif.transitionTypes[i]] });
+    }
+    if (tzif.footer != null && !tzif.footer.isEmpty()) {
+      PosixTz rule = PosixTz.parse(tzif.footer, name);
+      long lastTime = n == 0 ? Long.MIN_VALUE : tzif.transitionTimes[n - 1];
+      // Rule transitions near the start of a year in local time can fall in the year before in
+      // UTC, and the other way around.
+      int fromYear = lastTime < rangeStart ? firstYear - 1
+          : LocalDate.ofEpochDay(Math.floorDiv(lastTime, 24 * 60 * 60)).getYear();
+      if (n == 0) {
+        // The footer applies at all times.
+        transitions.add(new long[] { Long.MIN_VALUE, rule.stdOffset });
+      }
+      for (int year = fromYear; year <= lastYear + 1; ++year) {
+        for (long[] transition : rule.transitions(year)) {
+          if (transition[0] > lastTime) {
+            transitions.add(transition);
+          }
+        }
+      }
+      // Stable, so that of two transitions at the same time the later one in the rules wins.
+      Collections.sort(transitions.subList(n, transitions.size()), new Comparator<long[]>() {
+        public int compare(long[] a, long[] b) {
+          return Long.compare(a[0], b[0]);
+        }
+      });
+    }
+
+    // Local time before the first transition is described by type 0.
+    long offset = tzif.typeOffsets.length == 0 ? 0 : tzif.typeOffsets[0];
+    int index = 0;
+    while (index < transitions.size() && transitions.get(index)[0] < rangeStart) {
+      offset = transitions.get(index++)[1];
+    }
+    int initialOffset = (int) offset;
+    List<long[]> kept = new ArrayList<long[]>();
+    for (; index < transitions.size() && transitions.get(index)[0] < rangeEnd; ++index) {
+      long[] transition = transitions.get(index);
+      if (!kept.isEmpty() && kept.get(kept.size() - 1)[0] == transition[0]) {
+        kept.remove(kept.size() - 1);
+        offset = kept.isEmpty() ? initialOffset : kept.get(kept.size() - 1)[1];
+      }
+      if (transition[1] != offset) {
+        kept.add(transition);
+        offset = transition[1];
+      }
+    }
+
+    int yearCount = lastYear - firstYear + 1;
+    int timesOffset = align(8 + 4 * (yearCount + 1));
+    ByteBuffer table = ByteBuffer.allocate(timesOffset + 12 * kept.size());
+    table.putInt(kept.size());
+    table.putInt(initialOffset);
+    int transition = 0;
+    for (int year = 0; year <= yearCount; ++year) {
+      while (transition < kept.size() && kept.get(transition)[0] < yearStarts[year]) {
+        ++transition;
+      }
+      table.putInt(transition);
+    }
+    table.position(timesOffset);
+    for (long[] t : kept) {
+      table.putLong(t[0]);
+    }
+    for (long[] t : kept) {
+      table.putInt((int) t[1]);
+    }
+    table.flip();
+    return table;
+  }
+
+  // Returns the section for the index slots in 'tables'. Slots whose tables have the same
+  // contents share a copy in the section.
+  static ByteBuffer build(int firstYear, int lastYear, List<ByteBuffer> tables) {
+    long[] yearStarts = yearStarts(firstYear, lastYear);
+    // ByteBuffer equality is content equality.
+    Map<ByteBuffer,Integer> tableOffsets = new LinkedHashMap<ByteBuffer,Integer>();
+    int length = align(HEADER_SIZE + 8 * yearStarts.length + 4 * tables.size());
+    for (ByteBuffer table : tables) {
+      if (!tableOffsets.containsKey(table)) {
+        tableOffsets.put(table, length);
+        length = align(length + table.remaining());
+      }
+    }
+
+    ByteBuffer section = ByteBuffer.allocate(length);
+    section.putInt(firstYear);
+    section.putInt(yearStarts.length - 1);
+    section.putInt(tables.size());
+    section.putInt(0);
+    for (long yearStart : yearStarts) {
+      section.putLong(yearStart);
+    }
+    for (ByteBuffer table : tables) {
+      section.putInt(tableOffsets.get(table));
+    }
+    for (Map.Entry<ByteBuffer,Integer> entry : tableOffsets.entrySet()) {
+      section.position(entry.getValue());
+      section.put(entry.getKey().duplicate());
+    }
+    section.position(0);
+    return section;
+  }
+
+  private static long[] yearStarts(int firstYear, int lastYear) {
+    long[] yearStarts = new long[lastYear - firstYear + 2];
+    for (int i = 0; i < yearStarts.length; ++i) {
+      yearStarts[i] = LocalDate.of(firstYear + i, 1, 1).toEpochDay() * 24 * 60 * 60;
+    }
+    return yearStarts;
+  }
+
+  private static int align(int offset) {
+    return (offset + 7) & ~7;
+  }
+}
@@ -15,7 +15,21 @@
  */
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.*;
 
 // usage: java ZoneCompiler <setup file> <data directory> <output directory> <tzdata version>
 //
@@ -37,47 +51,598 @@ import java.util.*;
 // (such as 'africa' or 'northamerica') to a directory
 // hierarchy suitable for this tool (containing files such as 'data/Africa/Abidjan').
 //
+// Options, which follow the positional arguments:
+//
+// --dedup  Store byte-identical zone files once, even when they are not declared as links.
+// --perfect-hash  Add a section that maps zone names to index slots with a minimal perfect
+//     hash. See PerfectHash.
+// --transitions  Add a section of pre-decoded transition tables. See TransitionTables.
+// --checksums  Add a section with checksums of the index, zone.tab and every zone payload, so
+//     that the file can be checked without parsing the zones. See Checksums.
+// --compact-index  Replace the fixed-size index entries with a front-coded name dictionary
+//     section, which is several times smaller and allows names longer than 39 characters. The
+//     version prefix becomes "tzidx" instead of "tzdata". See NameDictionary.
+// --alias-table  Leave links out of the index and put them in an alias section that maps each
+//     to the index slot of the zone it is for. Needs --compact-index. See NameDictionary.
+// --country-index  Add a section that maps each country code in zone.tab to the index slots of
+//     its zones. See CountryIndex.
+// --rules  Add a section that holds the POSIX TZ string from the footer of each zone's zic
+//     output, shared between zones with the same rule. See PosixRules.
+// --year-buckets=<first year>:<last year>  Add a section that buckets the transitions of each
+//     zone by year, from the start of <first year> to the end of <last year> (UTC), for offset
+//     lookups without a binary search. The years may go past the last transition in the zone
+//     file; the footer is used after it. See YearBuckets.
+// --align=<n>  Start each zone payload and each section on a multiple of <n> bytes from the start
+//     of the file, padding with zeros. <n> must be a power of two.
+// --compressed-blocks=<size>  Also write tzdata_compressed, a variant of tzdata whose data
+//     section is compressed in independent blocks of about <size> bytes. See CompressedBlocks.
+// --window=<first year>:<last year>  Rewrite each zone file to keep only the transitions needed
+//     from the start of <first year> to the end of <last year> (UTC). Local time is unchanged
+//     throughout the window, which is checked for every zone, both in the 64-bit data and in the
+//     version 1 block as far as it reaches; outside the window, it is unspecified.
+// --formats=<format>[,<format>...]  What to write to the output directory, all in one pass over
+//     the zone files: "tzdata" for the packed tzdata file (the default), "zoneinfo" for a
+//     zoneinfo/ directory tree with one zic output file per zone, links as hard links and
+//     zone.tab, as used by JVMs that read zone files directly, and "json" for tzdata.json, an
+//     index of every zone for tooling. See ZoneTreeSink and JsonIndexSink.
+// --no-verify  Do not read tzdata back after writing it. By default every header field, section,
+//     index slot, payload and zone.tab is checked against what was meant to be written, in
+//     parallel, and a bad tzdata is deleted.
+// --verbose  Report statistics, such as how long verification took, on standard output.
+//
+// The same work can be done in-process with a Builder, which also accepts the setup file, zone
+// files and zone.tab as data in memory. The resulting ZoneCompactor can be written to any
+// WritableByteChannel or to any Sinks, any number of times, and many can be built in one JVM.
+//
 
 public class ZoneCompactor {
   // Maximum number of characters in a zone name, including '\0' terminator.
   private static final int MAXNAME = 40;
 
+  // Size of the fixed header: tzdata_version, index_offset, data_offset and zonetab_offset.
+  private static final int HEADER_SIZE = 12 + 4 + 4 + 4;
+
+  // Size of an index entry: name, offset, length and the unused raw GMT offset.
+  private static final int INDEX_ENTRY_SIZE = MAXNAME + 4 + 4 + 4;
+
+  // Size of the start of the header extension: the 'tzex' magic and the section count.
+  private static final int EXTENSION_HEADER_SIZE = 4 + 4;
+
+  // Size of a section directory entry: tag, offset and length.
+  private static final int SECTION_ENTRY_SIZE = 4 + 4 + 4;
+
+  // Sections start on a multiple of at least this, so that they can hold naturally aligned longs.
+  private static final int SECTION_ALIGNMENT = 8;
+
+  // The magic bytes at the start of every file written by zic.
+  private static final byte[] TZIF_MAGIC = { 'T', 'Z', 'i', 'f' };
+
+  // Maximum number of zone files that are read concurrently.
+  private static final int MAX_IO_THREADS = 8;
+
   // Zone name synonyms.
   private Map<String,String> links = new HashMap<String,String>();
 
+  // The zone that each link is ultimately for, with chains of links resolved.
+  private Map<String,String> canonicalNames = new HashMap<String,String>();
+
   // File offsets by zone name.
   private Map<String,Integer> offsets = new HashMap<String,Integer>();
 
   // File lengths by zone name.
   private Map<String,Integer> lengths = new HashMap<String,Integer>();
 
-  // Concatenate the contents of 'inFile' onto 'out'.
-  private static void copyFile(File inFile, OutputStream out) throws Exception {
-    byte[] ret = new byte[0];
+  // The zones whose zic output makes up the data section, in setup file order.
+  private List<String> dataZoneNames = new ArrayList<String>();
+
+  // Zones whose zic output is identical to that of an earlier zone in dataZoneNames, mapped to
+  // that zone. Only populated when deduplicating.
+  private Map<String,String> duplicates = new HashMap<String,String>();
+
+  // The optional sections to write after the header, by tag, in the order they are written.
+  private Map<String,ByteBuffer> sections = new LinkedHashMap<String,ByteBuffer>();
+
+  private final Options options;
+
+  // The version written to the header.
+  private final String version;
+
+  // What was learned about each zone in dataZoneNames, in the same order.
+  private List<ZoneFile> zoneFiles;
+
+  // The header (including any sections), the index and zone.tab. These are the only parts of the
+  // output that are kept in memory; the zone payloads are read from their files when the output
+  // is written, unless they were supplied in memory or rewritten.
+  private ByteBuffer header;
+  private ByteBuffer index;
+  private byte[] zoneTabBytes;
+
+  // Where the data section starts, and its length.
+  private int dataOffset;
+  private int dataLength;
+
+  // Optional behavior, set from the command line.
+  public static class Options {
+    // Whether byte-identical zone files that are not declared as links are stored once.
+    public boolean deduplicate;
+
+    // Whether to add the perfect hash section.
+    public boolean perfectHash;
+
+    // Whether to add the section of pre-decoded transition tables.
+    public boolean transitions;
+
+    // What zone payloads and sections start on a multiple of.
+    public int alignment = 1;
+
+    // The target uncompressed size of the blocks of the compressed variant, or 0 if the variant
+    // is not written.
+    public int compressedBlockSize;
+
+    // Whether zone files are trimmed to [windowStart, windowEnd), in seconds since the epoch.
+    public boolean trimToWindow;
+    public long windowStart;
+    public long windowEnd;
+
+    // Whether to add the checksums section.
+    public boolean checksums;
+
+    // Whether to replace the index entries with a name dictionary section.
+    public boolean compactIndex;
+
+    // Whether links go in an alias section instead of the index. Needs compactIndex.
+    public boolean aliasTable;
+
+    // Whether to write a country section alongside the zone.tab text.
+    public boolean countryIndex;
+
+    // Whether to add the section of POSIX TZ rule strings from the zic output footers.
+    public boolean rules;
+
+    // Which formats writeToDirectory() writes: the packed tzdata, a zoneinfo directory tree and
+    // a JSON index.
+    public boolean packed = true;
+    public boolean zoneTree;
+    public boolean jsonIndex;
+
+    // Whether to read the tzdata back and check it after writing it to a directory.
+    public boolean verify = true;
+
+    // Whether to report statistics on standard output.
+    public boolean verbose;
+
+    // Whether to add the year buckets section for the years from yearBucketsFirst to
+    // yearBucketsLast inclusive.
+    public boolean yearBuckets;
+    public int yearBucketsFirst;
+    public int yearBucketsLast;
+
+    // Parses the options in 'args' from 'start' onwards.
+    public static Options parse(String[] args, int start) {
+      Options options = new Options();
+      for (int i = start; i < args.length; ++i) {
+        if (args[i].equals("--dedup")) {
+          options.deduplicate = true;
+        } else if (args[i].equals("--perfect-hash")) {
+          options.perfectHash = true;
+        } else if (args[i].equals("--transitions")) {
+          options.transitions = true;
+        } else if (args[i].equals("--checksums")) {
+          options.checksums = true;
+        } else if (args[i].equals("--compact-index")) {
+          options.compactIndex = true;
+        } else if (args[i].equals("--alias-table")) {
+          options.aliasTable = true;
+        } else if (args[i].equals("--country-index")) {
+          options.countryIndex = true;
+        } else if (args[i].equals("--rules")) {
+          options.rules = true;
+        } else if (args[i].startsWith("--formats=")) {
+          options.packed = false;
+          for (String format : args[i].substring("--formats=".length()).split(",")) {
+            if (format.equals("tzdata")) {
+              options.packed = true;
+            } else if (format.equals("zoneinfo")) {
+              options.zoneTree = true;
+            } else if (format.equals("json")) {
+              options.jsonIndex = true;
+            } else {
+              throw new IllegalArgumentException("unknown format: " + format);
+            }
+          }
+        } else if (args[i].equals("--no-verify")) {
+          options.verify = false;
+        } else if (args[i].equals("--verbose")) {
+          options.verbose = true;
+        } else if (args[i].startsWith("--year-buckets=")) {
+          String[] years = args[i].substring("--year-buckets=".length()).split(":");
+          if (years.length != 2) {
+            throw new IllegalArgumentException("bad year range: " + args[i]);
+          }
+          options.yearBuckets = true;
+          options.yearBucketsFirst = Integer.parseInt(years[0]);
+          options.yearBucketsLast = Integer.parseInt(years[1]);
+          if (options.yearBucketsFirst > options.yearBucketsLast) {
+            throw new IllegalArgumentException("empty year range: " + args[i]);
+          }
+        } else if (args[i].startsWith("--align=")) {
+          options.alignment = Integer.parseInt(args[i].substring("--align=".length()));
+          if (options.alignment <= 0 || Integer.bitCount(options.alignment) != 1) {
+            throw new IllegalArgumentException("alignment must be a power of two: " + args[i]);
+          }
+        } else if (args[i].startsWith("--compressed-blocks=")) {
+          options.compressedBlockSize =
+              Integer.parseInt(args[i].substring("--compressed-blocks=".length()));
+          if (options.compressedBlockSize <= 0) {
+            throw new IllegalArgumentException("bad block size: " + args[i]);
+          }
+        } else if (args[i].startsWith("--window=")) {
+          String[] years = args[i].substring("--window=".length()).split(":");
+          if (years.length != 2) {
+            throw new IllegalArgumentException("bad window: " + args[i]);
+          }
+          options.trimToWindow = true;
+          options.windowStart = startOfYear(Integer.parseInt(years[0]));
+          options.windowEnd = startOfYear(Integer.parseInt(years[1]) + 1);
+          if (options.windowStart >= options.windowEnd) {
+            throw new IllegalArgumentException("empty window: " + args[i]);
+          }
+        } else {
+          throw new IllegalArgumentException("unknown option: " + args[i]);
+        }
+      }
+      return options;
+    }
+
+    static long startOfYear(int year) {
+      return LocalDate.of(year, 1, 1).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+    }
+  }
+
+  // Receives the output of a ZoneCompactor in some format other than the packed tzdata. See
+  // writeTo(List).
+  public interface Sink {
+    // Receives the zic output stored for 'zoneName', which is at 'position' in the tzdata.
+    // Called once for each zone whose zic output is stored, possibly from several threads at
+    // once. 'contents' must not be modified.
+    void addZone(String zoneName, long position, ByteBuffer contents) throws Exception;
+
+    // Called once, after every zone has been added. 'zoneNames' maps every zone name, links
+    // included, to the zone whose zic output is stored for it. 'zoneTab' is zone.tab without
+    // its comments.
+    void finish(String version, SortedMap<String,String> zoneNames, byte[] zoneTab)
+        throws Exception;
+  }
+
+  // What was learned about a zone file while checking it.
+  private static class ZoneFile {
+    // Where the zic output is, or null if it was supplied in memory.
+    final Path path;
+
+    final long length;
+
+    // A digest of the contents, or null if the contents were not hashed.
+    final ByteBuffer digest;
+
+    // The decoded contents, or null if the contents were not decoded.
+    final TzifFile tzif;
+
+    // The contents to store, or null if they are transferred from 'path' when the output is
+    // written. Set for zones supplied in memory and for trimmed zones.
+    final byte[] contents;
+
+    // The checksum of the contents, or 0 if checksums were not asked for.
+    final int checksum;
+
+    ZoneFile(Path path, long length, ByteBuffer digest, TzifFile tzif, byte[] contents,
+        int checksum) {
+      this.path = path;
+      this.length = length;
+      this.digest = digest;
+      this.tzif = tzif;
+      this.contents = contents;
+      this.checksum = checksum;
+    }
+  }
+
+  // Checks that the zic output for 'zoneName', which is either in 'path' or is 'contents', looks
+  // like zic output and returns its length, and whatever else 'options' needs: a digest of the
+  // contents, a checksum of the contents and the decoded contents. If the contents are trimmed
+  // to a window, all of these describe the trimmed contents.
+  private static ZoneFile checkZoneFile(String zoneName, Path path, byte[] contents,
+      Options options) throws Exception {
+    boolean hash = options.deduplicate;
+    boolean decode =
+        options.transitions || options.trimToWindow || options.rules || options.yearBuckets;
+    String name = path != null ? path.toString() : zoneName;
+    byte[] stored = contents;
+    if (contents == null) {
+      long length;
+      FileChannel in = FileChannel.open(path, StandardOpenOption.READ);
+      try {
+        ByteBuffer magic = ByteBuffer.allocate(TZIF_MAGIC.length);
+        while (magic.hasRemaining() && in.read(magic) != -1) {
+        }
+        if (magic.hasRemaining() || !Arrays.equals(magic.array(), TZIF_MAGIC)) {
+          throw new RuntimeException("not a zic output file: " + name);
+        }
+        length = in.size();
+      } finally {
+        in.close();
+      }
+      if (!hash && !decode && !options.checksums) {
+        return new ZoneFile(path, length, null, null, null, 0);
+      }
+      contents = Files.readAllBytes(path);
+    } else if (contents.length < TZIF_MAGIC.length
+        || !Arrays.equals(Arrays.copyOf(contents, TZIF_MAGIC.length), TZIF_MAGIC)) {
+      throw new RuntimeException("not zic output: " + name);
+    }
+
+    TzifFile tzif = null;
+    if (decode) {
+      tzif = TzifFile.parse(contents, name);
+    }
+    if (options.trimToWindow) {
+      TzifFile trimmed = tzif.trim(options.windowStart, options.windowEnd);
+      tzif.checkEquivalent(trimmed, options.windowStart, options.windowEnd, name);
+      byte[] trimmedContents = trimmed.toBytes();
+      // Readers that only use the version 1 block must not see a difference either.
+      TzifFile.checkVersion1BlocksEquivalent(contents, trimmedContents, options.windowStart,
+          options.windowEnd, name);
+      tzif = trimmed;
+      contents = stored = trimmedContents;
+    }
+    ByteBuffer digest = null;
+    if (hash) {
+      // ByteBuffer equality is content equality, so the digest can be used as a map key.
+      digest = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(contents));
+    }
+    int checksum = 0;
+    if (options.checksums) {
+      checksum = Checksums.checksum(ByteBuffer.wrap(contents));
+    }
+    return new ZoneFile(path, contents.length, digest, tzif, stored, checksum);
+  }
+
+  // Transfers the whole of 'inFile' to 'out' at 'outPosition'. The bytes are moved by the
+  // channels without being copied into the heap, and the transfer does not depend on the
+  // position of 'out', so several files may be transferred into it concurrently.
+  // 'expectedLength' is the length that was used when laying out the output file; it is an
+  // error for the file to have changed since.
+  private static void transferFile(Path inFile, long expectedLength, FileChannel out,
+      long outPosition) throws Exception {
+    FileChannel in = FileChannel.open(inFile, StandardOpenOption.READ);
+    try {
+      if (in.size() != expectedLength) {
+        throw new RuntimeException("zone file changed size during compaction: " + inFile);
+      }
+      long transferred = 0;
+      while (transferred < expectedLength) {
+        long nbytes = out.transferFrom(in, outPosition + transferred,
+            expectedLength - transferred);
+        if (nbytes <= 0) {
+          throw new RuntimeException("short transfer from: " + inFile);
+        }
+        transferred += nbytes;
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  // Transfers the whole of 'inFile' to 'out' at its current position.
+  private static void transferFile(Path inFile, long expectedLength, WritableByteChannel out)
+      throws Exception {
+    FileChannel in = FileChannel.open(inFile, StandardOpenOption.READ);
+    try {
+      if (in.size() != expectedLength) {
+        throw new RuntimeException("zone file changed size during compaction: " + inFile);
+      }
+      long transferred = 0;
+      while (transferred < expectedLength) {
+        long nbytes = in.transferTo(transferred, expectedLength - transferred, out);
+        if (nbytes <= 0) {
+          throw new RuntimeException("short transfer from: " + inFile);
+        }
+        transferred += nbytes;
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  // Runs 'tasks' on 'executor' and returns their results in the same order as the tasks.
+  private static <T> List<T> invokeAllInOrder(ExecutorService executor,
+      List<Callable<T>> tasks) throws Exception {
+    List<T> results = new ArrayList<T>(tasks.size());
+    for (Future<T> future : executor.invokeAll(tasks)) {
+      try {
+        results.add(future.get());
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Exception) {
+          throw (Exception) cause;
+        }
+        throw e;
+      }
+    }
+    return results;
+  }
+
+  // Writes all of 'buffer' to 'out' at 'position'.
+  private static void writeFully(FileChannel out, long position, ByteBuffer buffer)
+      throws Exception {
+    while (buffer.hasRemaining()) {
+      position += out.write(buffer, position);
+    }
+  }
 
-    InputStream in = new FileInputStream(inFile);
-    byte[] buf = new byte[8192];
-    while (true) {
-      int nbytes = in.read(buf);
-      if (nbytes == -1) {
-        break;
+  // Writes all of 'buffers' to 'out' at its current position, with gathering writes if 'out'
+  // supports them, as a FileChannel does.
+  private static void writeFully(WritableByteChannel out, ByteBuffer... buffers)
+      throws Exception {
+    if (out instanceof GatheringByteChannel) {
+      long remaining = 0;
+      for (ByteBuffer buffer : buffers) {
+        remaining += buffer.remaining();
+      }
+      while (remaining > 0) {
+        remaining -= ((GatheringByteChannel) out).write(buffers);
+      }
+      return;
+    }
+    for (ByteBuffer buffer : buffers) {
+      while (buffer.hasRemaining()) {
+        out.write(buffer);
       }
-      out.write(buf, 0, nbytes);
+    }
+  }
+
+  // The thread pool used to read and write zone files. It is shared by all instances and its
+  // threads are daemons, so that a JVM that builds many tzdata files only starts them once.
+  private static ExecutorService sharedExecutor;
 
-      byte[] nret = new byte[ret.length + nbytes];
-      System.arraycopy(ret, 0, nret, 0, ret.length);
-      System.arraycopy(buf, 0, nret, ret.length, nbytes);
-      ret = nret;
+  private static synchronized ExecutorService executor() {
+    if (sharedExecutor == null) {
+      sharedExecutor = Executors.newFixedThreadPool(
+          Math.min(Runtime.getRuntime().availableProcessors(), MAX_IO_THREADS),
+          new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+              Thread thread = new Thread(r, "ZoneCompactor");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+    }
+    return sharedExecutor;
+  }
+
+  // Collects the inputs for a ZoneCompactor. The setup file, the zone files and zone.tab can
+  // each come from a file or from memory. Zones added with addZoneData() take precedence over
+  // files in the data directory.
+  public static class Builder {
+    private Path setupFile;
+    private String setup;
+    private Path dataDirectory;
+    private Map<String,byte[]> zoneData = new HashMap<String,byte[]>();
+    private Path zoneTabFile;
+    private String zoneTab;
+    private String version;
+    private Options options = new Options();
+
+    public Builder setSetupFile(Path setupFile) {
+      this.setupFile = setupFile;
+      this.setup = null;
+      return this;
+    }
+
+    // Sets the contents of the setup file.
+    public Builder setSetup(String setup) {
+      this.setup = setup;
+      this.setupFile = null;
+      return this;
+    }
+
+    public Builder setDataDirectory(Path dataDirectory) {
+      this.dataDirectory = dataDirectory;
+      return this;
+    }
+
+    // Supplies the zic output for 'zoneName'.
+    public Builder addZoneData(String zoneName, byte[] contents) {
+      zoneData.put(zoneName, contents);
+      return this;
+    }
+
+    public Builder setZoneTabFile(Path zoneTabFile) {
+      this.zoneTabFile = zoneTabFile;
+      this.zoneTab = null;
+      return this;
+    }
+
+    // Sets the contents of zone.tab.
+    public Builder setZoneTab(String zoneTab) {
+      this.zoneTab = zoneTab;
+      this.zoneTabFile = null;
+      return this;
+    }
+
+    // Sets the version written to the header, e.g. "tzdata2019b".
+    public Builder setVersion(String version) {
+      this.version = version;
+      return this;
+    }
+
+    public Builder setOptions(Options options) {
+      this.options = options;
+      return this;
+    }
+
+    // Reads and checks the inputs and lays out the tzdata. Nothing is written until one of the
+    // write methods of the result is called, and it can be written any number of times.
+    public ZoneCompactor build() throws Exception {
+      if ((setupFile == null && setup == null) || (zoneTabFile == null && zoneTab == null)
+          || version == null) {
+        throw new IllegalStateException("setup, zone.tab and version are required");
+      }
+      return new ZoneCompactor(this);
+    }
+
+    private BufferedReader openSetup() throws Exception {
+      return setup != null ? new BufferedReader(new StringReader(setup))
+          : new BufferedReader(new FileReader(setupFile.toFile()));
+    }
+
+    private BufferedReader openZoneTab() throws Exception {
+      return zoneTab != null ? new BufferedReader(new StringReader(zoneTab))
+          : new BufferedReader(new FileReader(zoneTabFile.toFile()));
+    }
+
+    private Path zonePath(String zoneName) {
+      if (dataDirectory == null) {
+        throw new RuntimeException("no data for zone: " + zoneName);
+      }
+      return dataDirectory.resolve(zoneName);
     }
-    out.flush();
   }
 
   public ZoneCompactor(String setupFile, String dataDirectory, String zoneTabFile, String outputDirectory, String version) throws Exception {
-    // Read the setup file and concatenate all the data.
-    ByteArrayOutputStream allData = new ByteArrayOutputStream();
-    BufferedReader reader = new BufferedReader(new FileReader(setupFile));
+    this(setupFile, dataDirectory, zoneTabFile, outputDirectory, version, new Options());
+  }
+
+  public ZoneCompactor(String setupFile, String dataDirectory, String zoneTabFile,
+      String outputDirectory, String version, Options options) throws Exception {
+    this(new Builder()
+        .setSetupFile(Paths.get(setupFile))
+        .setDataDirectory(Paths.get(dataDirectory))
+        .setZoneTabFile(Paths.get(zoneTabFile))
+        .setVersion(version)
+        .setOptions(options));
+    writeToDirectory(Paths.get(outputDirectory));
+  }
+
+  private ZoneCompactor(final Builder builder) throws Exception {
+    this.options = builder.options;
+    this.version = builder.version;
+    if (options.aliasTable && !options.compactIndex) {
+      // Readers of files with index entries would not know to look in the alias section.
+      throw new IllegalArgumentException("an alias table needs a compact index");
+    }
+    if (!options.packed && options.compressedBlockSize > 0) {
+      // It is made from the tzdata file.
+      throw new IllegalArgumentException("the compressed variant needs the tzdata format");
+    }
+    if (options.yearBuckets && options.trimToWindow
+        && (Options.startOfYear(options.yearBucketsFirst) < options.windowStart
+            || Options.startOfYear(options.yearBucketsLast + 1) > options.windowEnd)) {
+      // Local time outside the window is unspecified once zone files are trimmed.
+      throw new IllegalArgumentException("year buckets outside the window");
+    }
+
+    // Read the setup file.
+    BufferedReader reader = builder.openSetup();
     String s;
-    int offset = 0;
     while ((s = reader.readLine()) != null) {
       s = s.trim();
       if (s.startsWith("Link")) {
@@ -89,102 +654,771 @@ public class ZoneCompactor {
       } else {
         String link = links.get(s);
         if (link == null) {
-          File sourceFile = new File(dataDirectory, s);
-          long length = sourceFile.length();
-          offsets.put(s, offset);
-          lengths.put(s, (int) length);
-
-          offset += length;
-          copyFile(sourceFile, allData);
+          dataZoneNames.add(s);
         }
       }
     }
     reader.close();
+    resolveLinks();
 
-    // Fill in fields for links.
-    Iterator<String> it = links.keySet().iterator();
-    while (it.hasNext()) {
-      String from = it.next();
-      String to = links.get(from);
-
-      offsets.put(from, offsets.get(to));
-      lengths.put(from, lengths.get(to));
+    // Check the zone files in parallel, then lay out the data section in setup file order. Only
+    // the sizes of the zone files are needed here: their contents are transferred straight into
+    // the output when it is written, unless they are already in memory.
+    List<Callable<ZoneFile>> checkTasks = new ArrayList<Callable<ZoneFile>>();
+    for (final String zoneName : dataZoneNames) {
+      checkTasks.add(new Callable<ZoneFile>() {
+        public ZoneFile call() throws Exception {
+          byte[] contents = builder.zoneData.get(zoneName);
+          return checkZoneFile(zoneName, contents == null ? builder.zonePath(zoneName) : null,
+              contents, options);
+        }
+      });
     }
+    zoneFiles = invokeAllInOrder(executor(), checkTasks);
+    Map<String,ZoneFile> zoneFilesByName = new HashMap<String,ZoneFile>();
+    for (int i = 0; i < dataZoneNames.size(); ++i) {
+      zoneFilesByName.put(dataZoneNames.get(i), zoneFiles.get(i));
+    }
+    Map<ByteBuffer,String> zoneNamesByDigest = new HashMap<ByteBuffer,String>();
+    int offset = 0;
+    long savedBytes = 0;
+    for (int i = 0; i < dataZoneNames.size(); ++i) {
+      String zoneName = dataZoneNames.get(i);
+      ZoneFile zoneFile = zoneFiles.get(i);
+      if (options.deduplicate) {
+        String original = zoneNamesByDigest.get(zoneFile.digest);
+        if (original != null) {
+          // Share the data of the first zone with the same contents.
+          duplicates.put(zoneName, original);
+          offsets.put(zoneName, offsets.get(original));
+          lengths.put(zoneName, lengths.get(original));
+          savedBytes += zoneFile.length;
+          continue;
+        }
+        zoneNamesByDigest.put(zoneFile.digest, zoneName);
+      }
+      long length = zoneFile.length;
+      offset = align(offset, options.alignment);
+      // Offsets and lengths are stored as ints, so the data section must stay below 2GiB.
+      if (offset < 0 || length > Integer.MAX_VALUE - offset) {
+        throw new RuntimeException("data section too large at " + zoneName + ": "
+            + (offset < 0 ? (long) offset + (1L << 32) : offset + length) + " bytes");
+      }
+      offsets.put(zoneName, offset);
+      lengths.put(zoneName, (int) length);
 
-    // Create/truncate the destination file.
-    RandomAccessFile f = new RandomAccessFile(new File(outputDirectory, "tzdata"), "rw");
-    f.setLength(0);
-
-    // Write the header.
-
-    // byte[12] tzdata_version -- 'tzdata2012f\0'
-    // int index_offset -- so we can slip in extra header fields in a backwards-compatible way
-    // int data_offset
-    // int zonetab_offset
-
-    // tzdata_version
-    f.write(toAscii(new byte[12], version));
-
-    // Write dummy values for the three offsets, and remember where we need to seek back to later
-    // when we have the real values.
-    int index_offset_offset = (int) f.getFilePointer();
-    f.writeInt(0);
-    int data_offset_offset = (int) f.getFilePointer();
-    f.writeInt(0);
-    int zonetab_offset_offset = (int) f.getFilePointer();
-    f.writeInt(0);
-
-    int index_offset = (int) f.getFilePointer();
+      offset += (int) length;
+    }
+    if (options.deduplicate) {
+      log("Deduplicated " + duplicates.size() + " zones, saving " + savedBytes + " bytes");
+    }
 
-    // Write the index.
+    // Fill in fields for links, unless they go in the alias section instead of the index.
     ArrayList<String> sortedOlsonIds = new ArrayList<String>();
     sortedOlsonIds.addAll(offsets.keySet());
+    ArrayList<String> sortedAliases = new ArrayList<String>();
+    for (String from : canonicalNames.keySet()) {
+      if (options.aliasTable) {
+        sortedAliases.add(from);
+      } else {
+        offsets.put(from, offsets.get(canonicalNames.get(from)));
+        lengths.put(from, lengths.get(canonicalNames.get(from)));
+        sortedOlsonIds.add(from);
+      }
+    }
     Collections.sort(sortedOlsonIds);
-    it = sortedOlsonIds.iterator();
+    Collections.sort(sortedAliases);
+
+    // Build the index. It does not depend on where anything else goes. A compact index replaces
+    // it with a name dictionary section, which goes before any other section.
+    if (options.compactIndex) {
+      int[] payloadOffsets = new int[sortedOlsonIds.size()];
+      int[] payloadLengths = new int[sortedOlsonIds.size()];
+      for (int i = 0; i < payloadOffsets.length; ++i) {
+        String actualZoneName = canonicalName(sortedOlsonIds.get(i));
+        payloadOffsets[i] = offsets.get(actualZoneName);
+        payloadLengths[i] = lengths.get(actualZoneName);
+      }
+      sections.put("zdic",
+          NameDictionary.build(sortedOlsonIds, payloadOffsets, payloadLengths));
+    }
+    if (options.aliasTable) {
+      int[] aliasSlots = new int[sortedAliases.size()];
+      for (int i = 0; i < aliasSlots.length; ++i) {
+        aliasSlots[i] =
+            Collections.binarySearch(sortedOlsonIds, canonicalNames.get(sortedAliases.get(i)));
+      }
+      sections.put("zals", NameDictionary.build(sortedAliases, aliasSlots));
+    }
+    int indexEntries = options.compactIndex ? 0 : sortedOlsonIds.size();
+    index = ByteBuffer.allocate(indexEntries * INDEX_ENTRY_SIZE);
+    Iterator<String> it = sortedOlsonIds.subList(0, indexEntries).iterator();
     while (it.hasNext()) {
       String zoneName = it.next();
       if (zoneName.length() >= MAXNAME) {
         throw new RuntimeException("zone filename too long: " + zoneName.length());
       }
 
-      // Follow the chain of links to work out where the real data for this zone lives.
-      String actualZoneName = zoneName;
-      while (links.get(actualZoneName) != null) {
-        actualZoneName = links.get(actualZoneName);
+      // Links were resolved to the zone whose data they share when the setup file was read.
+      String actualZoneName = canonicalName(zoneName);
+
+      index.put(toAscii(new byte[MAXNAME], zoneName));
+      index.putInt(offsets.get(actualZoneName));
+      index.putInt(lengths.get(actualZoneName));
+      index.putInt(0); // Used to be raw GMT offset. No longer used.
+    }
+    index.flip();
+
+    // Strip the comments from the zone.tab. Its lines are country code, coordinates, zone name
+    // and optional comments, separated by tabs.
+    ByteArrayOutputStream zoneTab = new ByteArrayOutputStream();
+    SortedMap<String,List<Integer>> slotsByCountry = new TreeMap<String,List<Integer>>();
+    reader = builder.openZoneTab();
+    while ((s = reader.readLine()) != null) {
+      if (!s.startsWith("#")) {
+        for (int i = 0; i < s.length(); ++i) {
+          zoneTab.write((byte) s.charAt(i));
+        }
+        zoneTab.write('\n');
+        if (options.countryIndex && !s.isEmpty()) {
+          String[] fields = s.split("\t");
+          if (fields.length < 3) {
+            throw new RuntimeException("bad zone.tab line: " + s);
+          }
+          List<Integer> slots = slotsByCountry.get(fields[0]);
+          if (slots == null) {
+            slots = new ArrayList<Integer>();
+            slotsByCountry.put(fields[0], slots);
+          }
+          slots.add(indexSlot(sortedOlsonIds, fields[2]));
+        }
       }
+    }
+    reader.close();
 
-      f.write(toAscii(new byte[MAXNAME], zoneName));
-      f.writeInt(offsets.get(actualZoneName));
-      f.writeInt(lengths.get(actualZoneName));
-      f.writeInt(0); // Used to be raw GMT offset. No longer used.
+    zoneTabBytes = zoneTab.toByteArray();
+
+    if (options.countryIndex) {
+      sections.put("zcty", CountryIndex.build(slotsByCountry));
+    }
+    if (options.perfectHash && !sortedOlsonIds.isEmpty()) {
+      sections.put("zhsh", PerfectHash.build(sortedOlsonIds));
+    }
+    if (options.transitions) {
+      Map<String,ByteBuffer> tablesByDataZone = new HashMap<String,ByteBuffer>();
+      List<ByteBuffer> tables = new ArrayList<ByteBuffer>();
+      for (String zoneName : sortedOlsonIds) {
+        String dataZoneName = dataZoneName(zoneName);
+        ByteBuffer table = tablesByDataZone.get(dataZoneName);
+        if (table == null) {
+          table = TransitionTables.buildTable(zoneFilesByName.get(dataZoneName).tzif);
+          tablesByDataZone.put(dataZoneName, table);
+        }
+        tables.add(table);
+      }
+      sections.put("ztrn", TransitionTables.build(tables));
+    }
+    if (options.yearBuckets) {
+      Map<String,ByteBuffer> tablesByDataZone = new HashMap<String,ByteBuffer>();
+      List<ByteBuffer> tables = new ArrayList<ByteBuffer>();
+      for (String zoneName : sortedOlsonIds) {
+        String dataZoneName = dataZoneName(zoneName);
+        ByteBuffer table = tablesByDataZone.get(dataZoneName);
+        if (table == null) {
+          table = YearBuckets.buildTable(zoneFilesByName.get(dataZoneName).tzif,
+              options.yearBucketsFirst, options.yearBucketsLast, dataZoneName);
+          tablesByDataZone.put(dataZoneName, table);
+        }
+        tables.add(table);
+      }
+      sections.put("zyrs",
+          YearBuckets.build(options.yearBucketsFirst, options.yearBucketsLast, tables));
+    }
+    if (options.rules) {
+      List<String> footers = new ArrayList<String>();
+      for (String zoneName : sortedOlsonIds) {
+        footers.add(zoneFilesByName.get(dataZoneName(zoneName)).tzif.footer);
+      }
+      sections.put("zrul", PosixRules.build(footers));
+    }
+    if (options.checksums) {
+      int[] payloadChecksums = new int[sortedOlsonIds.size()];
+      for (int i = 0; i < payloadChecksums.length; ++i) {
+        payloadChecksums[i] =
+            zoneFilesByName.get(dataZoneName(sortedOlsonIds.get(i))).checksum;
+      }
+      List<ByteBuffer> indexParts = new ArrayList<ByteBuffer>();
+      if (options.compactIndex) {
+        indexParts.add(sections.get("zdic"));
+        if (options.aliasTable) {
+          indexParts.add(sections.get("zals"));
+        }
+      } else {
+        indexParts.add(index);
+      }
+      sections.put("zcrc", Checksums.build(indexParts, zoneTabBytes, payloadChecksums));
     }
 
-    int data_offset = (int) f.getFilePointer();
+    // Work out where everything goes before writing anything. If payloads are aligned, the data
+    // section has to be too; the padding goes before the index, because readers work out the
+    // number of index entries from the distance between index_offset and data_offset.
+    int sectionAlignment = Math.max(SECTION_ALIGNMENT, options.alignment);
+    int indexLength = index.remaining();
+    int index_offset =
+        align(headerLength(sections, sectionAlignment) + indexLength, options.alignment)
+        - indexLength;
+    int data_offset = index_offset + indexLength;
+    if ((long) data_offset + offset + zoneTabBytes.length > Integer.MAX_VALUE) {
+      throw new RuntimeException("tzdata too large: "
+          + ((long) data_offset + offset + zoneTabBytes.length) + " bytes");
+    }
+    int zonetab_offset = data_offset + offset;
 
-    // Write the data.
-    f.write(allData.toByteArray());
+    // A file with a compact index has a different version prefix so that readers that expect
+    // index entries reject it.
+    header = buildHeader(options.compactIndex ? withVersionPrefix(version, "tzidx") : version,
+        sections, sectionAlignment, index_offset, data_offset, zonetab_offset);
+    dataOffset = data_offset;
+    dataLength = offset;
+  }
 
-    int zonetab_offset = (int) f.getFilePointer();
+  // Writes the formats that the options ask for to 'outputDirectory': tzdata, along with
+  // tzdata_compressed if the options ask for it, the zoneinfo tree and tzdata.json. Each zone
+  // file is read once for all of them.
+  public void writeToDirectory(Path outputDirectory) throws Exception {
+    final List<Sink> sinks = new ArrayList<Sink>();
+    if (options.zoneTree) {
+      sinks.add(new ZoneTreeSink(outputDirectory.resolve("zoneinfo")));
+    }
+    if (options.jsonIndex) {
+      sinks.add(new JsonIndexSink(outputDirectory.resolve("tzdata.json")));
+    }
+    if (!options.packed) {
+      writeTo(sinks);
+      return;
+    }
 
-    // Copy the zone.tab.
-    reader = new BufferedReader(new FileReader(zoneTabFile));
-    while ((s = reader.readLine()) != null) {
-      if (!s.startsWith("#")) {
-        f.writeBytes(s);
-        f.write('\n');
+    File outputFile = outputDirectory.resolve("tzdata").toFile();
+    try {
+      writeTzData(outputFile, sinks);
+    } catch (Exception e) {
+      // Make sure that nothing picks up a partly written file.
+      outputFile.delete();
+      throw e;
+    }
+    if (options.verify) {
+      verifyOrDelete(outputFile);
+    }
+
+    finish(sinks);
+
+    if (options.compressedBlockSize > 0) {
+      writeCompressedVariant(outputFile, dataOffset, dataLength, version, index.duplicate(),
+          zoneTabBytes, options.compressedBlockSize);
+    }
+  }
+
+  // Writes the tzdata to 'outputFile', giving the contents of each zone file to 'sinks' as well.
+  private void writeTzData(File outputFile, final List<Sink> sinks) throws Exception {
+    int data_offset = dataOffset;
+    int zonetab_offset = dataOffset + dataLength;
+    long outputLength = zonetab_offset + zoneTabBytes.length;
+
+    // Create/truncate the destination file and size it up front: the zone payloads are
+    // transferred into their slots in parallel, and a channel will not transfer past its end.
+    RandomAccessFile raf = new RandomAccessFile(outputFile, "rw");
+    try {
+      raf.setLength(0);
+      raf.setLength(outputLength);
+      final FileChannel f = raf.getChannel();
+      writeFully(f, header.duplicate(), index.duplicate());
+
+      List<Callable<Void>> transferTasks = new ArrayList<Callable<Void>>();
+      for (int i = 0; i < dataZoneNames.size(); ++i) {
+        final String zoneName = dataZoneNames.get(i);
+        if (duplicates.containsKey(zoneName)) {
+          continue;
+        }
+        final long position = data_offset + offsets.get(zoneName);
+        final ZoneFile zoneFile = zoneFiles.get(i);
+        transferTasks.add(new Callable<Void>() {
+          public Void call() throws Exception {
+            if (!sinks.isEmpty()) {
+              // Read the zone file once for the tzdata and every sink.
+              ByteBuffer contents = readContents(zoneFile);
+              writeFully(f, position, contents.duplicate());
+              addZone(sinks, zoneName, position, contents);
+            } else if (zoneFile.contents != null) {
+              writeFully(f, position, ByteBuffer.wrap(zoneFile.contents));
+            } else {
+              transferFile(zoneFile.path, zoneFile.length, f, position);
+            }
+            return null;
+          }
+        });
       }
+      invokeAllInOrder(executor(), transferTasks);
+
+      f.position(zonetab_offset);
+      writeFully(f, ByteBuffer.wrap(zoneTabBytes));
+    } finally {
+      raf.close();
     }
-    reader.close();
+  }
+
+  // Checks the tzdata in 'outputFile' with verifyOutput(), and deletes it if it is bad so that
+  // nothing picks it up.
+  void verifyOrDelete(File outputFile) throws Exception {
+    try {
+      verifyOutput(outputFile);
+    } catch (Exception e) {
+      outputFile.delete();
+      throw e;
+    }
+  }
+
+  // Reads back the tzdata in 'outputFile' and checks it against what was meant to be written:
+  // the length of the file, the header and sections, the index, that every index slot refers to
+  // a payload inside the data section, each payload against its zic output, the padding between
+  // payloads and zone.tab. The slots and payloads are checked in parallel on a mapping of the
+  // file, and zone files are mapped too, so that nothing is copied into the heap.
+  private void verifyOutput(File outputFile) throws Exception {
+    long startNanos = System.nanoTime();
+    final long expectedLength = (long) dataOffset + dataLength + zoneTabBytes.length;
+    final MappedByteBuffer mapped;
+    FileChannel in = FileChannel.open(outputFile.toPath(), StandardOpenOption.READ);
+    try {
+      if (in.size() != expectedLength) {
+        throw new RuntimeException("verify: " + outputFile + " is " + in.size()
+            + " bytes, expected " + expectedLength);
+      }
+      mapped = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+    } finally {
+      in.close();
+    }
+
+    // The header fields, then the whole header with the sections and then the index, byte for
+    // byte.
+    if (mapped.getInt(12) != header.remaining() || mapped.getInt(16) != dataOffset
+        || mapped.getInt(20) != dataOffset + dataLength
+        || (dataOffset - header.remaining()) % INDEX_ENTRY_SIZE != 0) {
+      throw new RuntimeException("verify: bad header offsets in " + outputFile);
+    }
+    checkRegion(mapped, 0, header, "header");
+    checkRegion(mapped, header.remaining(), index, "index");
+    checkRegion(mapped, dataOffset + dataLength, ByteBuffer.wrap(zoneTabBytes), "zone.tab");
+
+    // The slots, from the index entries or else the name dictionary, read back from the file.
+    final ByteBuffer slots;
+    final int slotsOffset;
+    final int slotSize;
+    final int slotCount;
+    if (index.remaining() != 0) {
+      slots = mapped;
+      slotsOffset = header.remaining() + MAXNAME;
+      slotSize = INDEX_ENTRY_SIZE;
+      slotCount = index.remaining() / INDEX_ENTRY_SIZE;
+    } else {
+      slots = findSection(mapped, "zdic");
+      if (slots == null) {
+        throw new RuntimeException("verify: no index entries or name dictionary");
+      }
+      slotsOffset = 8;
+      slotSize = 8;
+      slotCount = slots.getInt(0);
+    }
+    final int slotsPerTask = 64;
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (int i = 0; i < slotCount; i += slotsPerTask) {
+      final int first = i;
+      final int last = Math.min(slotCount, i + slotsPerTask);
+      tasks.add(new Callable<Void>() {
+        public Void call() throws Exception {
+          for (int slot = first; slot < last; ++slot) {
+            long offset = slots.getInt(slotsOffset + slot * slotSize);
+            long length = slots.getInt(slotsOffset + slot * slotSize + 4);
+            if (offset < 0 || length < 0 || offset + length > dataLength) {
+              throw new RuntimeException("verify: index slot " + slot + " refers to "
+                  + offset + "+" + length + ", outside the " + dataLength
+                  + " byte data section");
+            }
+          }
+          return null;
+        }
+      });
+    }
+
+    // Every payload, and the padding before it.
+    int dataEnd = 0;
+    for (int i = 0; i < dataZoneNames.size(); ++i) {
+      final String zoneName = dataZoneNames.get(i);
+      if (duplicates.containsKey(zoneName)) {
+        continue;
+      }
+      final int paddingStart = dataEnd;
+      final int offset = offsets.get(zoneName);
+      final ZoneFile zoneFile = zoneFiles.get(i);
+      dataEnd = offset + lengths.get(zoneName);
+      tasks.add(new Callable<Void>() {
+        public Void call() throws Exception {
+          checkRegion(mapped, dataOffset + paddingStart,
+              ByteBuffer.allocate(offset - paddingStart), "padding before " + zoneName);
+          ByteBuffer contents = zoneFile.contents != null ? ByteBuffer.wrap(zoneFile.contents)
+              : mapZoneFile(zoneFile);
+          checkRegion(mapped, dataOffset + offset, contents, zoneName);
+          return null;
+        }
+      });
+    }
+    if (dataEnd != dataLength) {
+      throw new RuntimeException("verify: payloads end at " + dataEnd + ", expected "
+          + dataLength);
+    }
+    invokeAllInOrder(executor(), tasks);
+    log("Verified " + outputFile + ": " + slotCount + " index slots in "
+        + ((System.nanoTime() - startNanos) / 1000000) + " ms");
+  }
+
+  // Returns a read-only mapping of the zone file of 'zoneFile'.
+  private static ByteBuffer mapZoneFile(ZoneFile zoneFile) throws Exception {
+    FileChannel in = FileChannel.open(zoneFile.path, StandardOpenOption.READ);
+    try {
+      if (in.size() != zoneFile.length) {
+        throw new RuntimeException("zone file changed size during compaction: " + zoneFile.path);
+      }
+      return in.map(FileChannel.MapMode.READ_ONLY, 0, zoneFile.length);
+    } finally {
+      in.close();
+    }
+  }
+
+  // Throws if the bytes of 'mapped' at 'position' are not those of 'expected'.
+  private static void checkRegion(ByteBuffer mapped, long position, ByteBuffer expected,
+      String what) {
+    ByteBuffer actual = mapped.duplicate();
+    if (position + expected.remaining() > actual.limit()) {
+      throw new RuntimeException("verify: " + what + " is past the end of the file");
+    }
+    actual.position((int) position);
+    actual.limit((int) position + expected.remaining());
+    if (!actual.equals(expected)) {
+      throw new RuntimeException("verify: " + what + " does not match at " + position);
+    }
+  }
+
+  // Returns the section with 'tag' in the header extension of 'file', or null.
+  private static ByteBuffer findSection(ByteBuffer file, String tag) {
+    int indexOffset = file.getInt(12);
+    if (indexOffset < HEADER_SIZE + EXTENSION_HEADER_SIZE
+        || file.getInt(HEADER_SIZE) != ByteBuffer.wrap(toAscii(new byte[4], "tzex")).getInt()) {
+      return null;
+    }
+    int wanted = ByteBuffer.wrap(toAscii(new byte[4], tag)).getInt();
+    int sectionCount = file.getInt(HEADER_SIZE + 4);
+    for (int i = 0; i < sectionCount; ++i) {
+      int entry = HEADER_SIZE + EXTENSION_HEADER_SIZE + i * SECTION_ENTRY_SIZE;
+      if (file.getInt(entry) == wanted) {
+        ByteBuffer section = file.duplicate();
+        section.position(file.getInt(entry + 4));
+        section.limit(file.getInt(entry + 4) + file.getInt(entry + 8));
+        return section.slice();
+      }
+    }
+    return null;
+  }
 
-    // Go back and fix up the offsets in the header.
-    f.seek(index_offset_offset);
-    f.writeInt(index_offset);
-    f.seek(data_offset_offset);
-    f.writeInt(data_offset);
-    f.seek(zonetab_offset_offset);
-    f.writeInt(zonetab_offset);
+  // Writes the tzdata to 'out', in order. The compressed variant needs an output directory, so
+  // it cannot be asked for.
+  public void writeTo(WritableByteChannel out) throws Exception {
+    if (options.compressedBlockSize > 0) {
+      throw new IllegalStateException("the compressed variant needs an output directory");
+    }
+    writeFully(out, header.duplicate(), index.duplicate());
+    int dataEnd = 0;
+    for (int i = 0; i < dataZoneNames.size(); ++i) {
+      String zoneName = dataZoneNames.get(i);
+      if (duplicates.containsKey(zoneName)) {
+        continue;
+      }
+      writeFully(out, ByteBuffer.allocate(offsets.get(zoneName) - dataEnd));
+      ZoneFile zoneFile = zoneFiles.get(i);
+      if (zoneFile.contents != null) {
+        writeFully(out, ByteBuffer.wrap(zoneFile.contents));
+      } else {
+        transferFile(zoneFile.path, zoneFile.length, out);
+      }
+      dataEnd = offsets.get(zoneName) + lengths.get(zoneName);
+    }
+    writeFully(out, ByteBuffer.wrap(zoneTabBytes));
+  }
+
+  // Writes the output to 'sinks' without writing the tzdata. Zone files are read concurrently,
+  // each once for all of the sinks.
+  public void writeTo(final List<Sink> sinks) throws Exception {
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (int i = 0; i < dataZoneNames.size(); ++i) {
+      final String zoneName = dataZoneNames.get(i);
+      if (duplicates.containsKey(zoneName)) {
+        continue;
+      }
+      final ZoneFile zoneFile = zoneFiles.get(i);
+      tasks.add(new Callable<Void>() {
+        public Void call() throws Exception {
+          addZone(sinks, zoneName, dataOffset + offsets.get(zoneName), readContents(zoneFile));
+          return null;
+        }
+      });
+    }
+    invokeAllInOrder(executor(), tasks);
+    finish(sinks);
+  }
+
+  private static void addZone(List<Sink> sinks, String zoneName, long position,
+      ByteBuffer contents) throws Exception {
+    for (Sink sink : sinks) {
+      sink.addZone(zoneName, position, contents.asReadOnlyBuffer());
+    }
+  }
+
+  private void finish(List<Sink> sinks) throws Exception {
+    if (sinks.isEmpty()) {
+      return;
+    }
+    SortedMap<String,String> zoneNames = new TreeMap<String,String>();
+    for (String zoneName : dataZoneNames) {
+      zoneNames.put(zoneName, dataZoneName(zoneName));
+    }
+    for (String link : canonicalNames.keySet()) {
+      zoneNames.put(link, dataZoneName(link));
+    }
+    for (Sink sink : sinks) {
+      sink.finish(version, zoneNames, zoneTabBytes);
+    }
+  }
+
+  // Returns the contents to store for 'zoneFile', reading them from its file if they are not
+  // in memory.
+  private static ByteBuffer readContents(ZoneFile zoneFile) throws Exception {
+    if (zoneFile.contents != null) {
+      return ByteBuffer.wrap(zoneFile.contents);
+    }
+    byte[] contents = Files.readAllBytes(zoneFile.path);
+    if (contents.length != zoneFile.length) {
+      throw new RuntimeException("zone file changed size during compaction: " + zoneFile.path);
+    }
+    return ByteBuffer.wrap(contents);
+  }
+
+  // Returns the tzdata.
+  public byte[] toByteArray() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeTo(Channels.newChannel(out));
+    return out.toByteArray();
+  }
+
+  // Writes tzdata_compressed next to 'tzdataFile', reusing the index and data of the tzdata file
+  // that has just been written. See CompressedBlocks.
+  private void writeCompressedVariant(File tzdataFile, int tzdata_data_offset, int dataLength,
+      String version, ByteBuffer index, byte[] zoneTabBytes, int blockSize) throws Exception {
+    long startNanos = System.nanoTime();
+
+    // The variant has a different version prefix so that readers that expect uncompressed
+    // payloads reject it.
+    String variantVersion = withVersionPrefix(version, "tzblk");
+
+    byte[] data = new byte[dataLength];
+    RandomAccessFile in = new RandomAccessFile(tzdataFile, "r");
+    try {
+      in.seek(tzdata_data_offset);
+      in.readFully(data);
+    } finally {
+      in.close();
+    }
+
+    List<Integer> payloadEnds = new ArrayList<Integer>();
+    for (String zoneName : dataZoneNames) {
+      if (!duplicates.containsKey(zoneName)) {
+        payloadEnds.add(offsets.get(zoneName) + lengths.get(zoneName));
+      }
+    }
+    CompressedBlocks blocks = CompressedBlocks.build(data, payloadEnds, blockSize);
+
+    Map<String,ByteBuffer> variantSections = new LinkedHashMap<String,ByteBuffer>(sections);
+    variantSections.put("zblk", blocks.section);
+    int index_offset = headerLength(variantSections, SECTION_ALIGNMENT);
+    int data_offset = index_offset + index.remaining();
+    int zonetab_offset = data_offset + blocks.compressedLength;
+    ByteBuffer header =
+        buildHeader(variantVersion, variantSections, SECTION_ALIGNMENT, index_offset, data_offset,
+            zonetab_offset);
+
+    File outputFile = new File(tzdataFile.getParentFile(), "tzdata_compressed");
+    FileChannel f = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    try {
+      writeFully(f, header, index);
+      for (byte[] block : blocks.blocks) {
+        writeFully(f, ByteBuffer.wrap(block));
+      }
+      writeFully(f, ByteBuffer.wrap(zoneTabBytes));
+    } finally {
+      f.close();
+    }
+    long buildNanos = System.nanoTime() - startNanos;
+
+    // Measure what it costs a reader to load each zone: find its block, inflate it and copy the
+    // payload out.
+    ByteBuffer section = blocks.section;
+    int blockCount = section.getInt(0);
+    long loadNanos = 0;
+    for (String zoneName : dataZoneNames) {
+      if (duplicates.containsKey(zoneName)) {
+        continue;
+      }
+      long zoneStartNanos = System.nanoTime();
+      int zoneOffset = offsets.get(zoneName);
+      int block = 0;
+      while (block + 1 < blockCount && section.getInt(4 + 16 * (block + 1)) <= zoneOffset) {
+        ++block;
+      }
+      int uncompressedOffset = section.getInt(4 + 16 * block);
+      int uncompressedLength = section.getInt(4 + 16 * block + 4);
+      byte[] inflated = CompressedBlocks.inflate(blocks.blocks.get(block), uncompressedLength);
+      byte[] payload = Arrays.copyOfRange(inflated, zoneOffset - uncompressedOffset,
+          zoneOffset - uncompressedOffset + lengths.get(zoneName));
+      loadNanos += System.nanoTime() - zoneStartNanos;
+      if (!Arrays.equals(payload, Arrays.copyOfRange(data, zoneOffset,
+          zoneOffset + lengths.get(zoneName)))) {
+        throw new RuntimeException("compressed payload mismatch: " + zoneName);
+      }
+    }
+    int zoneCount = payloadEnds.size();
+    log("Wrote " + outputFile + ": " + outputFile.length() + " bytes ("
+        + tzdataFile.length() + " uncompressed) in " + blockCount + " blocks, "
+        + (buildNanos / 1000000) + " ms; mean zone load "
+        + (zoneCount == 0 ? 0 : loadNanos / zoneCount / 1000) + " us");
+  }
+
+  // Returns the length of the header for 'sections', which is the earliest the index can start.
+  private static int headerLength(Map<String,ByteBuffer> sections, int sectionAlignment) {
+    int length = HEADER_SIZE;
+    if (!sections.isEmpty()) {
+      length += EXTENSION_HEADER_SIZE + sections.size() * SECTION_ENTRY_SIZE;
+      for (ByteBuffer section : sections.values()) {
+        length = align(length, sectionAlignment) + section.remaining();
+      }
+      length = align(length, SECTION_ALIGNMENT);
+    }
+    return length;
+  }
+
+  // Returns the header for 'sections', zero-padded up to 'index_offset'.
+  private static ByteBuffer buildHeader(String version, Map<String,ByteBuffer> sections,
+      int sectionAlignment, int index_offset, int data_offset, int zonetab_offset) {
+    ByteBuffer header = ByteBuffer.allocate(index_offset);
+
+    // byte[12] tzdata_version -- 'tzdata2012f\0'
+    // int index_offset -- so we can slip in extra header fields in a backwards-compatible way
+    // int data_offset
+    // int zonetab_offset
+    //
+    // If there are optional sections, the header continues with:
+    //
+    // byte[4] 'tzex'
+    // int section_count
+    // section_count * { byte[4] tag; int offset; int length } -- offsets from the start of the file
+    //
+    // followed by the sections themselves, each starting on a multiple of 8 or of the payload
+    // alignment, whichever is larger. Readers that do not know about sections skip straight to
+    // index_offset.
+
+    header.put(toAscii(new byte[12], version));
+    header.putInt(index_offset);
+    header.putInt(data_offset);
+    header.putInt(zonetab_offset);
+    if (!sections.isEmpty()) {
+      header.put(toAscii(new byte[4], "tzex"));
+      header.putInt(sections.size());
+      int section_offset = header.position() + sections.size() * SECTION_ENTRY_SIZE;
+      for (Map.Entry<String,ByteBuffer> section : sections.entrySet()) {
+        section_offset = align(section_offset, sectionAlignment);
+        header.put(toAscii(new byte[4], section.getKey()));
+        header.putInt(section_offset);
+        header.putInt(section.getValue().remaining());
+        section_offset += section.getValue().remaining();
+      }
+      for (ByteBuffer section : sections.values()) {
+        header.position(align(header.position(), sectionAlignment));
+        header.put(section.duplicate());
+      }
+    }
+    header.position(index_offset);
+    header.flip();
+    return header;
+  }
+
+  // Follows the chain of links from each link to the zone it is ultimately for, once, checking
+  // that every chain ends at a zone in the setup file and that there are no cycles.
+  private void resolveLinks() {
+    Set<String> zoneNames = new HashSet<String>(dataZoneNames);
+    for (String from : links.keySet()) {
+      Set<String> seen = new LinkedHashSet<String>();
+      String to = from;
+      while (links.containsKey(to)) {
+        if (!seen.add(to)) {
+          throw new RuntimeException("link cycle: " + seen);
+        }
+        to = links.get(to);
+      }
+      if (!zoneNames.contains(to)) {
+        throw new RuntimeException("link to unknown zone: " + from + " -> " + to);
+      }
+      canonicalNames.put(from, to);
+    }
+  }
+
+  // Returns the zone that 'zoneName' is an alias for, or 'zoneName' if it is not a link.
+  private String canonicalName(String zoneName) {
+    String canonicalName = canonicalNames.get(zoneName);
+    return canonicalName != null ? canonicalName : zoneName;
+  }
+
+  // Returns the slot of 'zoneName' in the index, which is 'sortedOlsonIds', or of the zone it
+  // is an alias for if links are not in the index.
+  private int indexSlot(List<String> sortedOlsonIds, String zoneName) {
+    int slot = Collections.binarySearch(sortedOlsonIds, zoneName);
+    if (slot < 0) {
+      slot = Collections.binarySearch(sortedOlsonIds, canonicalName(zoneName));
+    }
+    if (slot < 0) {
+      throw new RuntimeException("zone.tab zone not in the index: " + zoneName);
+    }
+    return slot;
+  }
+
+  // Returns the zone in dataZoneNames whose zic output is stored for 'zoneName'.
+  private String dataZoneName(String zoneName) {
+    String actualZoneName = canonicalName(zoneName);
+    String original = duplicates.get(actualZoneName);
+    return original != null ? original : actualZoneName;
+  }
+
+  // Prints 'message' if the options ask for statistics.
+  private void log(String message) {
+    if (options.verbose) {
+      System.out.println(message);
+    }
+  }
+
+  // Returns 'version' with 'prefix' in place of its "tzdata" prefix.
+  private static String withVersionPrefix(String version, String prefix) {
+    return prefix
+        + (version.startsWith("tzdata") ? version.substring("tzdata".length()) : version);
+  }
 
-    f.close();
+  // Rounds 'offset' up to a multiple of 'alignment'.
+  private static int align(int offset, int alignment) {
+    return (offset + alignment - 1) / alignment * alignment;
   }
 
   private static byte[] toAscii(byte[] dst, String src) {
@@ -198,10 +1432,10 @@ public class ZoneCompactor {
   }
 
   public static void main(String[] args) throws Exception {
-    if (args.length != 5) {
-      System.err.println("usage: java ZoneCompactor <setup file> <data directory> <zone.tab file> <output directory> <tzdata version>");
+    if (args.length < 5) {
+      System.err.println("usage: java ZoneCompactor <setup file> <data directory> <zone.tab file> <output directory> <tzdata version> [options]");
       System.exit(0);
     }
-    new ZoneCompactor(args[0], args[1], args[2], args[3], args[4]);
+    new ZoneCompactor(args[0], args[1], args[2], args[3], args[4], Options.parse(args, 5));
   }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+// Writes a zoneinfo directory tree like the one zic writes: one file per zone, named after the
+// zone, holding the zic output that the tzdata stores for it, with links and deduplicated zones
+// as hard links to the file of the zone whose output they share (or copies where hard links are
+// not supported), and zone.tab. Anything already in the directory is deleted first, so that
+// zones that have been removed do not linger.
+class ZoneTreeSink implements ZoneCompactor.Sink {
+  private final Path root;
+
+  ZoneTreeSink(Path root) throws IOException {
+    this.root = root;
+    if (Files.exists(root)) {
+      Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+            throws IOException {
+          Files.delete(file);
+          return FileVisitResult.CONTINUE;
+        }
+
+        public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+          if (e != null) {
+            throw e;
+          }
+          Files.delete(dir);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    }
+    Files.createDirectories(root);
+  }
+
+  public void addZone(String zoneName, long position, ByteBuffer contents) throws IOException {
+    Path file = zonePath(zoneName);
+    Files.createDirectories(file.getParent());
+    FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE_NEW);
+    try {
+      while (contents.hasRemaining()) {
+        out.write(contents);
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  public void finish(String version, SortedMap<String,String> zoneNames, byte[] zoneTab)
+      throws IOException {
+    for (Map.Entry<String,String> entry : zoneNames.entrySet()) {
+      if (entry.getKey().equals(entry.getValue())) {
+        continue;
+      }
+      Path link = zonePath(entry.getKey());
+      Path target = zonePath(entry.getValue());
+      Files.createDirectories(link.getParent());
+      try {
+        Files.createLink(link, target);
+      } catch (UnsupportedOperationException | IOException e) {
+        Files.copy(target, link);
+      }
+    }
+    Files.write(root.resolve("zone.tab"), zoneTab);
+  }
+
+  // Returns the file for 'zoneName', which must stay inside the tree.
+  private Path zonePath(String zoneName) {
+    Path path = root.resolve(zoneName).normalize();
+    if (!path.startsWith(root.normalize()) || path.equals(root.normalize())) {
+      throw new RuntimeException("bad zone name: " + zoneName);
+    }
+    return path;
+  }
+}
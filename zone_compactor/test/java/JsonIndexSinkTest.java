@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.android.timezone.tzdata.TzDataFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Tests of the JSON index written by JsonIndexSink, which is checked against the index of a
+// tzdata built from the same zones.
+public class JsonIndexSinkTest {
+  // A zone that is a copy of Asia/Tokyo but not declared as a link.
+  private static final String COPY = "Africa/Tokyo";
+
+  // A zone entry, as JsonIndexSink writes it.
+  private static final Pattern ENTRY = Pattern.compile(
+      "    \\{ \"name\": \"([^\"]*)\"(?:, \"link\": \"([^\"]*)\")?, \"position\": (\\d+),"
+      + " \"length\": (\\d+), \"crc32\": \"([0-9a-f]{8})\" \\},?");
+
+  private Path dataDirectory;
+  private Path outputDirectory;
+
+  @Before
+  public void setUp() throws Exception {
+    dataDirectory = Files.createTempDirectory("JsonIndexSinkTest-data");
+    outputDirectory = Files.createTempDirectory("JsonIndexSinkTest-out");
+    TestZones.writeZoneFiles(dataDirectory, TestZones.readAll());
+    TestZones.writeZoneFiles(dataDirectory,
+        Collections.singletonMap(COPY, TestZones.read("Asia/Tokyo")));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    TestZones.deleteRecursively(dataDirectory.toFile());
+    TestZones.deleteRecursively(outputDirectory.toFile());
+  }
+
+  @Test
+  public void sameAsTzData() throws Exception {
+    ZoneCompactor.Options options = new ZoneCompactor.Options();
+    options.deduplicate = true;
+    options.jsonIndex = true;
+    checkJson(options);
+  }
+
+  @Test
+  public void sameAsAlignedTzData() throws Exception {
+    ZoneCompactor.Options options = new ZoneCompactor.Options();
+    options.deduplicate = true;
+    options.alignment = 64;
+    options.checksums = true;
+    options.jsonIndex = true;
+    checkJson(options);
+  }
+
+  // Without the tzdata, positions are still where the zic output would be in it.
+  @Test
+  public void withoutTzData() throws Exception {
+    ZoneCompactor.Options options = new ZoneCompactor.Options();
+    options.deduplicate = true;
+    options.packed = false;
+    options.jsonIndex = true;
+    compactor(options).writeToDirectory(outputDirectory);
+    String json = read(outputDirectory.resolve("tzdata.json"));
+
+    options.packed = true;
+    options.jsonIndex = false;
+    compactor(options).writeToDirectory(outputDirectory);
+    checkJson(json);
+  }
+
+  // Quotes, backslashes and control characters are escaped; anything else is written as it is.
+  @Test
+  public void quoting() throws Exception {
+    Path file = outputDirectory.resolve("tzdata.json");
+    JsonIndexSink sink = new JsonIndexSink(file);
+    String zoneName = "A\"b\\c\u0001d\te/\u00e9";
+    sink.addZone(zoneName, 24, ByteBuffer.wrap(new byte[] { 'T', 'Z', 'i', 'f' }));
+    SortedMap<String,String> zoneNames = new TreeMap<String,String>();
+    zoneNames.put(zoneName, zoneName);
+    zoneNames.put("Link\n", zoneName);
+    sink.finish("tzdata\"2019b", zoneNames, new byte[0]);
+    assertEquals("{\n"
+        + "  \"version\": \"tzdata\\\"2019b\",\n"
+        + "  \"zones\": [\n"
+        + "    { \"name\": \"A\\\"b\\\\c\\u0001d\\u0009e/\u00e9\", \"position\": 24,"
+        + " \"length\": 4, \"crc32\": \"14eef80c\" },\n"
+        + "    { \"name\": \"Link\\u000a\", \"link\": \"A\\\"b\\\\c\\u0001d\\u0009e/\u00e9\","
+        + " \"position\": 24, \"length\": 4, \"crc32\": \"14eef80c\" }\n"
+        + "  ]\n"
+        + "}\n", read(file));
+  }
+
+  // A name whose zic output never arrived is an error, rather than an entry without a position.
+  @Test
+  public void missingZone() throws Exception {
+    JsonIndexSink sink = new JsonIndexSink(outputDirectory.resolve("tzdata.json"));
+    SortedMap<String,String> zoneNames = new TreeMap<String,String>();
+    zoneNames.put("Test/Link", "Asia/Tokyo");
+    try {
+      sink.finish("tzdata2019b", zoneNames, new byte[0]);
+      fail();
+    } catch (RuntimeException expected) {
+      assertEquals("no zic output for zone: Asia/Tokyo", expected.getMessage());
+    }
+    assertFalse(Files.exists(outputDirectory.resolve("tzdata.json")));
+  }
+
+  private ZoneCompactor compactor(ZoneCompactor.Options options) throws Exception {
+    List<String> zoneNames = new ArrayList<String>(TestZones.ZONE_NAMES);
+    zoneNames.add(COPY);
+    return TestZones.builder(dataDirectory, zoneNames, options).build();
+  }
+
+  private void checkJson(ZoneCompactor.Options options) throws Exception {
+    compactor(options).writeToDirectory(outputDirectory);
+    checkJson(read(outputDirectory.resolve("tzdata.json")));
+  }
+
+  // Checks that 'json' has an entry for each zone in the index of the tzdata in the output
+  // directory, in the same order, that gives where its zic output is in the tzdata. Links and
+  // deduplicated zones name the zone whose zic output they share.
+  private void checkJson(String json) throws Exception {
+    TzDataFile tzdata = TzDataFile.open(outputDirectory.resolve("tzdata"));
+    try {
+      String[] lines = json.split("\n");
+      assertEquals("{", lines[0]);
+      assertEquals("  \"version\": \"tzdata2019b\",", lines[1]);
+      assertEquals("  \"zones\": [", lines[2]);
+      assertEquals(3 + tzdata.getZoneCount() + 2, lines.length);
+      assertEquals("  ]", lines[lines.length - 2]);
+      assertEquals("}", lines[lines.length - 1]);
+
+      for (int i = 0; i < tzdata.getZoneCount(); ++i) {
+        String zoneName = tzdata.getZoneId(i);
+        Matcher m = ENTRY.matcher(lines[3 + i]);
+        assertTrue(lines[3 + i], m.matches());
+        assertEquals(i == tzdata.getZoneCount() - 1, !lines[3 + i].endsWith(","));
+        assertEquals(zoneName, m.group(1));
+        assertEquals(zoneName, expectedLink(zoneName), m.group(2));
+        assertEquals(zoneName, tzdata.getPayloadOffset(i), Long.parseLong(m.group(3)));
+        assertEquals(zoneName, tzdata.getPayloadLength(i), Long.parseLong(m.group(4)));
+        CRC32 crc = new CRC32();
+        crc.update(tzdata.getPayload(i));
+        assertEquals(zoneName, String.format("%08x", crc.getValue()), m.group(5));
+      }
+    } finally {
+      tzdata.close();
+    }
+  }
+
+  // Returns the zone that 'zoneName' shares zic output with, or null if it has its own.
+  private static String expectedLink(String zoneName) {
+    if (zoneName.equals("Test/Link")) {
+      return TestZones.ZONE_NAMES.get(0);
+    }
+    return zoneName.equals(COPY) ? "Asia/Tokyo" : null;
+  }
+
+  private static String read(Path file) throws Exception {
+    return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Tests of PosixTz against the footers of real zic output. zic writes explicit transitions up to
+// 2037 as well as the footer, so for the years in which the footer's rules were already in force,
+// the transitions it gives must be the ones zic wrote.
+public class PosixTzTest {
+  private static final int LAST_EXPLICIT_YEAR = 2037;
+
+  @Test
+  public void northernHemisphere() throws Exception {
+    PosixTz rule = checkAgainstExplicitTransitions(TestZones.read("America/New_York"), 2007);
+    assertEquals(-5 * 3600, rule.stdOffset);
+    assertEquals(-4 * 3600, rule.dstOffset);
+
+    rule = checkAgainstExplicitTransitions(TestZones.read("Europe/London"), 1996);
+    assertEquals(0, rule.stdOffset);
+    assertEquals(3600, rule.dstOffset);
+  }
+
+  // Daylight saving time spans the new year, so the year starts with it.
+  @Test
+  public void southernHemisphere() throws Exception {
+    PosixTz rule = checkAgainstExplicitTransitions(TestZones.read("Australia/Sydney"), 2008);
+    assertEquals(10 * 3600, rule.stdOffset);
+    assertEquals(11 * 3600, rule.dstOffset);
+    long[][] transitions = rule.transitions(2030);
+    assertEquals(10 * 3600, transitions[0][1]);
+    assertEquals(11 * 3600, transitions[1][1]);
+
+    checkAgainstExplicitTransitions(TestZones.read("Pacific/Auckland"), 2008);
+  }
+
+  // In the vanguard data, Irish standard time is IST in summer and daylight saving time is GMT,
+  // an hour behind, in winter. The rearguard data has the same offsets the usual way round.
+  @Test
+  public void negativeDst() throws Exception {
+    PosixTz vanguard =
+        checkAgainstExplicitTransitions(TestZones.readVanguard("Europe/Dublin"), 1996);
+    assertEquals(3600, vanguard.stdOffset);
+    assertEquals(0, vanguard.dstOffset);
+
+    PosixTz rearguard = checkAgainstExplicitTransitions(TestZones.read("Europe/Dublin"), 1996);
+    assertEquals(0, rearguard.stdOffset);
+    assertEquals(3600, rearguard.dstOffset);
+    for (int year = 1996; year <= 2100; ++year) {
+      assertEquals(Arrays.deepToString(rearguard.transitions(year)),
+          Arrays.deepToString(vanguard.transitions(year)));
+    }
+  }
+
+  @Test
+  public void noDaylightSavingTimeRule() throws Exception {
+    PosixTz tokyo = parseFooter(TestZones.read("Asia/Tokyo"));
+    assertFalse(tokyo.hasDst);
+    assertEquals(9 * 3600, tokyo.stdOffset);
+    assertEquals(0, tokyo.transitions(2040).length);
+
+    // A quoted abbreviation.
+    PosixTz saoPaulo = parseFooter(TestZones.read("America/Sao_Paulo"));
+    assertFalse(saoPaulo.hasDst);
+    assertEquals(-3 * 3600, saoPaulo.stdOffset);
+    assertEquals(0, saoPaulo.transitions(2040).length);
+  }
+
+  // The rearguard Africa/Casablanca footer is daylight saving time all year: it starts at the
+  // start of the year and ends at 25:00 on December 31, which is the start of the next year.
+  @Test
+  public void allYearDaylightSavingTime() throws Exception {
+    PosixTz rule = parseFooter(TestZones.read("Africa/Casablanca"));
+    assertTrue(rule.hasDst);
+    long[][] transitions = rule.transitions(2090);
+    assertEquals(2, transitions.length);
+    assertEquals(startOfYear(2090), transitions[0][0]);
+    assertEquals(3600, transitions[0][1]);
+    assertEquals(startOfYear(2091), transitions[1][0]);
+    assertEquals(0, transitions[1][1]);
+  }
+
+  @Test
+  public void badStrings() {
+    String[] bad = {
+        "", "EST", "EST5EDT", "EST5EDT,M3.2.0", "EST5EDT,M3.2.0,M11.1.0x", "E5", "<EST5",
+        "EST25", "EST5EDT,M13.2.0,M11.1.0", "EST5EDT,M3.6.0,M11.1.0", "EST5EDT,J0,J100",
+        "EST5EDT,M3.2.0/168,M11.1.0",
+    };
+    for (String tz : bad) {
+      try {
+        PosixTz.parse(tz, "test");
+        fail(tz);
+      } catch (RuntimeException expected) {
+      }
+    }
+  }
+
+  // Checks that the footer of 'bytes' gives the transitions that zic wrote explicitly in every
+  // year from 'firstYear' to LAST_EXPLICIT_YEAR, and returns the parsed footer.
+  private static PosixTz checkAgainstExplicitTransitions(byte[] bytes, int firstYear) {
+    TzifFile tzif = TzifFile.parse(bytes, "test");
+    PosixTz rule = PosixTz.parse(tzif.footer, "test");
+    assertTrue(tzif.footer, rule.hasDst);
+    for (int year = firstYear; year <= LAST_EXPLICIT_YEAR; ++year) {
+      List<String> expected = new ArrayList<String>();
+      for (int i = 0; i < tzif.transitionTimes.length; ++i) {
+        long time = tzif.transitionTimes[i];
+        if (time >= startOfYear(year) && time < startOfYear(year + 1)) {
+          expected.add(time + "=" + tzif.typeOffsets[tzif.transitionTypes[i]]);
+        }
+      }
+      List<String> actual = new ArrayList<String>();
+      for (long[] transition : rule.transitions(year)) {
+        actual.add(transition[0] + "=" + transition[1]);
+      }
+      assertEquals(tzif.footer + " in " + year, expected, actual);
+    }
+    return rule;
+  }
+
+  private static PosixTz parseFooter(byte[] bytes) {
+    return PosixTz.parse(TzifFile.parse(bytes, "test").footer, "test");
+  }
+
+  private static long startOfYear(int year) {
+    return ZoneCompactor.Options.startOfYear(year);
+  }
+}
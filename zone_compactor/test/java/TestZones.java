@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+// Real zic output for the tests, from the test resources. See the README there.
+class TestZones {
+  // The zones in zoneinfo/.
+  static final List<String> ZONE_NAMES = Collections.unmodifiableList(Arrays.asList(
+      "Africa/Casablanca", "America/New_York", "America/Sao_Paulo", "Asia/Tokyo",
+      "Australia/Sydney", "Europe/Dublin", "Europe/London", "Pacific/Auckland",
+      "Pacific/Kosrae"));
+
+  static final String ZONE_TAB =
+      "AU\t-3352+15113\tAustralia/Sydney\tNew South Wales (most areas)\n"
+      + "BR\t-2332-04637\tAmerica/Sao_Paulo\tBrazil (southeast)\n"
+      + "FM\t+0519+16259\tPacific/Kosrae\tKosrae\n"
+      + "GB\t+513030-0000731\tEurope/London\n"
+      + "IE\t+5320-00615\tEurope/Dublin\n"
+      + "JP\t+353916+1394441\tAsia/Tokyo\n"
+      + "MA\t+3339-00735\tAfrica/Casablanca\n"
+      + "NZ\t-3652+17446\tPacific/Auckland\tNew Zealand (most areas)\n"
+      + "US\t+404251-0740023\tAmerica/New_York\tEastern (most areas)\n";
+
+  private TestZones() {}
+
+  // Returns the zic output for 'zoneName'.
+  static byte[] read(String zoneName) throws Exception {
+    return readResource("zoneinfo/" + zoneName);
+  }
+
+  // Returns the zic output for 'zoneName' compiled from the vanguard source files.
+  static byte[] readVanguard(String zoneName) throws Exception {
+    return readResource("zoneinfo-vanguard/" + zoneName);
+  }
+
+  // Returns the tzdata file 'name' written by the old ZoneCompactor for the test zones.
+  static byte[] readBaseline(String name) throws Exception {
+    return readResource("baseline/" + name);
+  }
+
+  // Returns the zic output for every zone in ZONE_NAMES, in the same order.
+  static Map<String,byte[]> readAll() throws Exception {
+    Map<String,byte[]> zones = new LinkedHashMap<String,byte[]>();
+    for (String zoneName : ZONE_NAMES) {
+      zones.put(zoneName, read(zoneName));
+    }
+    return zones;
+  }
+
+  // Returns a builder for a tzdata that holds 'zones' in iteration order, and a link to the
+  // first of them.
+  static ZoneCompactor.Builder builder(Map<String,byte[]> zones, ZoneCompactor.Options options) {
+    ZoneCompactor.Builder builder = builder(zones.keySet(), options);
+    for (Map.Entry<String,byte[]> zone : zones.entrySet()) {
+      builder.addZoneData(zone.getKey(), zone.getValue());
+    }
+    return builder;
+  }
+
+  // Returns a builder like builder(Map, Options), that reads the zic output from the files in
+  // 'dataDirectory', as written by writeZoneFiles().
+  static ZoneCompactor.Builder builder(Path dataDirectory, Collection<String> zoneNames,
+      ZoneCompactor.Options options) {
+    return builder(zoneNames, options).setDataDirectory(dataDirectory);
+  }
+
+  // Writes the zic output in 'zones' to files in 'dataDirectory', as zic does.
+  static void writeZoneFiles(Path dataDirectory, Map<String,byte[]> zones) throws Exception {
+    for (Map.Entry<String,byte[]> zone : zones.entrySet()) {
+      Path path = dataDirectory.resolve(zone.getKey());
+      Files.createDirectories(path.getParent());
+      Files.write(path, zone.getValue());
+    }
+  }
+
+  // Returns the setup file for a tzdata that holds 'zoneNames' in iteration order, and a link
+  // to the first of them.
+  static String setup(Collection<String> zoneNames) {
+    StringBuilder setup = new StringBuilder();
+    setup.append("Link " + zoneNames.iterator().next() + " Test/Link\n");
+    for (String zoneName : zoneNames) {
+      setup.append(zoneName).append('\n');
+    }
+    return setup.toString();
+  }
+
+  private static ZoneCompactor.Builder builder(Collection<String> zoneNames,
+      ZoneCompactor.Options options) {
+    return new ZoneCompactor.Builder()
+        .setSetup(setup(zoneNames))
+        .setZoneTab(ZONE_TAB)
+        .setVersion("tzdata2019b")
+        .setOptions(options);
+  }
+
+  static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+
+  private static byte[] readResource(String name) throws Exception {
+    InputStream in = TestZones.class.getClassLoader().getResourceAsStream(name);
+    if (in == null) {
+      throw new IllegalArgumentException("no test resource: " + name);
+    }
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int count;
+      while ((count = in.read(buffer)) != -1) {
+        out.write(buffer, 0, count);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Tests of deltas between tzdata files built by ZoneCompactor from real zic output.
+public class TzDataDeltaTest {
+  // The size of the delta header: magic, version, both digests and the new length.
+  private static final int DELTA_HEADER_SIZE = 4 + 4 + 32 + 32 + 4;
+
+  @Test
+  public void identical() throws Exception {
+    byte[] tzdata = build(TestZones.readAll(), new ZoneCompactor.Options());
+    byte[] delta = checkRoundTrip(tzdata, tzdata);
+    assertTrue(delta.length + " bytes", delta.length < DELTA_HEADER_SIZE + 32);
+  }
+
+  // A payload that changes length moves every payload after it, which are copied from where they
+  // were in the old file.
+  @Test
+  public void payloadLengthChanges() throws Exception {
+    Map<String,byte[]> zones = TestZones.readAll();
+    Map<String,byte[]> changed = withVanguardDublin(zones);
+    byte[] dublin = changed.get("Europe/Dublin");
+
+    for (ZoneCompactor.Options options : variants()) {
+      byte[] oldBytes = build(zones, options);
+      byte[] newBytes = build(changed, options);
+      byte[] delta = checkRoundTrip(oldBytes, newBytes);
+      assertTrue(delta.length + " bytes", delta.length < DELTA_HEADER_SIZE + dublin.length);
+      checkRoundTrip(newBytes, oldBytes);
+    }
+  }
+
+  @Test
+  public void zoneInsertedAndRemoved() throws Exception {
+    Map<String,byte[]> zones = TestZones.readAll();
+    Map<String,byte[]> fewer = new LinkedHashMap<String,byte[]>(zones);
+    fewer.remove("Asia/Tokyo");
+
+    for (ZoneCompactor.Options options : variants()) {
+      byte[] all = build(zones, options);
+      byte[] delta = checkRoundTrip(build(fewer, options), all);
+      assertTrue(delta.length + " bytes", delta.length < all.length / 16);
+      delta = checkRoundTrip(all, build(fewer, options));
+      assertTrue(delta.length + " bytes", delta.length < all.length / 16);
+    }
+  }
+
+  // Files built with different options have little in common, but the delta must still work.
+  @Test
+  public void differentVariants() throws Exception {
+    Map<String,byte[]> zones = TestZones.readAll();
+    List<ZoneCompactor.Options> variants = variants();
+    for (ZoneCompactor.Options from : variants) {
+      for (ZoneCompactor.Options to : variants) {
+        checkRoundTrip(build(zones, from), build(zones, to));
+      }
+    }
+  }
+
+  @Test
+  public void differentOldFile() throws Exception {
+    Map<String,byte[]> zones = TestZones.readAll();
+    Map<String,byte[]> fewer = new LinkedHashMap<String,byte[]>(zones);
+    fewer.remove("Asia/Tokyo");
+    byte[] oldBytes = build(zones, new ZoneCompactor.Options());
+    byte[] delta = TzDataDelta.diff(oldBytes, build(fewer, new ZoneCompactor.Options()));
+    checkRejected(build(fewer, new ZoneCompactor.Options()), delta);
+
+    byte[] changedOld = oldBytes.clone();
+    changedOld[changedOld.length - 1] ^= 1;
+    checkRejected(changedOld, delta);
+  }
+
+  @Test
+  public void badHeader() throws Exception {
+    byte[] oldBytes = build(TestZones.readAll(), new ZoneCompactor.Options());
+    byte[] delta = TzDataDelta.diff(oldBytes, oldBytes);
+    for (int i = 0; i < DELTA_HEADER_SIZE; ++i) {
+      byte[] corrupt = delta.clone();
+      corrupt[i] ^= 0x40;
+      checkRejected(oldBytes, corrupt);
+    }
+  }
+
+  // Some bits of the deflate stream, such as the padding before its checksum, do not change what
+  // it inflates to. Whatever else is changed, the delta is rejected.
+  @Test
+  public void corruptDelta() throws Exception {
+    byte[] oldBytes = build(TestZones.readAll(), new ZoneCompactor.Options());
+    byte[] newBytes = build(withVanguardDublin(TestZones.readAll()), new ZoneCompactor.Options());
+    byte[] delta = TzDataDelta.diff(oldBytes, newBytes);
+    for (int i = 0; i < delta.length; ++i) {
+      byte[] corrupt = delta.clone();
+      corrupt[i] ^= 0x40;
+      byte[] result;
+      try {
+        result = TzDataDelta.apply(oldBytes, corrupt);
+      } catch (Exception expected) {
+        continue;
+      }
+      assertArrayEquals("corrupted at " + i, newBytes, result);
+    }
+  }
+
+  @Test
+  public void truncatedDelta() throws Exception {
+    byte[] oldBytes = build(TestZones.readAll(), new ZoneCompactor.Options());
+    byte[] newBytes = build(withVanguardDublin(TestZones.readAll()), new ZoneCompactor.Options());
+    byte[] delta = TzDataDelta.diff(oldBytes, newBytes);
+    for (int length = 0; length < delta.length; ++length) {
+      checkRejected(oldBytes, Arrays.copyOf(delta, length));
+    }
+  }
+
+  // Returns the options for each variant of the tzdata file that a delta must handle.
+  private static List<ZoneCompactor.Options> variants() {
+    List<ZoneCompactor.Options> variants = new ArrayList<ZoneCompactor.Options>();
+    variants.add(new ZoneCompactor.Options());
+
+    ZoneCompactor.Options compactIndex = new ZoneCompactor.Options();
+    compactIndex.compactIndex = true;
+    variants.add(compactIndex);
+
+    ZoneCompactor.Options trimmed = new ZoneCompactor.Options();
+    trimmed.trimToWindow = true;
+    trimmed.windowStart = ZoneCompactor.Options.startOfYear(1970);
+    trimmed.windowEnd = ZoneCompactor.Options.startOfYear(2038);
+    variants.add(trimmed);
+    return variants;
+  }
+
+  // Checks that the delta from 'oldBytes' to 'newBytes' rebuilds 'newBytes', and returns it.
+  private static byte[] checkRoundTrip(byte[] oldBytes, byte[] newBytes) throws Exception {
+    byte[] delta = TzDataDelta.diff(oldBytes, newBytes);
+    assertArrayEquals(newBytes, TzDataDelta.apply(oldBytes, delta));
+    return delta;
+  }
+
+  private static void checkRejected(byte[] oldBytes, byte[] delta) {
+    try {
+      TzDataDelta.apply(oldBytes, delta);
+      fail();
+    } catch (Exception expected) {
+    }
+  }
+
+  // Returns a copy of 'zones' with the vanguard Europe/Dublin, which is a different length.
+  private static Map<String,byte[]> withVanguardDublin(Map<String,byte[]> zones)
+      throws Exception {
+    Map<String,byte[]> changed = new LinkedHashMap<String,byte[]>(zones);
+    changed.put("Europe/Dublin", TestZones.readVanguard("Europe/Dublin"));
+    return changed;
+  }
+
+  private static byte[] build(Map<String,byte[]> zones, ZoneCompactor.Options options)
+      throws Exception {
+    return TestZones.builder(zones, options).build().toByteArray();
+  }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.android.timezone.tzdata.TzDataFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Tests that files written by ZoneCompactor with each option are read back by TzDataFile as
+// they were meant to be, so that the writer and the reader cannot drift apart.
+public class TzDataFileRoundTripTest {
+  // The link that TestZones adds to the setup file.
+  private static final String LINK = "Test/Link";
+
+  private Path outputDirectory;
+  private final List<TzDataFile> openFiles = new ArrayList<TzDataFile>();
+
+  @Before
+  public void setUp() throws Exception {
+    outputDirectory = Files.createTempDirectory("TzDataFileRoundTripTest");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    for (TzDataFile file : openFiles) {
+      file.close();
+    }
+    TestZones.deleteRecursively(outputDirectory.toFile());
+  }
+
+  @Test
+  public void defaultOptions() throws Exception {
+    TzDataFile file = write(new ZoneCompactor.Options());
+    assertEquals("tzdata2019b", file.getVersion());
+    assertNull(file.getSection(TzDataFile.PERFECT_HASH_SECTION));
+    checkZones(file, false /* aliases */);
+  }
+
+  @Test
+  public void perfectHash() throws Exception {
+    ZoneCompactor.Options options = new ZoneCompactor.Options();
+    options.perfectHash = true;
+    TzDataFile file = write(options);
+    assertNotNull(file.getSection(TzDataFile.PERFECT_HASH_SECTION));
+    checkZones(file, false /* aliases */);
+  }
+
+  @Test
+  public void transitions() throws Exception {
+    ZoneCompactor.Options options = new ZoneCompactor.Options();
+    options.transitions = true;
+    TzDataFile file = write(options);
+    checkZones(file, false /* aliases */);
+    for (String zoneName : zoneNames(false /* aliases */)) {
+      TzifFile tzif = TzifFile.parse(TestZones.read(canonicalName(zoneName)), zoneName);
+      TzDataFile.Transitions transitions = file.getTransitions(file.findZone(zoneName));
+      assertEquals(zoneName, tzif.typeOffsets[0], transitions.initialOffset);
+      assertEquals(zoneName, tzif.typeIsDst[0], transitions.initialIsDst);
+      int n = tzif.transitionTimes.length;
+      assertEquals(zoneName, n, transitions.times.remaining());
+      for (int i = 0; i < n; ++i) {
+        int type = tzif.transitionTypes[i];
+        assertEquals(zoneName, tzif.transitionTimes[i], transitions.times.get(i));
+        assertEquals(zoneName, tzif.typeOffsets[type], transitions.offsets.get(i));
+        assertEquals(zoneName, tzif.typeIsDst[type] ? 1 : 0, transitions.isDst.get(i));
+      }
+    }
+  }
+
+  // Blocks much smaller than the data section, so that there are many of them and payloads that
+  // span a block boundary.
+  @Test
+  public void compressedBlocks() throws Exception {
+    ZoneCompactor.Options options = new ZoneCompactor.Options();
+    options.compressedBlockSize = 1024;
+    write(options);
+    TzDataFile file = open(outputDirectory.resolve("tzdata_compressed"));
+    assertTrue(file.isCompressed());
+    assertEquals("tzblk2019b", file.getVersion());
+    assertTrue(file.getSection(TzDataFile.COMPRESSED_BLOCKS_SECTION).getInt(0) > 1);
+    checkZones(file, false /* aliases */);
+  }
+
+  @Test
+  public void checksums() throws Exception {
+    ZoneCompactor.Options options = new ZoneCompactor.Options();
+    options.checksums = true;
+    checkChecksums(options);
+
+    options.compactIndex = true;
+    options.aliasTable = true;
+    checkChecksums(options);
+  }
+
+  @Test
+  public void compactIndex() throws Exception {
+    ZoneCompactor.Options options = new ZoneCompactor.Options();
+    options.compactIndex = true;
+    TzDataFile file = write(options);
+    assertEquals("tzidx2019b", file.getVersion());
+    assertEquals(file.getIndexOffset(), file.getDataOffset());
+    assertNotNull(file.getSection(TzDataFile.NAME_DICTIONARY_SECTION));
+    checkZones(file, false /* aliases */);
+
+    options.perfectHash = true;
+    checkZones(write(options), false /* aliases */);
+  }
+
+  @Test
+  public void aliasTable() throws Exception {
+    ZoneCompactor.Options options = new ZoneCompactor.Options();
+    options.compactIndex = true;
+    options.aliasTable = true;
+    TzDataFile file = write(options);
+    checkZones(file, true /* aliases */);
+    assertEquals(1, file.getAliasCount());
+    assertEquals(LINK, file.getAliasId(0));
+    assertEquals(file.findZone(canonicalName(LINK)), file.getAliasTarget(0));
+    assertEquals(file.findZone(canonicalName(LINK)), file.findAlias(LINK));
+    assertEquals(-1, file.findAlias(canonicalName(LINK)));
+
+    options.perfectHash = true;
+    checkZones(write(options), true /* aliases */);
+  }
+
+  @Test
+  public void countryIndex() throws Exception {
+    ZoneCompactor.Options options = new ZoneCompactor.Options();
+    options.countryIndex = true;
+    TzDataFile file = write(options);
+    checkZones(file, false /* aliases */);
+
+    Map<String,List<Integer>> expected = new TreeMap<String,List<Integer>>();
+    for (String line : TestZones.ZONE_TAB.split("\n")) {
+      String[] fields = line.split("\t");
+      if (!expected.containsKey(fields[0])) {
+        expected.put(fields[0], new ArrayList<Integer>());
+      }
+      expected.get(fields[0]).add(file.findZone(fields[2]));
+    }
+    assertEquals(expected.size(), file.getCountryCount());
+    int countryIndex = 0;
+    for (Map.Entry<String,List<Integer>> country : expected.entrySet()) {
+      assertEquals(country.getKey(), file.getCountryCode(countryIndex++));
+      IntBuffer slots = file.getCountryZones(country.getKey());
+      List<Integer> actual = new ArrayList<Integer>();
+      while (slots.hasRemaining()) {
+        actual.add(slots.get());
+      }
+      assertEquals(country.getKey(), country.getValue(), actual);
+    }
+    assertNull(file.getCountryZones("ZZ"));
+  }
+
+  @Test
+  public void rules() throws Exception {
+    ZoneCompactor.Options options = new ZoneCompactor.Options();
+    options.rules = true;
+    TzDataFile file = write(options);
+    checkZones(file, false /* aliases */);
+
+    Map<String,Integer> ruleIds = new HashMap<String,Integer>();
+    for (String zoneName : zoneNames(false /* aliases */)) {
+      String footer = TzifFile.parse(TestZones.read(canonicalName(zoneName)), zoneName).footer;
+      int ruleId = file.getRuleId(file.findZone(zoneName));
+      assertEquals(zoneName, footer, file.getRule(ruleId));
+      if (ruleIds.containsKey(footer)) {
+        assertEquals(zoneName, (int) ruleIds.get(footer), ruleId);
+      }
+      ruleIds.put(footer, ruleId);
+    }
+    assertEquals(ruleIds.size(), file.getRuleCount());
+  }
+
+  @Test
+  public void yearBuckets() throws Exception {
+    ZoneCompactor.Options options = new ZoneCompactor.Options();
+    options.yearBuckets = true;
+    options.yearBucketsFirst = 1970;
+    options.yearBucketsLast = 2037;
+    TzDataFile file = write(options);
+    checkZones(file, false /* aliases */);
+
+    long rangeStart = ZoneCompactor.Options.startOfYear(1970);
+    long rangeEnd = ZoneCompactor.Options.startOfYear(2038);
+    assertTrue(file.isInYearBuckets(rangeStart));
+    assertFalse(file.isInYearBuckets(rangeStart - 1));
+    assertFalse(file.isInYearBuckets(rangeEnd));
+    for (String zoneName : zoneNames(false /* aliases */)) {
+      TzifFile tzif = TzifFile.parse(TestZones.read(canonicalName(zoneName)), zoneName);
+      int index = file.findZone(zoneName);
+      SortedSet<Long> times = new TreeSet<Long>(Arrays.asList(rangeStart, rangeEnd - 1));
+      for (long time : tzif.transitionTimes) {
+        if (time > rangeStart && time < rangeEnd) {
+          times.add(time - 1);
+          times.add(time);
+        }
+      }
+      for (long time : times) {
+        assertEquals(zoneName + " at " + time, tzif.typeOffsets[tzif.typeAt(time)],
+            file.getOffsetAt(index, time));
+      }
+    }
+  }
+
+  // Every option at once, along with deduplication and alignment.
+  @Test
+  public void allOptions() throws Exception {
+    ZoneCompactor.Options options = new ZoneCompactor.Options();
+    options.deduplicate = true;
+    options.alignment = 64;
+    options.perfectHash = true;
+    options.transitions = true;
+    options.checksums = true;
+    options.compactIndex = true;
+    options.aliasTable = true;
+    options.countryIndex = true;
+    options.rules = true;
+    options.yearBuckets = true;
+    options.yearBucketsFirst = 2000;
+    options.yearBucketsLast = 2040;
+    options.compressedBlockSize = 4096;
+    TzDataFile file = write(options);
+    checkZones(file, true /* aliases */);
+    file.verifyChecksums();
+    for (int i = 0; i < file.getZoneCount(); ++i) {
+      assertEquals(0, file.getPayloadOffset(i) % 64);
+      assertNotNull(file.getTransitions(i));
+    }
+
+    TzDataFile compressed = open(outputDirectory.resolve("tzdata_compressed"));
+    checkZones(compressed, true /* aliases */);
+    compressed.verifyChecksums();
+  }
+
+  private void checkChecksums(ZoneCompactor.Options options) throws Exception {
+    TzDataFile file = write(options);
+    assertTrue(file.hasChecksums());
+    checkZones(file, options.aliasTable);
+    file.verifyChecksums();
+    file.close();
+    openFiles.remove(file);
+
+    // The last byte of the last payload, which is just before zone.tab.
+    Path tzdata = outputDirectory.resolve("tzdata");
+    RandomAccessFile raf = new RandomAccessFile(tzdata.toFile(), "rw");
+    try {
+      raf.seek(20);
+      long position = raf.readInt() - 1;
+      raf.seek(position);
+      int b = raf.read();
+      raf.seek(position);
+      raf.write(b ^ 1);
+    } finally {
+      raf.close();
+    }
+    try {
+      open(tzdata).verifyChecksums();
+      fail();
+    } catch (IOException expected) {
+      assertTrue(expected.getMessage(),
+          expected.getMessage().startsWith("Payload checksum mismatch for "));
+    }
+  }
+
+  // Checks that every zone, and the link to the first of them, is found and has its zic output,
+  // and that zone.tab is as written. If 'aliases' is true, the link is in the alias section
+  // instead of the index.
+  private static void checkZones(TzDataFile file, boolean aliases) throws Exception {
+    List<String> zoneNames = zoneNames(aliases);
+    assertEquals(zoneNames.size(), file.getZoneCount());
+    for (int i = 0; i < zoneNames.size(); ++i) {
+      assertEquals(zoneNames.get(i), file.getZoneId(i));
+    }
+    List<String> allNames = new ArrayList<String>(zoneNames(false /* aliases */));
+    for (String zoneName : allNames) {
+      int index = file.findZone(zoneName);
+      assertEquals(zoneName, zoneNames.indexOf(canonicalName(zoneName, aliases)), index);
+      ByteBuffer payload = file.getPayload(zoneName);
+      byte[] bytes = new byte[payload.remaining()];
+      payload.get(bytes);
+      assertArrayEquals(zoneName, TestZones.read(canonicalName(zoneName)), bytes);
+    }
+    assertTrue(file.findZone("Nowhere/Else") < 0);
+    assertTrue(file.findZone("") < 0);
+
+    ByteBuffer zoneTab = file.getZoneTab();
+    byte[] zoneTabBytes = new byte[zoneTab.remaining()];
+    zoneTab.get(zoneTabBytes);
+    assertEquals(TestZones.ZONE_TAB, new String(zoneTabBytes, StandardCharsets.US_ASCII));
+  }
+
+  // Returns the names in the index, sorted. If 'aliases' is true, the link is left out.
+  private static List<String> zoneNames(boolean aliases) {
+    List<String> zoneNames = new ArrayList<String>(TestZones.ZONE_NAMES);
+    if (!aliases) {
+      zoneNames.add(LINK);
+    }
+    Collections.sort(zoneNames);
+    return zoneNames;
+  }
+
+  // Returns the zone whose zic output is stored for 'zoneName'.
+  private static String canonicalName(String zoneName) {
+    return zoneName.equals(LINK) ? TestZones.ZONE_NAMES.get(0) : zoneName;
+  }
+
+  // Returns the name of the index slot that 'zoneName' is found at.
+  private static String canonicalName(String zoneName, boolean aliases) {
+    return aliases ? canonicalName(zoneName) : zoneName;
+  }
+
+  // Writes the test zones to the output directory with 'options', and opens the tzdata.
+  private TzDataFile write(ZoneCompactor.Options options) throws Exception {
+    TestZones.builder(TestZones.readAll(), options).build().writeToDirectory(outputDirectory);
+    return open(outputDirectory.resolve("tzdata"));
+  }
+
+  private TzDataFile open(Path path) throws Exception {
+    TzDataFile file = TzDataFile.open(path);
+    openFiles.add(file);
+    return file;
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Tests of trimming zic output to a window. Each trimmed file is compared with the untrimmed one
+// at both ends of the window and on both sides of every transition in it, in the 64-bit data and
+// in the version 1 block, independently of TzifFile.checkEquivalent().
+public class TzifFileTest {
+  private static final int[][] WINDOWS = {
+      { 1800, 1850 }, { 1900, 1950 }, { 1970, 2037 }, { 2000, 2000 }, { 2030, 2050 },
+      { 2050, 2060 },
+  };
+
+  @Test
+  public void roundTrip() throws Exception {
+    for (String zoneName : TestZones.ZONE_NAMES) {
+      byte[] bytes = TestZones.read(zoneName);
+      TzifFile tzif = TzifFile.parse(bytes, zoneName);
+      byte[] written = tzif.toBytes();
+      TzifFile reparsed = TzifFile.parse(written, zoneName);
+      assertArrayEquals(tzif.transitionTimes, reparsed.transitionTimes);
+      assertArrayEquals(tzif.transitionTypes, reparsed.transitionTypes);
+      assertEquals(tzif.footer, reparsed.footer);
+      // zic leaves unused types out of the version 1 block, so the blocks may differ, but not in
+      // what they describe.
+      assertVersion1BlocksEquivalent(zoneName, bytes, written, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+  }
+
+  // zic writes the last transition before 1901 at the earliest time the version 1 block can
+  // hold, rather than leaving it out and putting LMT in force until the first transition after.
+  @Test
+  public void version1BlockKeepsTransitionBefore1901() throws Exception {
+    byte[] bytes = TestZones.read("Europe/London");
+    TzifFile tzif = TzifFile.parse(bytes, "Europe/London");
+    assertTrue(tzif.transitionTimes[0] < Integer.MIN_VALUE);
+    assertArrayEquals(bytes, tzif.toBytes());
+
+    TzifFile version1 = TzifFile.parseVersion1Block(tzif.toBytes(), "Europe/London");
+    assertEquals(Integer.MIN_VALUE, version1.transitionTimes[0]);
+    assertEquals("0 GMT", describe(version1, Integer.MIN_VALUE));
+  }
+
+  @Test
+  public void trimToWindows() throws Exception {
+    for (String zoneName : TestZones.ZONE_NAMES) {
+      for (int[] window : WINDOWS) {
+        checkTrim(zoneName, startOfYear(window[0]), startOfYear(window[1] + 1));
+      }
+    }
+  }
+
+  @Test
+  public void transitionAtWindowStartAndEnd() throws Exception {
+    TzifFile tzif = TzifFile.parse(TestZones.read("Europe/London"), "Europe/London");
+    int first = Arrays.binarySearch(tzif.transitionTimes, 1000000000L);
+    first = -first - 1;
+    int last = first + 6;
+    long start = tzif.transitionTimes[first];
+    long end = tzif.transitionTimes[last];
+
+    TzifFile trimmed = checkTrim("Europe/London", start, end);
+    assertArrayEquals(
+        Arrays.copyOfRange(tzif.transitionTimes, first, last + 1), trimmed.transitionTimes);
+  }
+
+  @Test
+  public void windowBeforeFirstTransition() throws Exception {
+    TzifFile tzif = TzifFile.parse(TestZones.read("Asia/Tokyo"), "Asia/Tokyo");
+    long start = startOfYear(1800);
+    long end = startOfYear(1851);
+    assertTrue(tzif.transitionTimes[0] > end);
+
+    TzifFile trimmed = checkTrim("Asia/Tokyo", start, end);
+    assertArrayEquals(new long[] { tzif.transitionTimes[0] }, trimmed.transitionTimes);
+    assertEquals("33539 LMT", describe(trimmed, start));
+  }
+
+  @Test
+  public void windowAfterLastTransition() throws Exception {
+    TzifFile tzif = TzifFile.parse(TestZones.read("Europe/London"), "Europe/London");
+    long start = startOfYear(2050);
+    long end = startOfYear(2061);
+    long lastTime = tzif.transitionTimes[tzif.transitionTimes.length - 1];
+    assertTrue(lastTime < start);
+
+    TzifFile trimmed = checkTrim("Europe/London", start, end);
+    assertArrayEquals(new long[] { lastTime }, trimmed.transitionTimes);
+    assertEquals(tzif.footer, trimmed.footer);
+  }
+
+  // The 64-bit data of Africa/Casablanca has transitions until 2087, which the version 1 block
+  // cannot hold.
+  @Test
+  public void windowPastVersion1Block() throws Exception {
+    long start = startOfYear(2030);
+    long end = startOfYear(2046);
+    TzifFile trimmed = checkTrim("Africa/Casablanca", start, end);
+    assertTrue(trimmed.transitionTimes[trimmed.transitionTimes.length - 1] >= end);
+
+    TzifFile version1 = TzifFile.parseVersion1Block(trimmed.toBytes(), "Africa/Casablanca");
+    assertTrue(version1.transitionTimes.length < trimmed.transitionTimes.length);
+    for (long time : version1.transitionTimes) {
+      assertTrue(time <= Integer.MAX_VALUE);
+    }
+  }
+
+  @Test
+  public void checkEquivalentDetectsDifferences() throws Exception {
+    TzifFile tzif = TzifFile.parse(TestZones.read("Europe/London"), "Europe/London");
+    TzifFile trimmed = tzif.trim(startOfYear(2000), startOfYear(2005));
+    try {
+      tzif.checkEquivalent(trimmed, startOfYear(2000), startOfYear(2010), "Europe/London");
+      fail();
+    } catch (RuntimeException expected) {
+    }
+  }
+
+  // Trims the zone to [start, end), checks that local time in the window is unchanged and returns
+  // the trimmed file.
+  private static TzifFile checkTrim(String zoneName, long start, long end) throws Exception {
+    String message = zoneName + " [" + start + ", " + end + ")";
+    byte[] bytes = TestZones.read(zoneName);
+    TzifFile tzif = TzifFile.parse(bytes, zoneName);
+    TzifFile trimmed = tzif.trim(start, end);
+    assertTrue(message, trimmed.transitionTimes.length <= tzif.transitionTimes.length);
+    assertEquals(message, tzif.footer, trimmed.footer);
+    assertEquivalent(message, tzif, trimmed, start, end);
+    tzif.checkEquivalent(trimmed, start, end, zoneName);
+
+    byte[] trimmedBytes = trimmed.toBytes();
+    TzifFile reparsed = TzifFile.parse(trimmedBytes, zoneName);
+    assertArrayEquals(message, trimmed.transitionTimes, reparsed.transitionTimes);
+    assertVersion1BlocksEquivalent(message, bytes, trimmedBytes, start, end);
+    TzifFile.checkVersion1BlocksEquivalent(bytes, trimmedBytes, start, end, zoneName);
+    return trimmed;
+  }
+
+  private static void assertVersion1BlocksEquivalent(String message, byte[] bytes,
+      byte[] otherBytes, long start, long end) {
+    start = Math.max(start, Integer.MIN_VALUE);
+    end = Math.min(end, Integer.MAX_VALUE + 1L);
+    if (start < end) {
+      assertEquivalent(message + " version 1", TzifFile.parseVersion1Block(bytes, message),
+          TzifFile.parseVersion1Block(otherBytes, message), start, end);
+    }
+  }
+
+  // Checks that both files describe the same local time at both ends of [start, end) and on both
+  // sides of every transition of either file in it.
+  private static void assertEquivalent(String message, TzifFile expected, TzifFile actual,
+      long start, long end) {
+    SortedSet<Long> times = new TreeSet<Long>();
+    times.add(start);
+    times.add(end - 1);
+    for (TzifFile tzif : new TzifFile[] { expected, actual }) {
+      for (long time : tzif.transitionTimes) {
+        if (time > start && time < end) {
+          times.add(time - 1);
+          times.add(time);
+        }
+      }
+    }
+    for (long time : times) {
+      assertEquals(message + " at " + time, describe(expected, time), describe(actual, time));
+    }
+  }
+
+  // Returns the total offset, the abbreviation and whether it is daylight saving time at 'time'.
+  private static String describe(TzifFile tzif, long time) {
+    int type = tzif.typeAt(time);
+    return tzif.typeOffsets[type] + " " + tzif.abbreviation(type)
+        + (tzif.typeIsDst[type] ? " DST" : "");
+  }
+
+  private static long startOfYear(int year) {
+    return ZoneCompactor.Options.startOfYear(year);
+  }
+}
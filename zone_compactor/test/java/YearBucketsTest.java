@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Tests of the year buckets section built from real zic output. Offsets are looked up in the
+// section the way a reader would, and compared with the offsets that the explicit transitions in
+// the zic output give, at every year boundary and on both sides of every transition in the range.
+public class YearBucketsTest {
+  // zic writes explicit transitions up to this year as well as the footer.
+  private static final int LAST_EXPLICIT_YEAR = 2037;
+
+  @Test
+  public void explicitTransitions() throws Exception {
+    for (String zoneName : TestZones.ZONE_NAMES) {
+      TzifFile tzif = TzifFile.parse(TestZones.read(zoneName), zoneName);
+      checkTable(zoneName, tzif, tzif, 1900, LAST_EXPLICIT_YEAR);
+    }
+  }
+
+  // The zic output is cut short so that the footer is used for the later years, which can then
+  // be checked against the explicit transitions that zic wrote for them. Each zone is cut after
+  // its current rules came into force.
+  @Test
+  public void footerTransitions() throws Exception {
+    checkFooter("America/New_York", TestZones.read("America/New_York"), 2008);
+    checkFooter("Europe/London", TestZones.read("Europe/London"), 1997);
+  }
+
+  @Test
+  public void footerTransitions_southernHemisphere() throws Exception {
+    checkFooter("Australia/Sydney", TestZones.read("Australia/Sydney"), 2009);
+    checkFooter("Pacific/Auckland", TestZones.read("Pacific/Auckland"), 2009);
+  }
+
+  @Test
+  public void footerTransitions_negativeDst() throws Exception {
+    checkFooter("Europe/Dublin", TestZones.readVanguard("Europe/Dublin"), 1997);
+    checkFooter("Europe/Dublin", TestZones.read("Europe/Dublin"), 1997);
+  }
+
+  // Without a footer, the last explicit transition applies forever.
+  @Test
+  public void noFooter() throws Exception {
+    TzifFile tzif = TzifFile.parseVersion1Block(TestZones.read("Europe/London"), "Europe/London");
+    ByteBuffer section = buildSection("Europe/London", tzif, 2030, 2045);
+    for (int year = 2038; year <= 2045; ++year) {
+      assertEquals(0, transitionCount(section, 0, year));
+      assertEquals(0, offsetAt(section, 0, startOfYear(year)));
+    }
+    checkTable("Europe/London", tzif, tzif, 2030, 2045);
+  }
+
+  @Test
+  public void footerWithoutDst() throws Exception {
+    TzifFile tzif = TzifFile.parse(TestZones.read("Asia/Tokyo"), "Asia/Tokyo");
+    ByteBuffer section = buildSection("Asia/Tokyo", tzif, 2030, 2100);
+    for (int year = 2030; year <= 2100; ++year) {
+      assertEquals(0, transitionCount(section, 0, year));
+      assertEquals(9 * 3600, offsetAt(section, 0, startOfYear(year)));
+    }
+  }
+
+  // The footer of the rearguard Africa/Casablanca is daylight saving time all year, which ends
+  // and starts again at every new year. Neither change is kept, as the offset does not change.
+  @Test
+  public void footerWithDstAllYear() throws Exception {
+    TzifFile tzif = TzifFile.parse(TestZones.read("Africa/Casablanca"), "Africa/Casablanca");
+    ByteBuffer section = buildSection("Africa/Casablanca", tzif, 2088, 2100);
+    for (int year = 2088; year <= 2100; ++year) {
+      assertEquals(0, transitionCount(section, 0, year));
+      assertEquals(3600, offsetAt(section, 0, startOfYear(year)));
+      assertEquals(3600, offsetAt(section, 0, startOfYear(year + 1) - 1));
+    }
+  }
+
+  // Ranges of one year, at the end of the explicit transitions and just after it.
+  @Test
+  public void firstAndLastYears() throws Exception {
+    TzifFile london = TzifFile.parse(TestZones.read("Europe/London"), "Europe/London");
+    checkTable("Europe/London", london, london, LAST_EXPLICIT_YEAR, LAST_EXPLICIT_YEAR);
+    checkRuleYear("Europe/London", london, LAST_EXPLICIT_YEAR + 1, 0);
+
+    // The year starts in daylight saving time.
+    TzifFile sydney = TzifFile.parse(TestZones.read("Australia/Sydney"), "Australia/Sydney");
+    checkTable("Australia/Sydney", sydney, sydney, LAST_EXPLICIT_YEAR, LAST_EXPLICIT_YEAR);
+    checkRuleYear("Australia/Sydney", sydney, LAST_EXPLICIT_YEAR + 1, 11 * 3600);
+  }
+
+  // Tables with the same contents are stored once.
+  @Test
+  public void sharedTables() throws Exception {
+    TzifFile london = TzifFile.parse(TestZones.read("Europe/London"), "Europe/London");
+    TzifFile tokyo = TzifFile.parse(TestZones.read("Asia/Tokyo"), "Asia/Tokyo");
+    List<ByteBuffer> tables = Arrays.asList(
+        YearBuckets.buildTable(london, 2000, 2010, "Europe/London"),
+        YearBuckets.buildTable(tokyo, 2000, 2010, "Asia/Tokyo"),
+        YearBuckets.buildTable(london, 2000, 2010, "Europe/London"));
+    ByteBuffer section = YearBuckets.build(2000, 2010, tables);
+    assertEquals(tableOffset(section, 0), tableOffset(section, 2));
+    for (int year = 2000; year <= 2011; ++year) {
+      assertEquals(startOfYear(year), section.getLong(16 + 8 * (year - 2000)));
+    }
+  }
+
+  // Checks the table for 'zoneName' built from 'tzif', cut short at the start of 'cutYear',
+  // against the explicit transitions of 'tzif' from 'cutYear' to the last explicit year.
+  private static void checkFooter(String zoneName, byte[] bytes, int cutYear) {
+    TzifFile tzif = TzifFile.parse(bytes, zoneName);
+    TzifFile cut = tzif.trim(Long.MIN_VALUE, startOfYear(cutYear));
+    assertTrue(zoneName,
+        cut.transitionTimes[cut.transitionTimes.length - 1] < startOfYear(cutYear + 1));
+    checkTable(zoneName, cut, tzif, cutYear, LAST_EXPLICIT_YEAR);
+  }
+
+  // Checks the table built from 'tzif' against the offsets that the explicit transitions of
+  // 'expected' give, at the start and end of every year in the range and on both sides of
+  // every transition in it.
+  private static void checkTable(String zoneName, TzifFile tzif, TzifFile expected,
+      int firstYear, int lastYear) {
+    ByteBuffer section = buildSection(zoneName, tzif, firstYear, lastYear);
+    SortedSet<Long> times = new TreeSet<Long>();
+    for (int year = firstYear; year <= lastYear + 1; ++year) {
+      times.add(startOfYear(year));
+      times.add(startOfYear(year) - 1);
+    }
+    long rangeStart = startOfYear(firstYear);
+    long rangeEnd = startOfYear(lastYear + 1);
+    for (long time : expected.transitionTimes) {
+      times.add(time);
+      times.add(time - 1);
+    }
+    for (long time : times) {
+      if (time >= rangeStart && time < rangeEnd) {
+        assertEquals(zoneName + " at " + Instant.ofEpochSecond(time),
+            expected.typeOffsets[expected.typeAt(time)], offsetAt(section, 0, time));
+      }
+    }
+  }
+
+  // Checks the table for the single year 'year', which is after the explicit transitions,
+  // against the transitions that the footer gives for it.
+  private static void checkRuleYear(String zoneName, TzifFile tzif, int year,
+      int offsetAtStart) {
+    ByteBuffer section = buildSection(zoneName, tzif, year, year);
+    assertEquals(offsetAtStart, offsetAt(section, 0, startOfYear(year)));
+    assertEquals(offsetAtStart, offsetAt(section, 0, startOfYear(year + 1) - 1));
+    long[][] transitions = PosixTz.parse(tzif.footer, zoneName).transitions(year);
+    assertEquals(transitions.length, transitionCount(section, 0, year));
+    for (long[] transition : transitions) {
+      assertEquals(transition[1], offsetAt(section, 0, transition[0]));
+      assertEquals(transition[1] == offsetAtStart ? transitions[0][1] : offsetAtStart,
+          offsetAt(section, 0, transition[0] - 1));
+    }
+  }
+
+  private static ByteBuffer buildSection(String zoneName, TzifFile tzif, int firstYear,
+      int lastYear) {
+    ByteBuffer table = YearBuckets.buildTable(tzif, firstYear, lastYear, zoneName);
+    return YearBuckets.build(firstYear, lastYear, Collections.singletonList(table));
+  }
+
+  private static int tableOffset(ByteBuffer section, int slot) {
+    int yearCount = section.getInt(4);
+    return section.getInt(16 + 8 * (yearCount + 1) + 4 * slot);
+  }
+
+  // Returns the number of transitions in the bucket for 'year'.
+  private static int transitionCount(ByteBuffer section, int slot, int year) {
+    int table = tableOffset(section, slot);
+    int y = year - section.getInt(0);
+    return section.getInt(table + 8 + 4 * (y + 1)) - section.getInt(table + 8 + 4 * y);
+  }
+
+  // Returns the offset at 'time' for the index slot 'slot', going through the bucket for the
+  // year that 'time' is in, as a reader does.
+  private static int offsetAt(ByteBuffer section, int slot, long time) {
+    int firstYear = section.getInt(0);
+    int yearCount = section.getInt(4);
+    int y = Instant.ofEpochSecond(time).atOffset(ZoneOffset.UTC).getYear() - firstYear;
+    if (y < 0 || y >= yearCount) {
+      throw new IllegalArgumentException("outside the range: " + time);
+    }
+    int table = tableOffset(section, slot);
+    int count = section.getInt(table);
+    int timesOffset = table + ((8 + 4 * (yearCount + 1) + 7) & ~7);
+    int offsetsOffset = timesOffset + 8 * count;
+    int first = section.getInt(table + 8 + 4 * y);
+    int end = section.getInt(table + 8 + 4 * (y + 1));
+    int i = first;
+    while (i < end && section.getLong(timesOffset + 8 * i) <= time) {
+      ++i;
+    }
+    return i == 0 ? section.getInt(table + 4) : section.getInt(offsetsOffset + 4 * (i - 1));
+  }
+
+  private static long startOfYear(int year) {
+    return ZoneCompactor.Options.startOfYear(year);
+  }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.android.timezone.tzdata.TzDataFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Tests of ZoneCompactor with zone files read from a directory, as the command line tool does.
+public class ZoneCompactorTest {
+  private Path dataDirectory;
+  private Path outputDirectory;
+
+  @Before
+  public void setUp() throws Exception {
+    dataDirectory = Files.createTempDirectory("ZoneCompactorTest-data");
+    outputDirectory = Files.createTempDirectory("ZoneCompactorTest-out");
+    TestZones.writeZoneFiles(dataDirectory, TestZones.readAll());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    TestZones.deleteRecursively(dataDirectory.toFile());
+    TestZones.deleteRecursively(outputDirectory.toFile());
+  }
+
+  // With the default options, the zone files are laid out as the old ZoneCompactor did, whether
+  // they are read from files or from memory and however the output is written.
+  @Test
+  public void sameBytesAsBaseline() throws Exception {
+    byte[] expected = TestZones.readBaseline("tzdata");
+    for (ZoneCompactor compactor : compactors(TestZones.ZONE_NAMES,
+        new ZoneCompactor.Options())) {
+      assertArrayEquals(expected, compactor.toByteArray());
+      compactor.writeToDirectory(outputDirectory);
+      assertArrayEquals(expected, Files.readAllBytes(outputDirectory.resolve("tzdata")));
+    }
+  }
+
+  // The zone files are read in parallel, but their data is laid out in setup file order, which
+  // here is not the sorted order of the index.
+  @Test
+  public void setupFileOrder() throws Exception {
+    List<String> zoneNames = new ArrayList<String>(TestZones.ZONE_NAMES);
+    Collections.reverse(zoneNames);
+    byte[] expected = TestZones.readBaseline("tzdata-reversed");
+    for (ZoneCompactor compactor : compactors(zoneNames, new ZoneCompactor.Options())) {
+      assertArrayEquals(expected, compactor.toByteArray());
+    }
+  }
+
+  // A copy of a zone that is not declared as a link shares the data of the first zone in setup
+  // file order with the same contents, even when it comes first in the index.
+  @Test
+  public void deduplicate() throws Exception {
+    TestZones.writeZoneFiles(dataDirectory,
+        Collections.singletonMap("Africa/Tokyo", TestZones.read("Asia/Tokyo")));
+    List<String> zoneNames = new ArrayList<String>(TestZones.ZONE_NAMES);
+    zoneNames.add("Africa/Tokyo");
+    int dataLength = 0;
+    for (String zoneName : TestZones.ZONE_NAMES) {
+      dataLength += TestZones.read(zoneName).length;
+    }
+
+    ZoneCompactor.Options options = new ZoneCompactor.Options();
+    options.deduplicate = true;
+    for (ZoneCompactor compactor : compactors(zoneNames, options)) {
+      compactor.writeToDirectory(outputDirectory);
+      TzDataFile tzdata = TzDataFile.open(outputDirectory.resolve("tzdata"));
+      try {
+        int copy = tzdata.findZone("Africa/Tokyo");
+        int original = tzdata.findZone("Asia/Tokyo");
+        assertTrue(copy < original);
+        assertEquals(tzdata.getPayloadOffset(original), tzdata.getPayloadOffset(copy));
+        assertEquals(tzdata.getPayloadLength(original), tzdata.getPayloadLength(copy));
+        assertEquals(dataLength, tzdata.getZoneTabOffset() - tzdata.getDataOffset());
+      } finally {
+        tzdata.close();
+      }
+    }
+
+    // Without deduplication, the copy is stored again at the end.
+    for (ZoneCompactor compactor : compactors(zoneNames, new ZoneCompactor.Options())) {
+      compactor.writeToDirectory(outputDirectory);
+      TzDataFile tzdata = TzDataFile.open(outputDirectory.resolve("tzdata"));
+      try {
+        int copy = tzdata.findZone("Africa/Tokyo");
+        assertEquals(tzdata.getDataOffset() + dataLength, tzdata.getPayloadOffset(copy));
+        assertEquals(tzdata.getPayloadOffset(copy) + tzdata.getPayloadLength(copy),
+            tzdata.getZoneTabOffset());
+      } finally {
+        tzdata.close();
+      }
+    }
+  }
+
+  // Payloads and sections start on a multiple of the alignment, with zeros in between. The data
+  // section is aligned by padding before the index, so that the index still ends at data_offset
+  // and readers can work out the number of entries from it.
+  @Test
+  public void align() throws Exception {
+    for (int alignment : new int[] { 64, 4096 }) {
+      ZoneCompactor.Options options = new ZoneCompactor.Options();
+      options.alignment = alignment;
+      checkAligned(options);
+      options.checksums = true;
+      options.perfectHash = true;
+      checkAligned(options);
+    }
+  }
+
+  // The zone files are sparse, so only their first bytes take up space.
+  @Test
+  public void dataSectionTooLarge() throws Exception {
+    writeSparseZoneFile(dataDirectory.resolve("Test/Big1"), 3L << 29);
+    writeSparseZoneFile(dataDirectory.resolve("Test/Big2"), 3L << 29);
+    checkBuildFails(Arrays.asList("Test/Big1", "Test/Big2"),
+        "data section too large at Test/Big2");
+  }
+
+  // The data section fits, but the header, index and zone.tab around it do not.
+  @Test
+  public void fileTooLarge() throws Exception {
+    writeSparseZoneFile(dataDirectory.resolve("Test/Big"), Integer.MAX_VALUE - 16);
+    checkBuildFails(Arrays.asList("Test/Big"), "tzdata too large");
+  }
+
+  // A zone file that changes size after the tzdata is laid out cannot be written. The partly
+  // written tzdata is deleted and the compressed variant is not made from it.
+  @Test
+  public void zoneFileChangesSize() throws Exception {
+    ZoneCompactor.Options options = new ZoneCompactor.Options();
+    options.compressedBlockSize = 4096;
+    ZoneCompactor compactor = TestZones.builder(dataDirectory, TestZones.ZONE_NAMES, options)
+        .build();
+    Files.write(dataDirectory.resolve("Asia/Tokyo"), new byte[1], StandardOpenOption.APPEND);
+    try {
+      compactor.writeToDirectory(outputDirectory);
+      fail();
+    } catch (RuntimeException expected) {
+      assertTrue(expected.getMessage(),
+          expected.getMessage().startsWith("zone file changed size during compaction"));
+    }
+    assertFalse(outputDirectory.resolve("tzdata").toFile().exists());
+    assertFalse(outputDirectory.resolve("tzdata_compressed").toFile().exists());
+  }
+
+  @Test
+  public void verifyCorruptPayload() throws Exception {
+    for (ZoneCompactor compactor : unverifiedCompactors()) {
+      File tzdata = writeUnverified(compactor);
+      compactor.verifyOrDelete(tzdata);
+
+      // The last byte of the last payload, which is just before zone.tab.
+      RandomAccessFile file = new RandomAccessFile(tzdata, "rw");
+      try {
+        file.seek(20);
+        long position = file.readInt() - 1;
+        file.seek(position);
+        int b = file.read();
+        file.seek(position);
+        file.write(b ^ 1);
+      } finally {
+        file.close();
+      }
+      checkVerifyFails(compactor, tzdata, "verify: Pacific/Kosrae does not match");
+    }
+  }
+
+  @Test
+  public void verifyShortFile() throws Exception {
+    for (ZoneCompactor compactor : unverifiedCompactors()) {
+      File tzdata = writeUnverified(compactor);
+      RandomAccessFile file = new RandomAccessFile(tzdata, "rw");
+      try {
+        file.setLength(file.length() - 1);
+      } finally {
+        file.close();
+      }
+      checkVerifyFails(compactor, tzdata, "verify: " + tzdata + " is ");
+    }
+  }
+
+  @Test
+  public void verifyCorruptHeader() throws Exception {
+    for (ZoneCompactor compactor : unverifiedCompactors()) {
+      File tzdata = writeUnverified(compactor);
+      RandomAccessFile file = new RandomAccessFile(tzdata, "rw");
+      try {
+        file.seek(16);
+        int dataOffset = file.readInt();
+        file.seek(16);
+        file.writeInt(dataOffset + 1);
+      } finally {
+        file.close();
+      }
+      checkVerifyFails(compactor, tzdata, "verify: bad header offsets");
+    }
+  }
+
+  // Returns compactors that do not verify what they write, for the test zones read from files and
+  // from memory.
+  private List<ZoneCompactor> unverifiedCompactors() throws Exception {
+    ZoneCompactor.Options options = new ZoneCompactor.Options();
+    options.verify = false;
+    return compactors(TestZones.ZONE_NAMES, options);
+  }
+
+  // Returns compactors for 'zoneNames', in that order, that read the zone files in the data
+  // directory, and that are given their contents.
+  private List<ZoneCompactor> compactors(List<String> zoneNames, ZoneCompactor.Options options)
+      throws Exception {
+    Map<String,byte[]> zones = new LinkedHashMap<String,byte[]>();
+    for (String zoneName : zoneNames) {
+      zones.put(zoneName, Files.readAllBytes(dataDirectory.resolve(zoneName)));
+    }
+    return Arrays.asList(
+        TestZones.builder(dataDirectory, zoneNames, options).build(),
+        TestZones.builder(zones, options).build());
+  }
+
+  private File writeUnverified(ZoneCompactor compactor) throws Exception {
+    compactor.writeToDirectory(outputDirectory);
+    File tzdata = outputDirectory.resolve("tzdata").toFile();
+    assertTrue(tzdata.exists());
+    return tzdata;
+  }
+
+  private void checkAligned(ZoneCompactor.Options options) throws Exception {
+    int alignment = options.alignment;
+    for (ZoneCompactor compactor : compactors(TestZones.ZONE_NAMES, options)) {
+      compactor.writeToDirectory(outputDirectory);
+      Path path = outputDirectory.resolve("tzdata");
+      ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(path));
+      BitSet used = new BitSet();
+      used.set(0, 24);
+
+      // The sections, if any, each start on a multiple of the alignment.
+      int headerEnd = 24;
+      if (bytes.getInt(24) == 0x747a6578 /* "tzex" */) {
+        int sectionCount = bytes.getInt(28);
+        headerEnd = 32 + 12 * sectionCount;
+        used.set(24, headerEnd);
+        for (int i = 0; i < sectionCount; ++i) {
+          int offset = bytes.getInt(32 + 12 * i + 4);
+          assertEquals(0, offset % alignment);
+          used.set(offset, offset + bytes.getInt(32 + 12 * i + 8));
+        }
+      }
+
+      TzDataFile tzdata = TzDataFile.open(path);
+      try {
+        int indexOffset = tzdata.getIndexOffset();
+        int dataOffset = tzdata.getDataOffset();
+        assertEquals(0, dataOffset % alignment);
+        assertEquals(TestZones.ZONE_NAMES.size() + 1, tzdata.getZoneCount());
+        assertEquals(dataOffset, indexOffset + 52 * tzdata.getZoneCount());
+        assertTrue(indexOffset >= headerEnd);
+        used.set(indexOffset, dataOffset);
+        for (int i = 0; i < tzdata.getZoneCount(); ++i) {
+          int offset = tzdata.getPayloadOffset(i);
+          assertEquals(tzdata.getZoneId(i), 0, offset % alignment);
+          used.set(offset, offset + tzdata.getPayloadLength(i));
+        }
+        used.set(tzdata.getZoneTabOffset(), bytes.capacity());
+        checkZones(tzdata);
+      } finally {
+        tzdata.close();
+      }
+
+      // Everything else is padding.
+      for (int i = used.nextClearBit(0); i < bytes.capacity(); i = used.nextClearBit(i + 1)) {
+        assertEquals("padding at " + i, 0, bytes.get(i));
+      }
+    }
+  }
+
+  // Checks that every zone and the link have their zic output.
+  private static void checkZones(TzDataFile tzdata) throws Exception {
+    for (String zoneName : TestZones.ZONE_NAMES) {
+      ByteBuffer payload = tzdata.getPayload(zoneName);
+      byte[] contents = new byte[payload.remaining()];
+      payload.get(contents);
+      assertArrayEquals(zoneName, TestZones.read(zoneName), contents);
+    }
+    assertEquals(tzdata.getPayloadOffset(tzdata.findZone(TestZones.ZONE_NAMES.get(0))),
+        tzdata.getPayloadOffset(tzdata.findZone("Test/Link")));
+  }
+
+  private static void checkVerifyFails(ZoneCompactor compactor, File tzdata, String message)
+      throws Exception {
+    try {
+      compactor.verifyOrDelete(tzdata);
+      fail();
+    } catch (RuntimeException expected) {
+      assertTrue(expected.getMessage(), expected.getMessage().startsWith(message));
+    }
+    assertFalse(tzdata.exists());
+  }
+
+  private void checkBuildFails(List<String> zoneNames, String message) throws Exception {
+    try {
+      TestZones.builder(dataDirectory, zoneNames, new ZoneCompactor.Options()).build();
+      fail();
+    } catch (RuntimeException expected) {
+      assertTrue(expected.getMessage(), expected.getMessage().startsWith(message));
+    }
+  }
+
+  // Writes a zone file of 'length' bytes that starts like zic output and is otherwise a hole.
+  private static void writeSparseZoneFile(Path path, long length) throws Exception {
+    Files.createDirectories(path.getParent());
+    RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+    try {
+      file.write(new byte[] { 'T', 'Z', 'i', 'f' });
+      file.setLength(length);
+    } finally {
+      file.close();
+    }
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.android.timezone.tzdata.TzDataFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Tests of the zoneinfo tree written by ZoneTreeSink, which is checked against the index of a
+// tzdata built from the same zones.
+public class ZoneTreeSinkTest {
+  // A zone that is a copy of Asia/Tokyo but not declared as a link.
+  private static final String COPY = "Africa/Tokyo";
+
+  private Path dataDirectory;
+  private Path outputDirectory;
+
+  @Before
+  public void setUp() throws Exception {
+    dataDirectory = Files.createTempDirectory("ZoneTreeSinkTest-data");
+    outputDirectory = Files.createTempDirectory("ZoneTreeSinkTest-out");
+    TestZones.writeZoneFiles(dataDirectory, TestZones.readAll());
+    TestZones.writeZoneFiles(dataDirectory,
+        Collections.singletonMap(COPY, TestZones.read("Asia/Tokyo")));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    TestZones.deleteRecursively(dataDirectory.toFile());
+    TestZones.deleteRecursively(outputDirectory.toFile());
+  }
+
+  // Links and deduplicated zones are hard links to the zone whose zic output they share.
+  @Test
+  public void sameAsTzData() throws Exception {
+    ZoneCompactor.Options options = new ZoneCompactor.Options();
+    options.deduplicate = true;
+    options.zoneTree = true;
+    compactor(options).writeToDirectory(outputDirectory);
+    Path root = outputDirectory.resolve("zoneinfo");
+    checkTree(root);
+    assertTrue(Files.isSameFile(root.resolve("Test/Link"),
+        root.resolve(TestZones.ZONE_NAMES.get(0))));
+    assertTrue(Files.isSameFile(root.resolve(COPY), root.resolve("Asia/Tokyo")));
+  }
+
+  // Whatever was in the tree before is deleted, however deep.
+  @Test
+  public void replacesOldTree() throws Exception {
+    Path root = outputDirectory.resolve("zoneinfo");
+    Files.createDirectories(root.resolve("Old/Gone"));
+    Files.createDirectories(root.resolve("Asia"));
+    Files.write(root.resolve("Old/Gone/Zone"), new byte[] { 1, 2, 3 });
+    Files.write(root.resolve("Old/Zone"), new byte[] { 4 });
+    Files.write(root.resolve("Asia/Tokyo"), new byte[] { 5 }, StandardOpenOption.CREATE_NEW);
+    Files.write(root.resolve("zone.tab"), new byte[] { 6 });
+
+    new ZoneTreeSink(root);
+    assertTrue(Files.isDirectory(root));
+    assertEquals(0, list(root).size());
+
+    Files.write(root.resolve("Old"), new byte[] { 7 });
+    ZoneCompactor.Options options = new ZoneCompactor.Options();
+    options.deduplicate = true;
+    options.zoneTree = true;
+    compactor(options).writeToDirectory(outputDirectory);
+    assertFalse(Files.exists(root.resolve("Old")));
+    checkTree(root);
+  }
+
+  // The zip file system does not support hard links, so links and deduplicated zones are copied.
+  @Test
+  public void copiesWithoutHardLinks() throws Exception {
+    ZoneCompactor.Options options = new ZoneCompactor.Options();
+    options.deduplicate = true;
+    options.packed = false;
+    options.zoneTree = true;
+    URI uri = URI.create("jar:" + outputDirectory.resolve("zoneinfo.zip").toUri());
+    FileSystem zip = FileSystems.newFileSystem(uri, Collections.singletonMap("create", "true"));
+    try {
+      Path root = zip.getPath("/zoneinfo");
+      try {
+        Files.createLink(root, zip.getPath("/"));
+        fail();
+      } catch (UnsupportedOperationException expected) {
+      }
+      compactor(options).writeTo(
+          Collections.<ZoneCompactor.Sink>singletonList(new ZoneTreeSink(root)));
+
+      // The tzdata is only needed for its index.
+      compactor(new ZoneCompactor.Options()).writeToDirectory(outputDirectory);
+      checkTree(root);
+    } finally {
+      zip.close();
+    }
+  }
+
+  // Zone names that would put a file outside the tree, or replace the tree itself, are rejected.
+  @Test
+  public void badZoneNames() throws Exception {
+    Path root = outputDirectory.resolve("zoneinfo");
+    ZoneTreeSink sink = new ZoneTreeSink(root);
+    for (String zoneName : Arrays.asList("../Escape", "Europe/../../Escape", "/tmp/Escape",
+        "", ".", "Europe/..")) {
+      try {
+        sink.addZone(zoneName, 0, ByteBuffer.wrap(TestZones.read("Asia/Tokyo")));
+        fail(zoneName);
+      } catch (RuntimeException expected) {
+        assertEquals("bad zone name: " + zoneName, expected.getMessage());
+      }
+    }
+
+    sink.addZone("Asia/Tokyo", 0, ByteBuffer.wrap(TestZones.read("Asia/Tokyo")));
+    SortedMap<String,String> zoneNames = new TreeMap<String,String>();
+    zoneNames.put("../Escape", "Asia/Tokyo");
+    try {
+      sink.finish("tzdata2019b", zoneNames, new byte[0]);
+      fail();
+    } catch (RuntimeException expected) {
+      assertEquals("bad zone name: ../Escape", expected.getMessage());
+    }
+    assertFalse(Files.exists(outputDirectory.resolve("Escape")));
+    assertEquals(Arrays.asList(root.resolve("Asia"), root.resolve("Asia/Tokyo")), list(root));
+  }
+
+  private ZoneCompactor compactor(ZoneCompactor.Options options) throws Exception {
+    List<String> zoneNames = new ArrayList<String>(TestZones.ZONE_NAMES);
+    zoneNames.add(COPY);
+    return TestZones.builder(dataDirectory, zoneNames, options).build();
+  }
+
+  // Checks that the tree under 'root' holds a file for each zone in the index of the tzdata in
+  // the output directory, with the same contents, and zone.tab, and nothing else.
+  private void checkTree(Path root) throws Exception {
+    TzDataFile tzdata = TzDataFile.open(outputDirectory.resolve("tzdata"));
+    try {
+      Set<Path> expected = new HashSet<Path>();
+      for (int i = 0; i < tzdata.getZoneCount(); ++i) {
+        String zoneName = tzdata.getZoneId(i);
+        Path file = root.resolve(zoneName);
+        for (Path dir = file.getParent(); !dir.equals(root); dir = dir.getParent()) {
+          expected.add(dir);
+        }
+        expected.add(file);
+        assertArrayEquals(zoneName, bytes(tzdata.getPayload(i)), Files.readAllBytes(file));
+      }
+      expected.add(root.resolve("zone.tab"));
+      assertArrayEquals(bytes(tzdata.getZoneTab()), Files.readAllBytes(root.resolve("zone.tab")));
+      assertEquals(new TreeSet<Path>(expected), new TreeSet<Path>(list(root)));
+      assertTrue(expected.contains(root.resolve("Test/Link")));
+      assertTrue(expected.contains(root.resolve(COPY)));
+    } finally {
+      tzdata.close();
+    }
+  }
+
+  // Returns every file and directory under 'root', sorted.
+  private static List<Path> list(final Path root) throws IOException {
+    final List<Path> paths = new ArrayList<Path>();
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        if (!dir.equals(root)) {
+          paths.add(dir);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        paths.add(file);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    Collections.sort(paths);
+    return paths;
+  }
+
+  private static byte[] bytes(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+}